@@ -0,0 +1,134 @@
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.corpus_tools.pepper.common.DOCUMENT_STATUS;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.STextualDS;
+import org.eclipse.emf.common.util.URI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the token and text layers and the complete document mapping.
+ *
+ * Run with "mvn -P benchmark test-compile exec:exec", the GC profiler is enabled by default. Larger documents can be
+ * configured with JMH parameters, e.g. "-Dbenchmark.args='-p tokens=10000000 ExporterBenchmark'". The
+ * "prettyPrint" and "writer" parameters compare indented with compact output and the KorapXML with the StAX writer.
+ *
+ * @author Thomas Krause
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExporterBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	public int tokens;
+
+	@Param({"8"})
+	public int treeDepth;
+
+	@Param({"true", "false"})
+	public boolean prettyPrint;
+
+	@Param({LayerWriter.WRITER_KORAP, LayerWriter.WRITER_STAX})
+	public String writer;
+
+	private SDocument document;
+	private STextualDS text;
+	private TokenTable tokenTable;
+	private DocumentIds ids;
+	private KorapXMLExporter.KorapXMLMapper mapper;
+	private File outputDir;
+
+	/**
+	 * Discards everything that is written, so only the serialization is measured.
+	 */
+	public static final OutputStream NULL_STREAM = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static final LayerOutput NULL_OUTPUT = path -> NULL_STREAM;
+
+	@Setup(Level.Trial)
+	public void createDocument() throws IOException {
+		document = SyntheticCorpus.createDocument(tokens, treeDepth);
+		text = document.getDocumentGraph().getTextualDSs().get(0);
+		tokenTable = TokenTable.partition(document.getDocumentGraph()).get(text);
+		ids = new DocumentIds(document.getDocumentGraph());
+
+		outputDir = Files.createTempDirectory("korapxml-benchmark").toFile();
+
+		mapper = new KorapXMLExporter.KorapXMLMapper();
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+		props.setPropertyValue("output.prettyPrint", prettyPrint);
+		props.setPropertyValue("output.writer", writer);
+		// map all nodes with the built-in foundries, so mapSDocument measures the complete export
+		props.setPropertyValue("foundryMapping", "_all_->Base, _all_->TreeTagger, _all_->CoreNLP");
+		mapper.setProperties(props);
+		mapper.setDocument(document);
+		mapper.setResourceURI(URI.createFileURI(outputDir.getAbsolutePath()));
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteOutput() throws IOException {
+		if (outputDir != null) {
+			Files.walk(outputDir.toPath()).sorted((a, b) -> b.compareTo(a)).map(p -> p.toFile()).forEach(File::delete);
+		}
+	}
+
+	@Benchmark
+	public Map<STextualDS, TokenTable> partitionTokens() {
+		return TokenTable.partition(document.getDocumentGraph());
+	}
+
+	@Benchmark
+	public DocumentIds documentIds() {
+		return new DocumentIds(document.getDocumentGraph());
+	}
+
+	@Benchmark
+	public TextOffsetIndex offsetIndex() {
+		return new TextOffsetIndex(tokenTable);
+	}
+
+	@Benchmark
+	public void mapToken() {
+		mapper.mapToken(NULL_OUTPUT, tokenTable, ids);
+	}
+
+	@Benchmark
+	public void mapText() {
+		mapper.mapText(NULL_OUTPUT, text, ids);
+	}
+
+	@Benchmark
+	public DOCUMENT_STATUS mapSDocument() {
+		return mapper.mapSDocument();
+	}
+}
@@ -0,0 +1,123 @@
+package org.corpus_tools.korapxmlmodules.foundries;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.korapxmlmodules.DocumentIds;
+import org.corpus_tools.korapxmlmodules.DocumentNodeView;
+import org.corpus_tools.korapxmlmodules.ExporterBenchmark;
+import org.corpus_tools.korapxmlmodules.FoundryPlan;
+import org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties;
+import org.corpus_tools.korapxmlmodules.KorapXMLWriter;
+import org.corpus_tools.korapxmlmodules.LayerOutput;
+import org.corpus_tools.korapxmlmodules.LayerWriter;
+import org.corpus_tools.korapxmlmodules.NodeSelection;
+import org.corpus_tools.korapxmlmodules.SyntheticCorpus;
+import org.corpus_tools.korapxmlmodules.TextOffsetIndex;
+import org.corpus_tools.korapxmlmodules.TokenTable;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.SToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the span and annotation mapping shared by all foundries.
+ *
+ * The flat spans are the sentence and paragraph spans, the structures form right-branching trees with the configured
+ * depth. All output is discarded.
+ *
+ * @author Thomas Krause
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FoundryBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	public int tokens;
+
+	@Param({"4", "16"})
+	public int treeDepth;
+
+	private final KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+	private final BenchmarkFoundry foundry = new BenchmarkFoundry();
+
+	private TextOffsetIndex offsets;
+	private DocumentIds ids;
+	private List<SSpan> spans;
+	private List<SStructure> structures;
+	private List<SToken> tokenNodes;
+
+	@Setup(Level.Trial)
+	public void createDocument() {
+		SDocument document = SyntheticCorpus.createDocument(tokens, treeDepth);
+		STextualDS text = document.getDocumentGraph().getTextualDSs().get(0);
+		Map<STextualDS, TokenTable> tokenTables = TokenTable.partition(document.getDocumentGraph());
+		offsets = new TextOffsetIndex(tokenTables.get(text));
+		ids = new DocumentIds(document.getDocumentGraph());
+
+		NodeSelection nodes = new DocumentNodeView(document.getDocumentGraph(), Collections.singleton(offsets),
+				Collections.singleton(FoundryPlan.ALL_LAYERS)).get(text, FoundryPlan.ALL_LAYERS);
+		spans = nodes.getSpans().all();
+		structures = nodes.getStructures().all();
+		tokenNodes = nodes.getTokens().all();
+	}
+
+	@Benchmark
+	public void mapFlatSpans() {
+		foundry.mapSpans(ExporterBenchmark.NULL_OUTPUT, "bench", "spans", spans, offsets, ids, props);
+	}
+
+	@Benchmark
+	public void mapStructures() {
+		foundry.mapSpans(ExporterBenchmark.NULL_OUTPUT, "bench", "structures", structures, offsets, ids, props);
+	}
+
+	@Benchmark
+	public void mapDirectAnnotations() throws XMLStreamException {
+		LayerWriter xml = new KorapXMLWriter(ExporterBenchmark.NULL_STREAM, props.isPrettyPrint());
+		for (SToken tok : tokenNodes) {
+			foundry.mapDirectAnnotations(tok.getAnnotations(), xml);
+		}
+		xml.close();
+	}
+
+	@Benchmark
+	public void mapWrappedAnnotations() throws XMLStreamException {
+		LayerWriter xml = new KorapXMLWriter(ExporterBenchmark.NULL_STREAM, props.isPrettyPrint());
+		for (SToken tok : tokenNodes) {
+			foundry.mapWrappedAnnotations(tok.getAnnotations(), "lex", xml);
+		}
+		xml.close();
+	}
+
+	/**
+	 * Maps all annotations directly, like a foundry without any special handling.
+	 */
+	private static class BenchmarkFoundry extends Foundry {
+
+		@Override
+		public void map(LayerOutput output, NodeSelection nodes, TextOffsetIndex offsets, DocumentIds ids,
+				KorapXMLExporterProperties properties) {
+			mapSpans(output, "bench", "spans", nodes.getSpans().all(), offsets, ids, properties);
+		}
+	}
+}
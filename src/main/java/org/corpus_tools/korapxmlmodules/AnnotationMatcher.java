@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.corpus_tools.salt.core.SAbstractAnnotation;
+import org.corpus_tools.salt.core.SAnnotation;
+import org.corpus_tools.salt.core.SNode;
+
+/**
+ * Matches annotations by their namespace and name.
+ *
+ * The qualified name is parsed once when the matcher is created, matching an annotation only compares the name and
+ * the namespace and does not allocate anything. Matchers are interned, there is only one instance per qualified name.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public final class AnnotationMatcher {
+
+	private static final String SEPARATOR = "::";
+
+	private static final ConcurrentMap<String, AnnotationMatcher> byQName = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, AnnotationMatcher> byName = new ConcurrentHashMap<>();
+
+	private final String qName;
+	private final String namespace;
+	private final String name;
+	private final boolean anyNamespace;
+
+	private AnnotationMatcher(String qName, String namespace, String name, boolean anyNamespace) {
+		this.qName = qName;
+		this.namespace = namespace;
+		this.name = name;
+		this.anyNamespace = anyNamespace;
+	}
+
+	/**
+	 * @param qName A qualified name like "salt::pos", or only "pos" for annotations without namespace.
+	 * @return
+	 */
+	public static AnnotationMatcher forQName(String qName) {
+		return byQName.computeIfAbsent(qName, q -> {
+			int idx = q.lastIndexOf(SEPARATOR);
+			if (idx < 0) {
+				return new AnnotationMatcher(q, null, q.intern(), false);
+			} else {
+				String ns = q.substring(0, idx);
+				return new AnnotationMatcher(q, ns.isEmpty() ? null : ns.intern(),
+						q.substring(idx + SEPARATOR.length()).intern(), false);
+			}
+		});
+	}
+
+	/**
+	 * @param name
+	 * @return A matcher for all annotations with the given name, regardless of their namespace.
+	 */
+	public static AnnotationMatcher forName(String name) {
+		return byName.computeIfAbsent(name, n -> new AnnotationMatcher(n, null, n.intern(), true));
+	}
+
+	public String getQName() {
+		return qName;
+	}
+
+	public String getNamespace() {
+		return namespace;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean matches(SAbstractAnnotation anno) {
+		String annoName = anno.getName();
+		if (annoName != name && !name.equals(annoName)) {
+			return false;
+		}
+		if (anyNamespace) {
+			return true;
+		}
+		String annoNamespace = anno.getNamespace();
+		if (annoNamespace == null || annoNamespace.isEmpty()) {
+			return namespace == null;
+		}
+		return annoNamespace == namespace || annoNamespace.equals(namespace);
+	}
+
+	/**
+	 * @param matchers
+	 * @param anno
+	 * @return True if any of the matchers matches the annotation.
+	 */
+	public static boolean matchesAny(AnnotationMatcher[] matchers, SAbstractAnnotation anno) {
+		for (AnnotationMatcher m : matchers) {
+			if (m.matches(anno)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param node
+	 * @return The first annotation of the node that is matched or null.
+	 */
+	public SAnnotation find(SNode node) {
+		for (SAnnotation anno : node.getAnnotations()) {
+			if (matches(anno)) {
+				return anno;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return qName;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Writes the layer files of a text into its own directory.
+ *
+ * Each file is written to a temporary file in the same directory first, which is renamed to the layer file when the
+ * stream is closed. So a layer file is either the complete previous or the complete new version, even if the export
+ * is killed while it is written. The temporary files of an interrupted export are overwritten by the next run. If a
+ * {@link WriteBehindQueue.Batch} is given, the temporary files are written and renamed by the writer threads of its
+ * queue after the streams are closed, the batch waits for them. Each layer file can only be opened once, since two
+ * streams would share the same temporary file.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class DirectoryOutput implements LayerOutput {
+
+	public static final String TMP_SUFFIX = ".tmp";
+
+	private final File textDir;
+	private final Consumer<File> written;
+	private final WriteBehindQueue.Batch writeBehind;
+	private final Set<String> opened = ConcurrentHashMap.newKeySet();
+
+	public DirectoryOutput(File textDir) {
+		this(textDir, null, null);
+	}
+
+	public DirectoryOutput(File textDir, Consumer<File> written) {
+		this(textDir, written, null);
+	}
+
+	/**
+	 * @param textDir
+	 * @param written Called with each layer file after it has been renamed into place, e.g. to sync it later.
+	 * @param writeBehind The batch the files are written with or null to write them in the calling thread.
+	 */
+	public DirectoryOutput(File textDir, Consumer<File> written, WriteBehindQueue.Batch writeBehind) {
+		this.textDir = textDir;
+		this.written = written;
+		this.writeBehind = writeBehind;
+	}
+
+	@Override
+	public OutputStream open(String path) throws IOException {
+		File outFile = new File(textDir, path);
+		if (!opened.add(path)) {
+			throw new IOException("The layer file " + outFile.getAbsolutePath() + " is written twice");
+		}
+		File parent = outFile.getParentFile();
+		if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Can't create output folder " + parent.getAbsolutePath());
+		}
+		File tmpFile = new File(parent, outFile.getName() + TMP_SUFFIX);
+		return new AtomicFileStream(tmpFile, outFile);
+	}
+
+	/**
+	 * Renames the complete temporary file to the layer file.
+	 */
+	private void commit(File tmpFile, File outFile) throws IOException {
+		Files.move(tmpFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		if (written != null) {
+			written.accept(outFile);
+		}
+	}
+
+	private class AtomicFileStream extends FilterOutputStream implements Discardable {
+
+		private final File tmpFile;
+		private final File outFile;
+		private boolean closed = false;
+
+		AtomicFileStream(File tmpFile, File outFile) throws IOException {
+			super(writeBehind == null ? new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16)
+					: writeBehind.open(tmpFile, f -> commit(f, outFile)));
+			this.tmpFile = tmpFile;
+			this.outFile = outFile;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				out.close();
+			} catch (IOException ex) {
+				Files.deleteIfExists(tmpFile.toPath());
+				throw ex;
+			}
+			if (writeBehind == null) {
+				commit(tmpFile, outFile);
+			}
+		}
+
+		@Override
+		public void discard() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (out instanceof Discardable) {
+				// the writer thread deletes the file
+				((Discardable) out).discard();
+			} else {
+				try {
+					out.close();
+				} catch (IOException ex) {
+					// the file is deleted anyway
+				}
+				tmpFile.delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.corpus_tools.pepper.exceptions.PepperConvertException;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.core.SNode;
+
+/**
+ * The IDs of all nodes and texts of a document as used in the KorapXML files.
+ *
+ * This is the only place where the "id", "docid" and relation "target" values are created. The table is built once
+ * for each document before any layer is written and is immutable afterwards, so it can be shared by all layers which
+ * are written concurrently.
+ *
+ * Tokens get the IDs "t0", "t1", ... in the order of the document graph, spans and structures "s0", "s1", ...
+ * Alternatively the names of the Salt IDs can be kept. All other nodes always use the name of their Salt ID.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class DocumentIds {
+
+	public static final String TOKEN_PREFIX = "t";
+	public static final String SPAN_PREFIX = "s";
+
+	private final Map<SNode, String> ids;
+	private final Map<STextualDS, String> docIds;
+
+	/**
+	 * Creates compact ordinal IDs.
+	 *
+	 * @param graph
+	 */
+	public DocumentIds(SDocumentGraph graph) {
+		this(graph, false);
+	}
+
+	/**
+	 * @param graph
+	 * @param saltNames If true, the names of the Salt IDs are used instead of compact ordinal IDs.
+	 */
+	public DocumentIds(SDocumentGraph graph, boolean saltNames) {
+		List<SNode> nodes = graph.getNodes();
+		ids = new IdentityHashMap<>(nodes.size());
+		if (!saltNames) {
+			int ordinal = 0;
+			for (SToken tok : graph.getTokens()) {
+				ids.put(tok, TOKEN_PREFIX + ordinal++);
+			}
+			ordinal = 0;
+			for (SSpan span : graph.getSpans()) {
+				ids.put(span, SPAN_PREFIX + ordinal++);
+			}
+			for (SStructure struct : graph.getStructures()) {
+				ids.put(struct, SPAN_PREFIX + ordinal++);
+			}
+		}
+		// only the nodes without a compact ID need the fragment of their Salt ID
+		for (SNode node : nodes) {
+			if (!ids.containsKey(node)) {
+				ids.put(node, fragment(node.getId()));
+			}
+		}
+
+		List<STextualDS> texts = graph.getTextualDSs();
+		docIds = new IdentityHashMap<>(texts.size());
+		if (!texts.isEmpty()) {
+			String[] docPath = graph.getDocument() == null ? graph.getPath().segments()
+					: graph.getDocument().getPath().segments();
+			if (docPath.length < 2) {
+				throw new PepperConvertException("Can't generate a valid document ID because the corpus path is invalid.");
+			}
+			String prefix = clean(docPath[0]) + "_" + clean(docPath[docPath.length - 1]) + ".";
+			for (STextualDS text : texts) {
+				docIds.put(text, prefix + clean(text.getName()));
+			}
+		}
+	}
+
+	/**
+	 * @param id A Salt ID like "salt:/corpus/doc#tok1".
+	 * @return The fragment of the ID, the same as the fragment of the node path.
+	 */
+	private static String fragment(String id) {
+		if (id == null) {
+			return null;
+		}
+		int hash = id.lastIndexOf('#');
+		return hash < 0 ? id : id.substring(hash + 1);
+	}
+
+	/**
+	 * @param node A corpus or document.
+	 * @return The sigle of the root corpus of the node, like "CORPUS".
+	 */
+	public static String getCorpusSigle(SNode node) {
+		return clean(node.getPath().segments()[0]);
+	}
+
+	/**
+	 * @param doc
+	 * @return The sigle of the document, like "CORPUS/DOC".
+	 */
+	public static String getDocumentSigle(SDocument doc) {
+		String[] path = doc.getPath().segments();
+		return clean(path[0]) + "/" + clean(path[path.length - 1]);
+	}
+
+	/**
+	 * The sigle of a text is used in its header and in the Krill document, it contains the same parts as the
+	 * "docid" of its layers.
+	 *
+	 * @param doc
+	 * @param text
+	 * @return The sigle of the text, like "CORPUS/DOC/TEXT".
+	 */
+	public static String getTextSigle(SDocument doc, STextualDS text) {
+		return getDocumentSigle(doc) + "/" + clean(text.getName());
+	}
+
+	/**
+	 * Removes all characters that are not allowed in the KorAP document IDs and directory names.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static String clean(String name) {
+		StringBuilder sb = null;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '.' || c == '_') {
+				if (sb == null) {
+					sb = new StringBuilder(name.length());
+					sb.append(name, 0, i);
+				}
+			} else if (sb != null) {
+				sb.append(c);
+			}
+		}
+		return sb == null ? name : sb.toString();
+	}
+
+	/**
+	 * @param node
+	 * @return The ID of the node or null if the node is not part of the document.
+	 */
+	public String get(SNode node) {
+		return ids.get(node);
+	}
+
+	/**
+	 * @param text
+	 * @return The "docid" of all layers of the text, like "CORPUS_DOC.TEXT".
+	 */
+	public String getDocID(STextualDS text) {
+		String docId = docIds.get(text);
+		if (docId == null) {
+			throw new PepperConvertException("Text " + text.getId() + " is not part of the document.");
+		}
+		return docId;
+	}
+}
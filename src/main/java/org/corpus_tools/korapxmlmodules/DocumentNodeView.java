@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.core.SLayer;
+import org.corpus_tools.salt.core.SNode;
+
+/**
+ * The nodes of a document, split by text, layer, Salt type and annotation in a single pass.
+ *
+ * Only the layer names that are actually used by the foundry mapping are indexed. Nodes that do not cover exactly one
+ * text are not part of any selection. The view is immutable once it is built.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class DocumentNodeView {
+
+	private final Map<STextualDS, Map<String, NodeSelection>> selections = new IdentityHashMap<>();
+
+	/**
+	 *
+	 * @param graph
+	 * @param offsets The offset index of each text of the document.
+	 * @param layerNames The layer names to index, {@link FoundryPlan#ALL_LAYERS} selects all nodes of a text.
+	 */
+	public DocumentNodeView(SDocumentGraph graph, Collection<TextOffsetIndex> offsets, Set<String> layerNames) {
+		boolean indexAll = layerNames.contains(FoundryPlan.ALL_LAYERS);
+
+		for (TextOffsetIndex textOffsets : offsets) {
+			selections.put(textOffsets.getText(), new HashMap<>());
+		}
+
+		for (SNode node : graph.getNodes()) {
+			TextOffsetIndex text = null;
+			for (TextOffsetIndex candidate : offsets) {
+				if (candidate.contains(node)) {
+					text = candidate;
+					break;
+				}
+			}
+			if (text == null) {
+				continue;
+			}
+			Map<String, NodeSelection> textSelections = selections.get(text.getText());
+			if (indexAll) {
+				getOrCreate(textSelections, FoundryPlan.ALL_LAYERS).add(node);
+			}
+			Set<SLayer> layers = node.getLayers();
+			if (layers != null) {
+				for (SLayer layer : layers) {
+					if (layerNames.contains(layer.getName())) {
+						getOrCreate(textSelections, layer.getName()).add(node);
+					}
+				}
+			}
+		}
+	}
+
+	private static NodeSelection getOrCreate(Map<String, NodeSelection> textSelections, String layer) {
+		NodeSelection result = textSelections.get(layer);
+		if (result == null) {
+			result = new NodeSelection();
+			textSelections.put(layer, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @param text
+	 * @param layer A layer name or {@link FoundryPlan#ALL_LAYERS}.
+	 * @return The selection, or null if the layer has no nodes in this text.
+	 */
+	public NodeSelection get(STextualDS text, String layer) {
+		Map<String, NodeSelection> textSelections = selections.get(text);
+		return textSelections == null ? null : textSelections.get(layer);
+	}
+
+	/**
+	 * @param text
+	 * @param layers Layer names, {@link FoundryPlan#ALL_LAYERS} selects all nodes of the text.
+	 * @return The union of the selections of the layers, each node only once, or null if none of the layers has nodes
+	 * in this text.
+	 */
+	public NodeSelection get(STextualDS text, Collection<String> layers) {
+		if (layers.size() == 1 || layers.contains(FoundryPlan.ALL_LAYERS)) {
+			// all nodes of the text include the nodes of every layer
+			return get(text, layers.contains(FoundryPlan.ALL_LAYERS) ? FoundryPlan.ALL_LAYERS
+					: layers.iterator().next());
+		}
+		NodeSelection result = null;
+		Set<SNode> added = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (String layer : layers) {
+			NodeSelection selection = get(text, layer);
+			if (selection == null) {
+				continue;
+			}
+			if (result == null) {
+				result = new NodeSelection();
+			}
+			for (NodeSelection.Typed<?> typed : new NodeSelection.Typed<?>[]{selection.getTokens(),
+				selection.getSpans(), selection.getStructures()}) {
+				for (SNode node : typed.all()) {
+					if (added.add(node)) {
+						result.add(node);
+					}
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The escaped UTF-8 encoding of short strings, shared by all {@link KorapXMLWriter}s.
+ *
+ * Annotation names, namespaces and values like part of speech tags repeat millions of times in a corpus, the writer
+ * copies their cached encoding instead of encoding them again. Only strings up to {@link #MAX_LENGTH} characters are
+ * cached and the cache stops growing once it holds {@link #MAX_ENTRIES} strings. A string is only admitted once it was
+ * seen {@link #ADMISSION_COUNT} times, so values which occur once or rarely, like identifiers or most words, do not
+ * fill the cache. The counts are approximated by a fixed size table indexed by the hash of the strings, which is
+ * halved regularly, so rare strings that share a slot are not admitted over time. The cache is cleared at the end of
+ * each export.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+class EncodedStringCache {
+
+	static final int MAX_ENTRIES = 8192;
+	static final int MAX_LENGTH = 32;
+	static final int ADMISSION_COUNT = 4;
+
+	private static final int COUNT_SLOTS = 1 << 16;
+
+	static final EncodedStringCache ATTRIBUTES = new EncodedStringCache(true);
+	static final EncodedStringCache CHARACTERS = new EncodedStringCache(false);
+
+	private final boolean attribute;
+	private final Map<String, byte[]> encoded = new ConcurrentHashMap<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicIntegerArray counts = new AtomicIntegerArray(COUNT_SLOTS);
+	private final AtomicInteger misses = new AtomicInteger();
+
+	EncodedStringCache(boolean attribute) {
+		this.attribute = attribute;
+	}
+
+	/**
+	 * @param s
+	 * @return The escaped and encoded string, null if it is not cached (yet) or the string is too long. The array must
+	 * not be modified.
+	 */
+	byte[] get(String s) {
+		if (s.length() > MAX_LENGTH) {
+			return null;
+		}
+		byte[] result = encoded.get(s);
+		if (result == null && size.get() < MAX_ENTRIES && admit(s)) {
+			result = escape(s, attribute).getBytes(StandardCharsets.UTF_8);
+			if (encoded.putIfAbsent(s, result) == null) {
+				size.incrementAndGet();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts a string which is not cached.
+	 *
+	 * @return True if the string was seen often enough to be cached.
+	 */
+	private boolean admit(String s) {
+		if (misses.incrementAndGet() >= COUNT_SLOTS) {
+			// the counts decay, updates while halving only make the counts less exact
+			misses.set(0);
+			for (int i = 0; i < COUNT_SLOTS; i++) {
+				counts.set(i, counts.get(i) >> 1);
+			}
+		}
+		int h = s.hashCode();
+		return counts.incrementAndGet((h ^ (h >>> 16)) & (COUNT_SLOTS - 1)) >= ADMISSION_COUNT;
+	}
+
+	boolean isCached(String s) {
+		return encoded.containsKey(s);
+	}
+
+	int size() {
+		return size.get();
+	}
+
+	void clear() {
+		encoded.clear();
+		size.set(0);
+		for (int i = 0; i < COUNT_SLOTS; i++) {
+			counts.set(i, 0);
+		}
+		misses.set(0);
+	}
+
+	/**
+	 * Clears the shared caches, e.g. when an export is finished.
+	 */
+	static void clearAll() {
+		ATTRIBUTES.clear();
+		CHARACTERS.clear();
+	}
+
+	private static String escape(String s, boolean attribute) {
+		StringBuilder sb = new StringBuilder(s.length() + 8);
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '<':
+					sb.append("&lt;");
+					break;
+				case '>':
+					sb.append("&gt;");
+					break;
+				case '&':
+					sb.append("&amp;");
+					break;
+				case '"':
+					sb.append(attribute ? "&quot;" : "\"");
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.STextualRelation;
+import org.corpus_tools.salt.core.SAnnotation;
+import org.corpus_tools.salt.core.SAnnotationContainer;
+import org.corpus_tools.salt.core.SLayer;
+import org.corpus_tools.salt.core.SMetaAnnotation;
+import org.corpus_tools.salt.core.SNode;
+import org.corpus_tools.salt.core.SRelation;
+
+/**
+ * Content hashes of the documents and layer files of a previous export, used to skip unchanged output.
+ *
+ * The manifest is a tab separated file in the output directory. Each document has a fingerprint of its Salt graph
+ * and the export configuration. If the fingerprint did not change and all its layer files still exist, the document
+ * is not mapped at all. Otherwise each layer file is hashed while it is written to its temporary file, if its hash
+ * did not change since the previous run, the temporary file is discarded and the previous file is kept. The layer
+ * files of the previous run that a changed document does not produce anymore are deleted. The manifest of the current
+ * run only contains the documents of this run, so removed and failed documents are exported again by the next run.
+ *
+ * The manifest itself is only written at the end of the export. Until then each finished document is appended to a
+ * journal, so an export that was killed is resumed by the next run: the documents of the journal are skipped like
+ * unchanged documents. Syncing the files is batched, the layer files of a group of documents and the directories they
+ * were renamed into are synced to disk first and then their journal entries are written and synced. Documents whose
+ * entries were not synced yet are exported again after a crash. The journal is part of the incremental export, an
+ * export without the manifest can't be resumed.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class ExportManifest {
+
+	public static final String FILE_NAME = "korapxml-manifest.tsv";
+	public static final String JOURNAL_FILE_NAME = "korapxml-journal.tsv";
+
+	public static final int DEFAULT_SYNC_BATCH = 32;
+
+	private static final String DOCUMENT = "D";
+	private static final String LAYER = "L";
+
+	private static final HashFunction HASH = Hashing.murmur3_128();
+
+	private final File root;
+	private final String configuration;
+	private final int syncBatch;
+
+	private final SortedMap<String, String> previousDocuments = new TreeMap<>();
+	private final SortedMap<String, String> previousLayers = new TreeMap<>();
+
+	private final Map<String, String> documents = new ConcurrentHashMap<>();
+	private final ConcurrentSkipListMap<String, String> layers = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Layer files that were written since the last sync.
+	 */
+	private final List<File> unsyncedFiles = new ArrayList<>();
+	/**
+	 * Journal entries of the documents that were finished since the last sync.
+	 */
+	private final StringBuilder unsyncedEntries = new StringBuilder();
+	private int unsyncedDocuments = 0;
+	private FileChannel journal;
+
+	private ExportManifest(File root, String configuration, int syncBatch) {
+		this.root = root;
+		this.configuration = configuration;
+		this.syncBatch = Math.max(1, syncBatch);
+	}
+
+	/**
+	 * Loads the manifest of the previous export into the given output directory, if there is any.
+	 *
+	 * @param root The output directory.
+	 * @param configuration All settings that influence the output, a changed configuration invalidates all documents.
+	 * @return
+	 * @throws IOException
+	 */
+	public static ExportManifest load(File root, String configuration) throws IOException {
+		return load(root, configuration, DEFAULT_SYNC_BATCH);
+	}
+
+	/**
+	 * Loads the manifest of the previous export and the journal of an interrupted export into the given output
+	 * directory, if there is any.
+	 *
+	 * @param root The output directory.
+	 * @param configuration All settings that influence the output, a changed configuration invalidates all documents.
+	 * @param syncBatch The number of finished documents after which the written files and the journal are synced.
+	 * @return
+	 * @throws IOException
+	 */
+	public static ExportManifest load(File root, String configuration, int syncBatch) throws IOException {
+		ExportManifest manifest = new ExportManifest(root, configuration, syncBatch);
+		File file = new File(root, FILE_NAME);
+		if (file.isFile()) {
+			try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t");
+					if (fields.length != 3) {
+						continue;
+					}
+					if (DOCUMENT.equals(fields[0])) {
+						manifest.previousDocuments.put(fields[1], fields[2]);
+					} else if (LAYER.equals(fields[0])) {
+						manifest.previousLayers.put(fields[1], fields[2]);
+					}
+				}
+			}
+		}
+		File journalFile = new File(root, JOURNAL_FILE_NAME);
+		if (journalFile.isFile()) {
+			manifest.replayJournal(journalFile);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Applies the entries of the journal, they are newer than the manifest. The layers of a document are written
+	 * before the document itself, so the layers are only applied if the document entry is complete.
+	 *
+	 * @param journalFile
+	 * @throws IOException
+	 */
+	private void replayJournal(File journalFile) throws IOException {
+		Map<String, String> docLayers = new TreeMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(journalFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length != 3) {
+					continue;
+				}
+				if (LAYER.equals(fields[0])) {
+					docLayers.put(fields[1], fields[2]);
+				} else if (DOCUMENT.equals(fields[0])) {
+					String prefix = fields[1] + "/";
+					previousLayers.subMap(prefix, prefix + "\uffff").clear();
+					for (Map.Entry<String, String> e : docLayers.entrySet()) {
+						// skip the layers of an incomplete entry before this one
+						if (e.getKey().startsWith(prefix)) {
+							previousLayers.put(e.getKey(), e.getValue());
+						}
+					}
+					previousDocuments.put(fields[1], fields[2]);
+					docLayers.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param docDir The output directory of the document.
+	 * @return The key of the document in the manifest.
+	 */
+	public String getKey(File docDir) {
+		return root.toPath().relativize(docDir.toPath()).toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Computes the fingerprint of a document graph. All nodes and relations with their IDs, layers and annotations are
+	 * part of the fingerprint, as well as the primary texts and token offsets and the meta annotations of the document
+	 * and its texts, which are written to the headers.
+	 *
+	 * @param graph
+	 * @return
+	 */
+	public String fingerprint(SDocumentGraph graph) {
+		Hasher h = HASH.newHasher();
+		h.putUnencodedChars(configuration);
+		if (graph.getDocument() != null) {
+			putMetaAnnotations(h, graph.getDocument());
+		}
+		for (SNode node : graph.getNodes()) {
+			h.putByte((byte) 'N');
+			h.putUnencodedChars(node.getClass().getSimpleName());
+			putId(h, node.getId());
+			putLayers(h, node.getLayers());
+			putAnnotations(h, node);
+			if (node instanceof STextualDS) {
+				putMetaAnnotations(h, node);
+				String text = ((STextualDS) node).getText();
+				if (text != null) {
+					h.putInt(text.length());
+					h.putUnencodedChars(text);
+				}
+			}
+		}
+		for (SRelation<?, ?> rel : graph.getRelations()) {
+			h.putByte((byte) 'R');
+			h.putUnencodedChars(rel.getClass().getSimpleName());
+			putId(h, rel.getId());
+			putId(h, rel.getSource().getId());
+			putId(h, rel.getTarget().getId());
+			putId(h, rel.getType());
+			putLayers(h, rel.getLayers());
+			putAnnotations(h, rel);
+			if (rel instanceof STextualRelation) {
+				STextualRelation textRel = (STextualRelation) rel;
+				h.putInt(textRel.getStart());
+				h.putInt(textRel.getEnd());
+			}
+		}
+		return h.hash().toString();
+	}
+
+	private static void putId(Hasher h, String id) {
+		if (id == null) {
+			h.putInt(-1);
+		} else {
+			h.putInt(id.length());
+			h.putUnencodedChars(id);
+		}
+	}
+
+	private static void putLayers(Hasher h, Set<SLayer> layers) {
+		if (layers != null && !layers.isEmpty()) {
+			// the iteration order of the set is not stable
+			String[] names = new String[layers.size()];
+			int i = 0;
+			for (SLayer layer : layers) {
+				names[i++] = layer.getName();
+			}
+			Arrays.sort(names, Comparator.nullsFirst(Comparator.naturalOrder()));
+			for (String name : names) {
+				putId(h, name);
+			}
+		}
+	}
+
+	private static void putAnnotations(Hasher h, SAnnotationContainer container) {
+		for (SAnnotation anno : container.getAnnotations()) {
+			putId(h, anno.getQName());
+			putId(h, anno.getValue_STEXT());
+		}
+	}
+
+	private static void putMetaAnnotations(Hasher h, SAnnotationContainer container) {
+		Set<SMetaAnnotation> metaAnnos = container.getMetaAnnotations();
+		if (metaAnnos != null && !metaAnnos.isEmpty()) {
+			// the header sorts them as well
+			String[] entries = new String[metaAnnos.size()];
+			int i = 0;
+			for (SMetaAnnotation anno : metaAnnos) {
+				entries[i++] = anno.getQName() + "\u0000" + anno.getValue_STEXT();
+			}
+			Arrays.sort(entries);
+			h.putByte((byte) 'M');
+			for (String entry : entries) {
+				putId(h, entry);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a document is unchanged and keeps its entries for the current manifest if it is.
+	 *
+	 * @param docKey
+	 * @param fingerprint
+	 * @return True if the document does not need to be exported again.
+	 */
+	public boolean keepIfUnchanged(String docKey, String fingerprint) {
+		if (!fingerprint.equals(previousDocuments.get(docKey))) {
+			return false;
+		}
+		SortedMap<String, String> docLayers = previousLayers.subMap(docKey + "/", docKey + "/\uffff");
+		if (docLayers.isEmpty()) {
+			return false;
+		}
+		for (String path : docLayers.keySet()) {
+			if (!new File(root, path).isFile()) {
+				return false;
+			}
+		}
+		layers.putAll(docLayers);
+		documents.put(docKey, fingerprint);
+		return true;
+	}
+
+	/**
+	 * Marks a document as completely exported and adds it to the journal. All its layer files must be closed.
+	 *
+	 * @param docKey
+	 * @param fingerprint
+	 * @throws IOException If the journal can't be written.
+	 */
+	public void putDocument(String docKey, String fingerprint) throws IOException {
+		deleteObsoleteLayers(docKey);
+		documents.put(docKey, fingerprint);
+		synchronized (unsyncedEntries) {
+			for (Map.Entry<String, String> e : layers.subMap(docKey + "/", docKey + "/\uffff").entrySet()) {
+				unsyncedEntries.append(LAYER).append('\t').append(e.getKey()).append('\t').append(e.getValue())
+						.append('\n');
+			}
+			unsyncedEntries.append(DOCUMENT).append('\t').append(docKey).append('\t').append(fingerprint)
+					.append('\n');
+			unsyncedDocuments++;
+			if (unsyncedDocuments >= syncBatch) {
+				sync();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the layer files of the previous run of the document which were not written by this run.
+	 *
+	 * @param docKey
+	 */
+	private void deleteObsoleteLayers(String docKey) {
+		for (String key : previousLayers.subMap(docKey + "/", docKey + "/\uffff").keySet()) {
+			if (!layers.containsKey(key)) {
+				new File(root, key).delete();
+			}
+		}
+	}
+
+	/**
+	 * Registers a layer file that was written, it is synced before the journal entry of its document.
+	 *
+	 * @param file
+	 */
+	public void written(File file) {
+		synchronized (unsyncedFiles) {
+			unsyncedFiles.add(file);
+		}
+	}
+
+	/**
+	 * Syncs all written layer files and the directories they were renamed into, and then appends the entries of the
+	 * finished documents to the journal.
+	 *
+	 * @throws IOException
+	 */
+	private void sync() throws IOException {
+		synchronized (unsyncedEntries) {
+			List<File> files;
+			synchronized (unsyncedFiles) {
+				files = new ArrayList<>(unsyncedFiles);
+				unsyncedFiles.clear();
+			}
+			Set<File> directories = new LinkedHashSet<>();
+			for (File file : files) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					channel.force(true);
+				} catch (NoSuchFileException ex) {
+					// replaced by a newer version, which is synced as well
+				}
+				// the rename and the directories created for the file are only durable once their parents are synced
+				File dir = file.getParentFile();
+				while (dir != null && directories.add(dir) && !dir.equals(root)) {
+					dir = dir.getParentFile();
+				}
+			}
+			for (File dir : directories) {
+				syncDirectory(dir);
+			}
+			if (unsyncedEntries.length() > 0) {
+				FileChannel channel = openJournal();
+				ByteBuffer entries = ByteBuffer.wrap(unsyncedEntries.toString().getBytes(StandardCharsets.UTF_8));
+				while (entries.hasRemaining()) {
+					channel.write(entries);
+				}
+				channel.force(false);
+				unsyncedEntries.setLength(0);
+			}
+			unsyncedDocuments = 0;
+		}
+	}
+
+	/**
+	 * Syncs the entries of a directory, e.g. after a file was renamed into it. Not all platforms can open a directory,
+	 * there the entries are synced with the files.
+	 *
+	 * @param dir
+	 */
+	private static void syncDirectory(File dir) {
+		try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException ex) {
+			// not supported, or the directory was removed in the meantime
+		}
+	}
+
+	private FileChannel openJournal() throws IOException {
+		if (journal == null) {
+			journal = FileChannel.open(new File(root, JOURNAL_FILE_NAME).toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			long size = journal.size();
+			journal.position(size);
+			if (size > 0) {
+				// an entry of a killed export can be incomplete
+				ByteBuffer last = ByteBuffer.allocate(1);
+				journal.read(last, size - 1);
+				if (last.get(0) != '\n') {
+					journal.write(ByteBuffer.wrap(new byte[]{'\n'}));
+				}
+			}
+		}
+		return journal;
+	}
+
+	/**
+	 * @param textDir The output directory of the text.
+	 * @param output The output the changed layers are written to.
+	 * @return An output that only writes layers whose content changed since the previous export.
+	 */
+	public LayerOutput track(File textDir, LayerOutput output) {
+		String textKey = getKey(textDir);
+		return path -> new HashingStream(textKey + "/" + path, output.open(path));
+	}
+
+	/**
+	 * Writes the manifest of the current run, the previous manifest is replaced atomically and the journal is
+	 * removed.
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		sync();
+		File file = new File(root, FILE_NAME);
+		File tmpFile = new File(root, FILE_NAME + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+			Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			for (Map.Entry<String, String> e : new TreeMap<>(documents).entrySet()) {
+				w.write(DOCUMENT + "\t" + e.getKey() + "\t" + e.getValue() + "\n");
+			}
+			for (Map.Entry<String, String> e : layers.entrySet()) {
+				w.write(LAYER + "\t" + e.getKey() + "\t" + e.getValue() + "\n");
+			}
+			w.flush();
+			out.getFD().sync();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		// the journal may only be removed when the new manifest is durable
+		syncDirectory(root);
+
+		// all entries of the journal are part of the manifest now
+		synchronized (unsyncedEntries) {
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+			Files.deleteIfExists(new File(root, JOURNAL_FILE_NAME).toPath());
+		}
+	}
+
+	/**
+	 * Hashes a layer file while it is written and keeps the previous file if the hash did not change.
+	 */
+	private class HashingStream extends FilterOutputStream implements LayerOutput.Discardable {
+
+		private final String key;
+		private final Hasher hasher = HASH.newHasher();
+		private boolean closed = false;
+
+		HashingStream(String key, OutputStream out) {
+			super(out);
+			this.key = key;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			hasher.putByte((byte) b);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			hasher.putBytes(b, off, len);
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			String hash = hasher.hash().toString();
+			if (hash.equals(previousLayers.get(key)) && new File(root, key).isFile()) {
+				// the previous file has the same content and is not replaced
+				LayerOutput.discard(out);
+			} else {
+				out.close();
+			}
+			layers.put(key, hash);
+		}
+
+		@Override
+		public void discard() {
+			if (closed) {
+				return;
+			}
+			// neither the file nor its hash are written
+			closed = true;
+			LayerOutput.discard(out);
+		}
+	}
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records wall time, spans, bytes and warnings of the exported documents, texts and layers.
+ *
+ * The time of a layer file only covers its serialization from opening to closing it. Selecting the nodes and
+ * resolving their offsets happens before, so the mapping tasks of a text (e.g. one task per foundry) are timed
+ * separately and their sum is reported as the time of the text.
+ *
+ * The exporter only creates an instance if the "statistics" property is set, otherwise the outputs are not
+ * instrumented at all. The totals are available as a JMX MBean while the export is running. Each document, text and
+ * layer can additionally be recorded as a JFR event, the event classes are only loaded if this is enabled.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class ExportStatistics implements ExportStatisticsMBean {
+
+	private static final Logger log = LoggerFactory.getLogger(ExportStatistics.class);
+
+	private static final int SLOWEST_DOCUMENTS = 10;
+
+	/**
+	 * Receives the single events, implemented by JfrEventSink.
+	 */
+	interface EventSink {
+
+		void layerWritten(String text, String layer, long nanos, long bytes, long spans, long warnings);
+
+		void taskFinished(String text, String task, long nanos);
+
+		void textExported(String text, long nanos, long bytes, long spans, long warnings);
+
+		void documentExported(String document, long nanos, int texts);
+	}
+
+	private static final EventSink NO_EVENTS = new EventSink() {
+		@Override
+		public void layerWritten(String text, String layer, long nanos, long bytes, long spans, long warnings) {
+		}
+
+		@Override
+		public void taskFinished(String text, String task, long nanos) {
+		}
+
+		@Override
+		public void textExported(String text, long nanos, long bytes, long spans, long warnings) {
+		}
+
+		@Override
+		public void documentExported(String document, long nanos, int texts) {
+		}
+	};
+
+	private static class LayerStatistics {
+
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder spans = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder warnings = new LongAdder();
+
+		@Override
+		public String toString() {
+			return count.sum() + " files, " + TimeUnit.NANOSECONDS.toMillis(nanos.sum()) + " ms, "
+					+ spans.sum() + " spans, " + bytes.sum() + " bytes, " + warnings.sum() + " warnings";
+		}
+	}
+
+	private static class TaskStatistics {
+
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+
+		@Override
+		public String toString() {
+			return count.sum() + " tasks, " + TimeUnit.NANOSECONDS.toMillis(nanos.sum()) + " ms";
+		}
+	}
+
+	private static class DocumentTime implements Comparable<DocumentTime> {
+
+		final String document;
+		final long nanos;
+
+		DocumentTime(String document, long nanos) {
+			this.document = document;
+			this.nanos = nanos;
+		}
+
+		@Override
+		public int compareTo(DocumentTime o) {
+			return Long.compare(nanos, o.nanos);
+		}
+
+		@Override
+		public String toString() {
+			return document + ": " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+		}
+	}
+
+	private final EventSink events;
+
+	private final LongAdder documents = new LongAdder();
+	private final LongAdder skippedDocuments = new LongAdder();
+	private final LongAdder texts = new LongAdder();
+	private final LongAdder documentNanos = new LongAdder();
+	private final LongAdder textWarnings = new LongAdder();
+	private final Map<String, LayerStatistics> layers = new ConcurrentHashMap<>();
+	private final Map<String, TaskStatistics> tasks = new ConcurrentHashMap<>();
+
+	/**
+	 * A min-heap of the slowest documents.
+	 */
+	private final PriorityQueue<DocumentTime> slowest = new PriorityQueue<>();
+
+	private ObjectName objectName;
+
+	/**
+	 * @param jfr If true, JFR events are recorded for each document, text and layer.
+	 */
+	public ExportStatistics(boolean jfr) {
+		this.events = jfr ? loadJfrEvents() : NO_EVENTS;
+	}
+
+	private static EventSink loadJfrEvents() {
+		try {
+			// only load the event classes if they are needed, older runtimes do not have JFR
+			return (EventSink) Class.forName(ExportStatistics.class.getPackage().getName() + ".JfrEventSink")
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError ex) {
+			log.warn("JFR events are not available in this runtime", ex);
+			return NO_EVENTS;
+		}
+	}
+
+	/**
+	 * @param output
+	 * @param text The name of the text used in the statistics.
+	 * @return An output that records all layers which are written to it.
+	 */
+	public InstrumentedOutput instrument(LayerOutput output, String text) {
+		return new InstrumentedOutput(output, text);
+	}
+
+	/**
+	 * Records a completely exported document, including all its texts.
+	 *
+	 * @param document
+	 * @param nanos
+	 * @param outputs The instrumented outputs of the texts.
+	 */
+	public void documentExported(String document, long nanos, List<InstrumentedOutput> outputs) {
+		for (InstrumentedOutput output : outputs) {
+			texts.increment();
+			events.textExported(output.text, output.nanos.get(), output.bytes.get(), output.spans.get(),
+					output.warnings.get());
+		}
+		documents.increment();
+		documentNanos.add(nanos);
+		events.documentExported(document, nanos, outputs.size());
+
+		synchronized (slowest) {
+			if (slowest.size() < SLOWEST_DOCUMENTS) {
+				slowest.add(new DocumentTime(document, nanos));
+			} else if (slowest.peek().nanos < nanos) {
+				slowest.poll();
+				slowest.add(new DocumentTime(document, nanos));
+			}
+		}
+	}
+
+	/**
+	 * Records a document that was not exported because it did not change.
+	 */
+	public void documentSkipped() {
+		skippedDocuments.increment();
+	}
+
+	/**
+	 * Records a finished mapping task of a text.
+	 *
+	 * @param text The instrumented output of the text.
+	 * @param task The name of the task, e.g. the name of the foundry.
+	 * @param nanos
+	 */
+	public void taskFinished(InstrumentedOutput text, String task, long nanos) {
+		text.nanos.addAndGet(nanos);
+		TaskStatistics s = tasks.computeIfAbsent(task, t -> new TaskStatistics());
+		s.count.increment();
+		s.nanos.add(nanos);
+		events.taskFinished(text.text, task, nanos);
+	}
+
+	private void layerWritten(String text, String layer, long nanos, long bytes, long spans, long warnings) {
+		LayerStatistics s = layers.computeIfAbsent(layer, l -> new LayerStatistics());
+		s.count.increment();
+		s.nanos.add(nanos);
+		s.bytes.add(bytes);
+		s.spans.add(spans);
+		s.warnings.add(warnings);
+		events.layerWritten(text, layer, nanos, bytes, spans, warnings);
+	}
+
+	/**
+	 * Registers this instance at the platform MBean server.
+	 *
+	 * @param name The name of the exporter.
+	 */
+	public void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("org.corpus_tools.korapxmlmodules:type=ExportStatistics,name="
+					+ ObjectName.quote(name));
+			if (server.isRegistered(on)) {
+				server.unregisterMBean(on);
+			}
+			server.registerMBean(this, on);
+			objectName = on;
+		} catch (JMException ex) {
+			log.warn("Could not register the export statistics MBean", ex);
+		}
+	}
+
+	public void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException ex) {
+				log.warn("Could not unregister the export statistics MBean", ex);
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * @return A human readable summary of all recorded statistics.
+	 */
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Exported ").append(getDocuments()).append(" documents (").append(getSkippedDocuments())
+				.append(" unchanged) with ").append(getTexts()).append(" texts in ").append(getDocumentMillis())
+				.append(" ms of mapping time\n");
+		sb.append(getSpans()).append(" spans, ").append(getBytes()).append(" bytes, ").append(getWarnings())
+				.append(" warnings\n");
+		sb.append("Layers:\n");
+		for (String line : getLayerStatistics()) {
+			sb.append("  ").append(line).append('\n');
+		}
+		sb.append("Mapping tasks:\n");
+		for (String line : getTaskStatistics()) {
+			sb.append("  ").append(line).append('\n');
+		}
+		sb.append("Slowest documents:\n");
+		for (String line : getSlowestDocuments()) {
+			sb.append("  ").append(line).append('\n');
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	@Override
+	public long getSkippedDocuments() {
+		return skippedDocuments.sum();
+	}
+
+	@Override
+	public long getTexts() {
+		return texts.sum();
+	}
+
+	@Override
+	public long getSpans() {
+		long sum = 0;
+		for (LayerStatistics s : layers.values()) {
+			sum += s.spans.sum();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getBytes() {
+		long sum = 0;
+		for (LayerStatistics s : layers.values()) {
+			sum += s.bytes.sum();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getWarnings() {
+		long sum = textWarnings.sum();
+		for (LayerStatistics s : layers.values()) {
+			sum += s.warnings.sum();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getDocumentMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(documentNanos.sum());
+	}
+
+	@Override
+	public String[] getLayerStatistics() {
+		List<String> result = new ArrayList<>();
+		for (Map.Entry<String, LayerStatistics> e : new TreeMap<>(layers).entrySet()) {
+			result.add(e.getKey() + ": " + e.getValue());
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	@Override
+	public String[] getTaskStatistics() {
+		List<String> result = new ArrayList<>();
+		for (Map.Entry<String, TaskStatistics> e : new TreeMap<>(tasks).entrySet()) {
+			result.add(e.getKey() + ": " + e.getValue());
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	@Override
+	public String[] getSlowestDocuments() {
+		List<DocumentTime> result;
+		synchronized (slowest) {
+			result = new ArrayList<>(slowest);
+		}
+		result.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+		String[] lines = new String[result.size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = result.get(i).toString();
+		}
+		return lines;
+	}
+
+	@Override
+	public void reset() {
+		documents.reset();
+		skippedDocuments.reset();
+		texts.reset();
+		documentNanos.reset();
+		textWarnings.reset();
+		layers.clear();
+		tasks.clear();
+		synchronized (slowest) {
+			slowest.clear();
+		}
+	}
+
+	/**
+	 * The output of a text, all layers written to it are recorded. Warnings that do not belong to a single layer
+	 * file can be recorded for the whole text.
+	 */
+	public class InstrumentedOutput implements LayerOutput, LayerRecorder {
+
+		private final LayerOutput output;
+		private final String text;
+
+		// the layers of a text can be written concurrently
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+		private final AtomicLong spans = new AtomicLong();
+		private final AtomicLong warnings = new AtomicLong();
+
+		private InstrumentedOutput(LayerOutput output, String text) {
+			this.output = output;
+			this.text = text;
+		}
+
+		@Override
+		public OutputStream open(String path) throws IOException {
+			return new RecordingStream(output.open(path), path);
+		}
+
+		@Override
+		public void span() {
+			// spans are only counted by the layer streams
+		}
+
+		@Override
+		public void warning() {
+			warnings.incrementAndGet();
+			textWarnings.increment();
+		}
+
+		/**
+		 * Counts the bytes and the spans of a layer file, the wall time is measured from opening to closing it.
+		 */
+		private class RecordingStream extends FilterOutputStream implements LayerRecorder, Discardable {
+
+			private final String layer;
+			private final long start = System.nanoTime();
+			private long streamBytes;
+			private long streamSpans;
+			private long streamWarnings;
+			private boolean closed = false;
+
+			RecordingStream(OutputStream out, String path) {
+				super(out);
+				this.layer = path.endsWith(".xml") ? path.substring(0, path.length() - 4) : path;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				streamBytes++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				streamBytes += len;
+			}
+
+			@Override
+			public void span() {
+				streamSpans++;
+			}
+
+			@Override
+			public void warning() {
+				streamWarnings++;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				super.close();
+				bytes.addAndGet(streamBytes);
+				spans.addAndGet(streamSpans);
+				warnings.addAndGet(streamWarnings);
+				layerWritten(text, layer, System.nanoTime() - start, streamBytes, streamSpans, streamWarnings);
+			}
+
+			@Override
+			public void discard() {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				LayerOutput.discard(out);
+				// the spans of an incomplete file are not counted, the file itself is a warning of the text
+				warnings.addAndGet(streamWarnings + 1);
+				textWarnings.add(streamWarnings + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+/**
+ * The management interface of {@link ExportStatistics}.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public interface ExportStatisticsMBean {
+
+	long getDocuments();
+
+	long getSkippedDocuments();
+
+	long getTexts();
+
+	long getSpans();
+
+	long getBytes();
+
+	long getWarnings();
+
+	long getDocumentMillis();
+
+	/**
+	 * @return One line for each layer with its count, time, spans, bytes and warnings.
+	 */
+	String[] getLayerStatistics();
+
+	/**
+	 * @return One line for each mapping task, e.g. each foundry, with its count and time.
+	 */
+	String[] getTaskStatistics();
+
+	/**
+	 * @return The slowest documents so far with their time.
+	 */
+	String[] getSlowestDocuments();
+
+	void reset();
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.salt.common.STextualDS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the span layers while they are written, so the export does not need to be read again by a separate
+ * validator.
+ *
+ * The layer files of a validated output are written through a {@link LayerWriter} that inspects the "span" and "rel"
+ * elements: the offsets must be inside the primary text, the span IDs must be unique in each layer and the relation
+ * targets must be a token of the text or a span of the same layer. The IDs are only kept as 64 bit hashes, so a
+ * layer needs 8 bytes per span and no XML is buffered. The errors of each document are collected in a
+ * {@link Report}, it keeps the number of errors of each kind but only the first messages. Reports with errors are
+ * logged and appended to {@link #FILE_NAME} in the output directory.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class ExportValidation {
+
+	private static final Logger log = LoggerFactory.getLogger(ExportValidation.class);
+
+	public static final String FILE_NAME = "korapxml-validation.txt";
+
+	/**
+	 * The number of messages kept for each document.
+	 */
+	public static final int MAX_MESSAGES = 10;
+
+	public enum Check {
+		OFFSET, DUPLICATE_ID, MISSING_TARGET
+	}
+
+	private final File reportFile;
+	private Writer reportWriter;
+
+	private final AtomicLong documents = new AtomicLong();
+	private final AtomicLong invalidDocuments = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * @param reportFile The file the reports of the invalid documents are appended to.
+	 */
+	public ExportValidation(File reportFile) {
+		this.reportFile = reportFile;
+	}
+
+	/**
+	 * @param document The name of the document used in the report.
+	 * @return A new and empty report.
+	 */
+	public Report newReport(String document) {
+		return new Report(document);
+	}
+
+	/**
+	 * @param output
+	 * @param tokens The tokens of the text written to the output.
+	 * @param ids
+	 * @param report
+	 * @return An output that validates all span layers written to it.
+	 */
+	public LayerOutput validate(LayerOutput output, TokenTable tokens, DocumentIds ids, Report report) {
+		return new ValidatedOutput(output, tokens, ids, report);
+	}
+
+	/**
+	 * If the writer writes to a validated layer stream, a writer which validates the written elements is returned.
+	 *
+	 * @param out
+	 * @param writer
+	 * @return
+	 */
+	static LayerWriter wrap(OutputStream out, LayerWriter writer) {
+		if (out instanceof ValidatedOutput.ValidatedStream) {
+			return new ValidatingWriter(writer, (ValidatedOutput.ValidatedStream) out);
+		}
+		return writer;
+	}
+
+	/**
+	 * Records the report of a document after all its layers have been written.
+	 *
+	 * @param report
+	 */
+	public void documentValidated(Report report) {
+		documents.incrementAndGet();
+		if (report.isValid()) {
+			return;
+		}
+		invalidDocuments.incrementAndGet();
+		errors.addAndGet(report.getErrors());
+		String text = report.toString();
+		log.warn(text);
+		synchronized (this) {
+			try {
+				if (reportWriter == null) {
+					reportWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile),
+							StandardCharsets.UTF_8));
+				}
+				reportWriter.write(text);
+				reportWriter.write('\n');
+				reportWriter.flush();
+			} catch (IOException ex) {
+				log.error("Could not write the validation report to " + reportFile.getAbsolutePath(), ex);
+			}
+		}
+	}
+
+	public String summary() {
+		return "Validated " + documents.get() + " documents, " + invalidDocuments.get() + " invalid documents with "
+				+ errors.get() + " errors";
+	}
+
+	public synchronized void close() throws IOException {
+		if (reportWriter != null) {
+			reportWriter.close();
+			reportWriter = null;
+		}
+	}
+
+	/**
+	 * The errors found in the layers of a single document. All layers of a document can be validated concurrently.
+	 */
+	public static class Report {
+
+		private final String document;
+		private final long[] counts = new long[Check.values().length];
+		private final List<String> messages = new ArrayList<>();
+
+		private Report(String document) {
+			this.document = document;
+		}
+
+		synchronized void error(Check check, String layer, String message) {
+			counts[check.ordinal()]++;
+			if (messages.size() < MAX_MESSAGES) {
+				messages.add(layer + ": " + message);
+			}
+		}
+
+		public synchronized long getErrors(Check check) {
+			return counts[check.ordinal()];
+		}
+
+		public synchronized long getErrors() {
+			long sum = 0;
+			for (long count : counts) {
+				sum += count;
+			}
+			return sum;
+		}
+
+		public boolean isValid() {
+			return getErrors() == 0;
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("Document ").append(document).append(':');
+			for (Check check : Check.values()) {
+				if (counts[check.ordinal()] > 0) {
+					sb.append(' ').append(check).append('=').append(counts[check.ordinal()]);
+				}
+			}
+			for (String message : messages) {
+				sb.append("\n  ").append(message);
+			}
+			if (getErrors() > messages.size()) {
+				sb.append("\n  ...");
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * The output of a text, each layer stream gets its own set of span IDs. The token IDs of the text are shared by
+	 * all layers.
+	 */
+	private static class ValidatedOutput implements LayerOutput, LayerRecorder {
+
+		private final LayerOutput output;
+		private final String text;
+		private final int textLength;
+		private final Report report;
+		private final IdSet tokenIds;
+
+		ValidatedOutput(LayerOutput output, TokenTable tokens, DocumentIds ids, Report report) {
+			this.output = output;
+			STextualDS textDS = tokens.getText();
+			this.text = textDS.getName();
+			this.textLength = textDS.getText() == null ? 0 : textDS.getText().length();
+			this.report = report;
+			this.tokenIds = new IdSet(tokens.size());
+			for (int i = 0; i < tokens.size(); i++) {
+				tokenIds.add(ids.get(tokens.getToken(i)));
+			}
+		}
+
+		@Override
+		public OutputStream open(String path) throws IOException {
+			return new ValidatedStream(output.open(path), path);
+		}
+
+		@Override
+		public void span() {
+			LayerRecorder.of(output).span();
+		}
+
+		@Override
+		public void warning() {
+			LayerRecorder.of(output).warning();
+		}
+
+		/**
+		 * A layer stream with the state of its validation.
+		 */
+		private class ValidatedStream extends FilterOutputStream implements LayerRecorder, Discardable {
+
+			private final String layer;
+			private final IdSet spanIds = new IdSet(64);
+			private final IdSet targets = new IdSet(16);
+			/**
+			 * The first targets which are not tokens, only used for the messages.
+			 */
+			private final List<String> targetNames = new ArrayList<>();
+
+			ValidatedStream(OutputStream out, String path) {
+				super(out);
+				this.layer = text + "/" + path;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void span() {
+				LayerRecorder.of(out).span();
+			}
+
+			@Override
+			public void warning() {
+				LayerRecorder.of(out).warning();
+			}
+
+			@Override
+			public void discard() {
+				LayerOutput.discard(out);
+			}
+
+			void checkOffset(String id, int offset) {
+				if (offset < 0 || offset > textLength) {
+					report.error(Check.OFFSET, layer, "offset " + offset + " of span " + id
+							+ " is outside of the text (length " + textLength + ")");
+				}
+			}
+
+			void checkSpan(String id, int from, int to) {
+				if (from > to) {
+					report.error(Check.OFFSET, layer, "span " + id + " ends before it starts (" + from + "-" + to + ")");
+				}
+			}
+
+			void checkId(String id) {
+				if (!spanIds.add(id)) {
+					report.error(Check.DUPLICATE_ID, layer, "duplicate span ID " + id);
+				}
+			}
+
+			void checkTarget(String target) {
+				int hash = target == null ? -1 : target.indexOf('#');
+				String id = hash < 0 ? target : target.substring(hash + 1);
+				if (id == null || "null".equals(id)) {
+					report.error(Check.MISSING_TARGET, layer, "relation target is not part of the document");
+				} else if (!tokenIds.contains(id)) {
+					// a span of this layer, it can be written after the relation
+					if (targets.add(id) && targetNames.size() < MAX_MESSAGES) {
+						targetNames.add(id);
+					}
+				}
+			}
+
+			/**
+			 * Checks the relation targets that are not tokens when the whole layer is written.
+			 */
+			void endLayer() {
+				int missingNamed = 0;
+				for (String target : targetNames) {
+					if (!spanIds.contains(target)) {
+						report.error(Check.MISSING_TARGET, layer, "relation target " + target
+								+ " is neither a token nor a span of this layer");
+						missingNamed++;
+					}
+				}
+				if (targets.size() > targetNames.size()) {
+					int missing = 0;
+					for (long target : targets.hashes()) {
+						if (!spanIds.containsHash(target)) {
+							missing++;
+						}
+					}
+					for (int i = missingNamed; i < missing; i++) {
+						report.error(Check.MISSING_TARGET, layer, "a relation target is neither a token nor a span of "
+								+ "this layer");
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Inspects the elements before they are passed to the actual writer.
+	 */
+	private static class ValidatingWriter extends LayerWriter {
+
+		private final LayerWriter writer;
+		private final ValidatedOutput.ValidatedStream stream;
+
+		private boolean inSpan = false;
+		private boolean inRel = false;
+		private String id;
+		private int from = -1;
+		private int to = -1;
+
+		ValidatingWriter(LayerWriter writer, ValidatedOutput.ValidatedStream stream) {
+			super(writer.isPrettyPrint());
+			this.writer = writer;
+			this.stream = stream;
+		}
+
+		private void endSpanStartTag() {
+			if (inSpan) {
+				if (from >= 0 && to >= 0) {
+					stream.checkSpan(id, from, to);
+				}
+				inSpan = false;
+			}
+			inRel = false;
+		}
+
+		@Override
+		public void writeStartDocument() throws XMLStreamException {
+			writer.writeStartDocument();
+		}
+
+		@Override
+		public void setDefaultNamespace(String uri) throws XMLStreamException {
+			writer.setDefaultNamespace(uri);
+		}
+
+		@Override
+		public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+			endSpanStartTag();
+			inSpan = "span".equals(localName);
+			inRel = "rel".equals(localName);
+			id = null;
+			from = -1;
+			to = -1;
+			writer.writeStartElement(namespaceURI, localName);
+		}
+
+		@Override
+		public void writeAttribute(String localName, String value) throws XMLStreamException {
+			if (inSpan) {
+				if ("id".equals(localName)) {
+					id = value;
+					stream.checkId(value);
+				} else if ("from".equals(localName) || "to".equals(localName)) {
+					try {
+						offset(localName, Integer.parseInt(value));
+					} catch (NumberFormatException ex) {
+						stream.checkOffset(id, -1);
+					}
+				}
+			} else if (inRel && "target".equals(localName)) {
+				stream.checkTarget(value);
+			}
+			writer.writeAttribute(localName, value);
+		}
+
+		@Override
+		public void writeAttribute(String localName, int value) throws XMLStreamException {
+			if (inSpan && ("from".equals(localName) || "to".equals(localName))) {
+				offset(localName, value);
+			}
+			writer.writeAttribute(localName, value);
+		}
+
+		private void offset(String localName, int value) {
+			stream.checkOffset(id, value);
+			if ("from".equals(localName)) {
+				from = value;
+			} else {
+				to = value;
+			}
+		}
+
+		@Override
+		public void writeCharacters(String text) throws XMLStreamException {
+			endSpanStartTag();
+			writer.writeCharacters(text);
+		}
+
+		@Override
+		public void writeEndElement() throws XMLStreamException {
+			endSpanStartTag();
+			writer.writeEndElement();
+		}
+
+		@Override
+		public void writeEndDocument() throws XMLStreamException {
+			endSpanStartTag();
+			stream.endLayer();
+			writer.writeEndDocument();
+		}
+
+		@Override
+		public void indent(int depth) throws XMLStreamException {
+			writer.indent(depth);
+		}
+
+		@Override
+		public void flush() throws XMLStreamException {
+			writer.flush();
+		}
+
+		@Override
+		public void close() throws XMLStreamException {
+			writer.close();
+		}
+	}
+
+	/**
+	 * An open addressing hash set of the 64 bit hashes of IDs.
+	 */
+	static class IdSet {
+
+		private static final long EMPTY = 0;
+
+		private long[] table;
+		private int size = 0;
+
+		IdSet(int expected) {
+			int capacity = 16;
+			while (capacity < expected * 2) {
+				capacity <<= 1;
+			}
+			table = new long[capacity];
+		}
+
+		static long hash(String id) {
+			if (id == null) {
+				return 1;
+			}
+			// FNV-1a with a final mix, 0 is reserved for empty slots
+			long h = 0xcbf29ce484222325L;
+			for (int i = 0; i < id.length(); i++) {
+				h ^= id.charAt(i);
+				h *= 0x100000001b3L;
+			}
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			return h == EMPTY ? 1 : h;
+		}
+
+		/**
+		 * @param id
+		 * @return False if the ID was already in the set.
+		 */
+		boolean add(String id) {
+			return addHash(hash(id));
+		}
+
+		private boolean addHash(long h) {
+			if (size * 2 >= table.length) {
+				grow();
+			}
+			int mask = table.length - 1;
+			for (int i = (int) h & mask;; i = (i + 1) & mask) {
+				if (table[i] == EMPTY) {
+					table[i] = h;
+					size++;
+					return true;
+				} else if (table[i] == h) {
+					return false;
+				}
+			}
+		}
+
+		boolean contains(String id) {
+			return containsHash(hash(id));
+		}
+
+		boolean containsHash(long h) {
+			int mask = table.length - 1;
+			for (int i = (int) h & mask;; i = (i + 1) & mask) {
+				if (table[i] == EMPTY) {
+					return false;
+				} else if (table[i] == h) {
+					return true;
+				}
+			}
+		}
+
+		long[] hashes() {
+			long[] result = new long[size];
+			int n = 0;
+			for (long h : table) {
+				if (h != EMPTY) {
+					result[n++] = h;
+				}
+			}
+			return result;
+		}
+
+		private void grow() {
+			long[] old = table;
+			table = new long[old.length * 2];
+			size = 0;
+			for (long h : old) {
+				if (h != EMPTY) {
+					addHash(h);
+				}
+			}
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
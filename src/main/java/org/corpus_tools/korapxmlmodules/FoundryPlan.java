@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.corpus_tools.korapxmlmodules.foundries.Foundry;
+import org.corpus_tools.korapxmlmodules.foundries.FoundryRegistry;
+import org.corpus_tools.pepper.modules.exceptions.PepperModuleNotReadyException;
+
+/**
+ * The parsed and validated "foundryMapping" property.
+ *
+ * The plan is created once when the exporter starts and is shared by all mappers, so the foundry instances must not
+ * keep any state of a document. The layers are kept in the order of their definition, duplicate definitions are
+ * ignored. A foundry writes the same files for every layer, so a foundry that is mapped from several layers is run
+ * once per text with the nodes of all its layers, see {@link #getLayersByFoundry()}.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class FoundryPlan {
+
+	/**
+	 * The layer name which selects all nodes of the document.
+	 */
+	public static final String ALL_LAYERS = "_all_";
+
+	private final ImmutableListMultimap<String, Foundry> mapping;
+	private final ImmutableListMultimap<Foundry, String> layersByFoundry;
+
+	private FoundryPlan(ImmutableListMultimap<String, Foundry> mapping) {
+		this.mapping = mapping;
+		this.layersByFoundry = mapping.inverse();
+	}
+
+	/**
+	 * Parses a foundry mapping like "layer1->TreeTagger, _all_->Base".
+	 *
+	 * @param raw
+	 * @param registry
+	 * @return
+	 * @throws PepperModuleNotReadyException If the mapping is malformed or references an unknown foundry.
+	 */
+	public static FoundryPlan compile(String raw, FoundryRegistry registry) throws PepperModuleNotReadyException {
+		LinkedHashMultimap<String, Foundry> result = LinkedHashMultimap.create();
+		// foundries with the same name write the same files, so they are represented by a single instance
+		Map<String, Foundry> byName = new HashMap<>();
+		if (raw != null && !raw.isEmpty()) {
+			for (String def : Splitter.on(',').trimResults().omitEmptyStrings().split(raw)) {
+				List<String> splittedDef = Splitter.on("->").trimResults().omitEmptyStrings().limit(2).splitToList(def);
+				if (splittedDef.size() != 2) {
+					throw new PepperModuleNotReadyException("Invalid foundry mapping \"" + def
+							+ "\", expected \"<layer>-><foundry>\"");
+				}
+				Foundry found = registry.get(splittedDef.get(1));
+				if (found == null) {
+					throw new PepperModuleNotReadyException("Can't find the foundry with name " + splittedDef.get(1));
+				}
+				result.put(splittedDef.get(0), byName.computeIfAbsent(found.getName(), name -> found));
+			}
+		}
+		return new FoundryPlan(ImmutableListMultimap.copyOf(result));
+	}
+
+	/**
+	 * @return The foundries for each layer name, {@link #ALL_LAYERS} stands for the whole document.
+	 */
+	public ImmutableListMultimap<String, Foundry> getMapping() {
+		return mapping;
+	}
+
+	/**
+	 * @return The layer names of each foundry, each foundry must only be run once per text with the nodes of all its
+	 * layers.
+	 */
+	public ImmutableListMultimap<Foundry, String> getLayersByFoundry() {
+		return layersByFoundry;
+	}
+
+}
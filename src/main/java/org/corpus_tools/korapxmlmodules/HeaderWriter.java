@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.pepper.exceptions.PepperConvertException;
+import org.corpus_tools.salt.common.SCorpus;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.core.SMetaAnnotation;
+import org.corpus_tools.salt.core.SNode;
+
+/**
+ * Creates the "header.xml" files of the corpus, document and text level from the meta annotations of Salt.
+ *
+ * The sigle and the title are written to the title statement, all meta annotations are written as notes with their
+ * qualified name. The title is taken from a meta annotation named "title" and defaults to the name of the element.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class HeaderWriter {
+
+	public static final String FILE = "header.xml";
+
+	private HeaderWriter() {
+	}
+
+	/**
+	 * Renders the corpus header, it is only created once for each root corpus and then cached by the exporter.
+	 *
+	 * @param corpus
+	 * @param props
+	 * @return The UTF-8 encoded header.
+	 */
+	public static byte[] corpus(SCorpus corpus, KorapXMLExporterProperties props) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		try {
+			write(out, "corpus", "korpusSigle", DocumentIds.getCorpusSigle(corpus), "c.title", corpus, props);
+		} catch (IOException | XMLStreamException ex) {
+			throw new PepperConvertException("Can't create the header of corpus " + corpus.getId(), ex);
+		}
+		return out.toByteArray();
+	}
+
+	public static void document(OutputStream out, SDocument doc, KorapXMLExporterProperties props)
+			throws IOException, XMLStreamException {
+		write(out, "document", "dokumentSigle", DocumentIds.getDocumentSigle(doc), "d.title", doc, props);
+	}
+
+	public static void text(OutputStream out, SDocument doc, STextualDS text, KorapXMLExporterProperties props)
+			throws IOException, XMLStreamException {
+		write(out, "text", "textSigle", DocumentIds.getTextSigle(doc, text), "t.title", text, props);
+	}
+
+	private static void write(OutputStream out, String type, String sigleElement, String sigle,
+			String titleElement, SNode node, KorapXMLExporterProperties props) throws IOException, XMLStreamException {
+
+		List<SMetaAnnotation> metaAnnos = sorted(node.getMetaAnnotations());
+		String title = node.getName();
+		for (SMetaAnnotation anno : metaAnnos) {
+			if ("title".equalsIgnoreCase(anno.getName())) {
+				title = anno.getValue_STEXT();
+				break;
+			}
+		}
+
+		LayerWriter xml = LayerWriter.create(out, props);
+		xml.writeStartDocument();
+
+		xml.indent(0);
+		xml.writeStartElement(null, "idsHeader");
+		xml.writeAttribute("type", type);
+		xml.writeAttribute("version", "1.0");
+
+		xml.indent(1);
+		xml.writeStartElement(null, "fileDesc");
+
+		xml.indent(2);
+		xml.writeStartElement(null, "titleStmt");
+		xml.indent(3);
+		xml.writeStartElement(null, sigleElement);
+		xml.writeCharacters(sigle);
+		xml.writeEndElement();
+		if (title != null) {
+			xml.indent(3);
+			xml.writeStartElement(null, titleElement);
+			xml.writeCharacters(title);
+			xml.writeEndElement();
+		}
+		xml.indent(2);
+		xml.writeEndElement(); // </titleStmt>
+
+		if (!metaAnnos.isEmpty()) {
+			xml.indent(2);
+			xml.writeStartElement(null, "notesStmt");
+			for (SMetaAnnotation anno : metaAnnos) {
+				xml.indent(3);
+				xml.writeStartElement(null, "note");
+				xml.writeAttribute("n", anno.getQName());
+				xml.writeCharacters(anno.getValue_STEXT());
+				xml.writeEndElement();
+			}
+			xml.indent(2);
+			xml.writeEndElement(); // </notesStmt>
+		}
+
+		xml.indent(1);
+		xml.writeEndElement(); // </fileDesc>
+		xml.indent(0);
+		xml.writeEndElement(); // </idsHeader>
+		xml.writeEndDocument();
+
+		xml.flush();
+		xml.close();
+	}
+
+	/**
+	 * @param metaAnnos
+	 * @return The meta annotations sorted by their qualified name, so the header does not depend on their order.
+	 */
+	private static List<SMetaAnnotation> sorted(Set<SMetaAnnotation> metaAnnos) {
+		List<SMetaAnnotation> result = new ArrayList<>(metaAnnos == null ? 0 : metaAnnos.size());
+		if (metaAnnos != null) {
+			result.addAll(metaAnnos);
+		}
+		result.sort((a, b) -> a.getQName().compareTo(b.getQName()));
+		return result;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Records the export statistics as JFR events.
+ *
+ * This class is only loaded by {@link ExportStatistics} if JFR events are enabled, so the exporter still works on
+ * runtimes without JFR.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+class JfrEventSink implements ExportStatistics.EventSink {
+
+	@Name("org.corpus_tools.korapxmlmodules.LayerWritten")
+	@Label("KorapXML Layer Written")
+	@Category("KorapXML")
+	static class LayerWritten extends Event {
+
+		@Label("Text")
+		String text;
+
+		@Label("Layer")
+		String layer;
+
+		@Label("Wall Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long wallTime;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Spans")
+		long spans;
+
+		@Label("Warnings")
+		long warnings;
+	}
+
+	@Name("org.corpus_tools.korapxmlmodules.TaskFinished")
+	@Label("KorapXML Mapping Task Finished")
+	@Category("KorapXML")
+	static class TaskFinished extends Event {
+
+		@Label("Text")
+		String text;
+
+		@Label("Task")
+		String task;
+
+		@Label("Wall Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long wallTime;
+	}
+
+	@Name("org.corpus_tools.korapxmlmodules.TextExported")
+	@Label("KorapXML Text Exported")
+	@Category("KorapXML")
+	static class TextExported extends Event {
+
+		@Label("Text")
+		String text;
+
+		@Label("Task Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long taskTime;
+
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+
+		@Label("Spans")
+		long spans;
+
+		@Label("Warnings")
+		long warnings;
+	}
+
+	@Name("org.corpus_tools.korapxmlmodules.DocumentExported")
+	@Label("KorapXML Document Exported")
+	@Category("KorapXML")
+	static class DocumentExported extends Event {
+
+		@Label("Document")
+		String document;
+
+		@Label("Wall Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long wallTime;
+
+		@Label("Texts")
+		int texts;
+	}
+
+	@Override
+	public void layerWritten(String text, String layer, long nanos, long bytes, long spans, long warnings) {
+		LayerWritten e = new LayerWritten();
+		if (e.shouldCommit()) {
+			e.text = text;
+			e.layer = layer;
+			e.wallTime = nanos;
+			e.bytes = bytes;
+			e.spans = spans;
+			e.warnings = warnings;
+			e.commit();
+		}
+	}
+
+	@Override
+	public void taskFinished(String text, String task, long nanos) {
+		TaskFinished e = new TaskFinished();
+		if (e.shouldCommit()) {
+			e.text = text;
+			e.task = task;
+			e.wallTime = nanos;
+			e.commit();
+		}
+	}
+
+	@Override
+	public void textExported(String text, long nanos, long bytes, long spans, long warnings) {
+		TextExported e = new TextExported();
+		if (e.shouldCommit()) {
+			e.text = text;
+			e.taskTime = nanos;
+			e.bytes = bytes;
+			e.spans = spans;
+			e.warnings = warnings;
+			e.commit();
+		}
+	}
+
+	@Override
+	public void documentExported(String document, long nanos, int texts) {
+		DocumentExported e = new DocumentExported();
+		if (e.shouldCommit()) {
+			e.document = document;
+			e.wallTime = nanos;
+			e.texts = texts;
+			e.commit();
+		}
+	}
+}
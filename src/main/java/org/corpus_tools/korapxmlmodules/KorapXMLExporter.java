@@ -1,18 +1,19 @@
 package org.corpus_tools.korapxmlmodules;
 
-import com.google.common.base.Strings;
-import com.google.common.collect.Multimap;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.logging.Level;
-import javax.xml.stream.XMLOutputFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-import org.corpus_tools.korapxmlmodules.foundries.Foundry;
+import org.corpus_tools.korapxmlmodules.foundries.FoundryRegistry;
 
 import org.corpus_tools.pepper.common.DOCUMENT_STATUS;
 import org.corpus_tools.pepper.common.PepperConfiguration;
@@ -23,12 +24,13 @@ import org.corpus_tools.pepper.modules.PepperExporter;
 import org.corpus_tools.pepper.modules.PepperMapper;
 import org.corpus_tools.pepper.modules.PepperModule;
 import org.corpus_tools.pepper.modules.PepperModuleProperties;
+import org.corpus_tools.pepper.modules.exceptions.PepperModuleException;
 import org.corpus_tools.pepper.modules.exceptions.PepperModuleNotReadyException;
 import org.corpus_tools.salt.common.SCorpusGraph;
+import org.corpus_tools.salt.common.SDocumentGraph;
 import org.corpus_tools.salt.common.SSpan;
 import org.corpus_tools.salt.common.STextualDS;
 import org.corpus_tools.salt.common.SToken;
-import org.corpus_tools.salt.core.SLayer;
 import org.corpus_tools.salt.core.SNode;
 import org.corpus_tools.salt.graph.Identifier;
 import org.eclipse.emf.common.util.URI;
@@ -47,7 +49,26 @@ public class KorapXMLExporter extends PepperExporterImpl implements PepperExport
 
 	private final static Logger log = LoggerFactory.getLogger(KorapXMLExporter.class);
 
-	public static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+	public static final String STATISTICS_FILE = "korapxml-statistics.txt";
+
+	private LayerExecutor layerExecutor;
+
+	private FoundryPlan foundryPlan;
+
+	private final Map<String, ZipArchive> zipArchives = new ConcurrentHashMap<>();
+
+	/**
+	 * The rendered headers of the root corpora by their sigle.
+	 */
+	private final Map<String, byte[]> corpusHeaders = new ConcurrentHashMap<>();
+
+	private ExportManifest manifest;
+
+	private ExportStatistics statistics;
+
+	private ExportValidation validation;
+
+	private WriteBehindQueue writeBehind;
 
 	// =================================================== mandatory
 	// ===================================================
@@ -70,9 +91,6 @@ public class KorapXMLExporter extends PepperExporterImpl implements PepperExport
 		setExportMode(EXPORT_MODE.CORPORA_ONLY);
 
 		setProperties(new KorapXMLExporterProperties());
-
-		outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, "true");
-
 	}
 
 	/**
@@ -82,8 +100,18 @@ public class KorapXMLExporter extends PepperExporterImpl implements PepperExport
 	 */
 	@Override
 	public PepperMapper createPepperMapper(Identifier Identifier) {
-		PepperMapper mapper = new KorapXMLMapper();
+		KorapXMLMapper mapper = new KorapXMLMapper();
 		mapper.setResourceURI(getIdentifier2ResourceTable().get(Identifier));
+		mapper.setLayerExecutor(layerExecutor);
+		mapper.setFoundryPlan(foundryPlan);
+		mapper.setManifest(manifest);
+		mapper.setStatistics(statistics);
+		mapper.setValidation(validation);
+		mapper.setWriteBehind(writeBehind);
+		mapper.setCorpusHeaders(corpusHeaders);
+		if (getProperties().isZipOutput()) {
+			mapper.setZipArchive(getZipArchive(Identifier));
+		}
 		return (mapper);
 	}
 
@@ -103,6 +131,90 @@ public class KorapXMLExporter extends PepperExporterImpl implements PepperExport
 			}
 		}
 
+		private LayerExecutor layerExecutor = new LayerExecutor();
+
+		private ZipArchive zipArchive;
+
+		private FoundryPlan foundryPlan;
+
+		private ExportManifest manifest;
+
+		private ExportStatistics statistics;
+
+		private ExportValidation validation;
+
+		private WriteBehindQueue writeBehind;
+
+		/**
+		 * The files of the mapped document which are written by the write-behind queue.
+		 */
+		private WriteBehindQueue.Batch pendingFiles;
+
+		private Map<String, byte[]> corpusHeaders = new ConcurrentHashMap<>();
+
+		public void setLayerExecutor(LayerExecutor layerExecutor) {
+			this.layerExecutor = layerExecutor;
+		}
+
+		public void setFoundryPlan(FoundryPlan foundryPlan) {
+			this.foundryPlan = foundryPlan;
+		}
+
+		/**
+		 * Sets the manifest of an incremental export, unchanged documents and layers are not written.
+		 *
+		 * @param manifest
+		 */
+		public void setManifest(ExportManifest manifest) {
+			this.manifest = manifest;
+		}
+
+		/**
+		 * Sets the statistics all documents and layers are recorded in, nothing is recorded if null.
+		 *
+		 * @param statistics
+		 */
+		public void setStatistics(ExportStatistics statistics) {
+			this.statistics = statistics;
+		}
+
+		/**
+		 * Sets the validation of the written layers, nothing is validated if null.
+		 *
+		 * @param validation
+		 */
+		public void setValidation(ExportValidation validation) {
+			this.validation = validation;
+		}
+
+		/**
+		 * Sets the queue the layer files are written with, they are written by the mapping threads if null.
+		 *
+		 * @param writeBehind
+		 */
+		public void setWriteBehind(WriteBehindQueue writeBehind) {
+			this.writeBehind = writeBehind;
+		}
+
+		/**
+		 * Sets the cache of the corpus headers, which is shared by all mappers so each header is only created and
+		 * written once.
+		 *
+		 * @param corpusHeaders
+		 */
+		public void setCorpusHeaders(Map<String, byte[]> corpusHeaders) {
+			this.corpusHeaders = corpusHeaders;
+		}
+
+		/**
+		 * Sets the archive all layers are written to. If not set, a directory for each text is created.
+		 *
+		 * @param zipArchive
+		 */
+		public void setZipArchive(ZipArchive zipArchive) {
+			this.zipArchive = zipArchive;
+		}
+
 		/**
 		 * Stores each document-structure to location given by {@link #getResourceURI()}.
 		 */
@@ -111,158 +223,363 @@ public class KorapXMLExporter extends PepperExporterImpl implements PepperExport
 			// workaround to deal with a bug in Salt
 			SCorpusGraph sCorpusGraph = getDocument().getGraph();
 
-			File docDir = new File(getResourceURI().toFileString());
+			if (foundryPlan == null) {
+				foundryPlan = FoundryPlan.compile(getProperties().getFoundryMappingRaw(), new FoundryRegistry());
+			}
 
-			Multimap<String, Foundry> foundryMapping = getProperties().getFoundryMapping();
+			SDocumentGraph graph = getDocument().getDocumentGraph();
+			long startTime = statistics == null ? 0 : System.nanoTime();
+
+			String docKey = null;
+			String fingerprint = null;
+			if (manifest != null) {
+				docKey = manifest.getKey(new File(getResourceURI().toFileString()));
+				fingerprint = manifest.fingerprint(graph);
+				if (manifest.keepIfUnchanged(docKey, fingerprint)) {
+					log.debug("Document {} is unchanged", docKey);
+					if (statistics != null) {
+						statistics.documentSkipped();
+					}
+					return finish(sCorpusGraph, DOCUMENT_STATUS.COMPLETED);
+				}
+			}
 
-			getDocument().getDocumentGraph().getTextualDSs().forEach((text)
-					-> {
-				File textDir = new File(docDir, text.getName().replaceAll("[._]", ""));
-				if (!textDir.exists() && !textDir.mkdirs()) {
-					throw new PepperConvertException("Can't create directory " + textDir.getAbsolutePath());
+			pendingFiles = writeBehind == null ? null : writeBehind.newBatch();
+			Map<STextualDS, LayerOutput> outputs = new IdentityHashMap<>();
+			Map<STextualDS, LayerOutput> layerOutputs = new IdentityHashMap<>();
+			Map<STextualDS, KrillText> krillTexts = new IdentityHashMap<>();
+			ExportValidation.Report report = validation == null ? null
+					: validation.newReport(getDocument().getPath().toString());
+			layerExecutor.beginDocument();
+			try {
+				LayerExecutor.Tasks tasks = layerExecutor.tasks();
+
+				Map<STextualDS, TokenTable> tokenTables = TokenTable.partition(graph);
+				DocumentIds ids = new DocumentIds(graph, getProperties().isSaltIds());
+
+				// the document header is written in the same pass as the layers
+				tasks.submit(() -> mapDocumentHeader());
+
+				List<TextOffsetIndex> offsets = new ArrayList<>();
+				for (STextualDS text : graph.getTextualDSs()) {
+					TokenTable tokens = tokenTables.get(text);
+					LayerOutput textOutput = createTextOutput(text);
+					outputs.put(text, textOutput);
+					// the layers are validated while they are written
+					LayerOutput output = report == null ? textOutput
+							: validation.validate(textOutput, tokens, ids, report);
+					layerOutputs.put(text, output);
+					if (getProperties().isKrillOutput()) {
+						// the span layers add their terms to the Krill document while they are written
+						KrillText krill = new KrillText(output, tokens, getDocument());
+						krillTexts.put(text, krill);
+						layerOutputs.put(text, krill);
+					}
+					tasks.submit(timed(textOutput, "data", () -> mapText(output, text, ids)));
+					tasks.submit(timed(textOutput, "header", () -> mapTextHeader(output, text)));
+					tasks.submit(timed(textOutput, "token", () -> mapToken(output, tokens, ids)));
+
+					// resolve the offsets of all nodes of this text once, all foundries share this index
+					long offsetsStart = System.nanoTime();
+					offsets.add(new TextOffsetIndex(tokens));
+					if (statistics != null) {
+						statistics.taskFinished((ExportStatistics.InstrumentedOutput) textOutput, "offsets",
+								System.nanoTime() - offsetsStart);
+					}
 				}
-				mapText(textDir, text);
-				mapToken(textDir, text);
-
-				foundryMapping.entries().forEach(e -> {
-					if ("_all_".equals(e.getKey())) {
-						e.getValue().map(textDir, getDocument().getDocumentGraph().getNodes(), text, getProperties());
-					} else {
-						List<SLayer> layerList = getDocument().getDocumentGraph().getLayerByName(e.getKey());
-						if (layerList != null) {
-							for (SLayer layer : layerList) {
-								e.getValue().map(textDir, layer.getNodes(), text, getProperties());
-							}
+
+				// classify all nodes once, the foundries only get the nodes of their layer and text
+				DocumentNodeView nodeView = new DocumentNodeView(graph, offsets, foundryPlan.getMapping().keySet());
+
+				for (TextOffsetIndex textOffsets : offsets) {
+					LayerOutput textOutput = outputs.get(textOffsets.getText());
+					LayerOutput output = layerOutputs.get(textOffsets.getText());
+					// a single task per foundry, since the foundry writes the same files for each of its layers
+					foundryPlan.getLayersByFoundry().asMap().forEach((foundry, layers) -> {
+						NodeSelection nodes = nodeView.get(textOffsets.getText(), layers);
+						if (nodes != null) {
+							tasks.submit(timed(textOutput, foundry.getName(),
+									() -> foundry.map(output, nodes, textOffsets, ids, getProperties())));
 						}
-					}
+					});
+				}
+
+				tasks.await();
+
+				// all layers of the document are finished, so the Krill documents are complete
+				krillTexts.forEach((text, krill) -> {
+					tasks.submit(timed(outputs.get(text), "krill", () -> {
+						try {
+							krill.write();
+						} catch (IOException ex) {
+							throw new PepperConvertException("Could not create file \"" + KrillText.FILE
+									+ "\" for document " + getResourceURI(), ex);
+						}
+					}));
 				});
+				tasks.await();
+
+				// the streams of the write-behind queue return before their files are complete
+				awaitPendingFiles();
+			} catch (PepperConvertException ex) {
+				// the incomplete layer files were discarded, the document is not added to the manifest
+				log.error("Could not export document " + getResourceURI(), ex);
+				return finish(sCorpusGraph, DOCUMENT_STATUS.FAILED);
+			} finally {
+				layerExecutor.endDocument();
+			}
 
-			});
+			if (report != null) {
+				validation.documentValidated(report);
+			}
+			if (manifest != null) {
+				try {
+					manifest.putDocument(docKey, fingerprint);
+				} catch (IOException ex) {
+					log.error("Could not write the journal entry of document " + docKey
+							+ ", it is exported again if the export is resumed", ex);
+				}
+			}
+			if (statistics != null) {
+				List<ExportStatistics.InstrumentedOutput> instrumented = new ArrayList<>();
+				for (LayerOutput output : outputs.values()) {
+					instrumented.add((ExportStatistics.InstrumentedOutput) output);
+				}
+				statistics.documentExported(getDocument().getPath().toString(), System.nanoTime() - startTime,
+						instrumented);
+			}
 
+			return finish(sCorpusGraph, DOCUMENT_STATUS.COMPLETED);
+		}
+
+		/**
+		 * Waits until the write-behind queue has written all files of the document.
+		 *
+		 * @throws PepperConvertException If a file could not be written, it is deleted.
+		 */
+		private void awaitPendingFiles() {
+			if (pendingFiles != null) {
+				try {
+					pendingFiles.await();
+				} catch (IOException ex) {
+					throw new PepperConvertException("Could not write the files of " + getResourceURI(), ex);
+				}
+			}
+		}
+
+		/**
+		 * @param textOutput The output of the text the task belongs to, as returned by createTextOutput().
+		 * @param name The name of the task in the statistics.
+		 * @param task
+		 * @return The task, which records its wall time for the text if statistics are enabled.
+		 */
+		private Runnable timed(LayerOutput textOutput, String name, Runnable task) {
+			if (statistics == null) {
+				return task;
+			}
+			ExportStatistics.InstrumentedOutput text = (ExportStatistics.InstrumentedOutput) textOutput;
+			return () -> {
+				long start = System.nanoTime();
+				try {
+					task.run();
+				} finally {
+					statistics.taskFinished(text, name, System.nanoTime() - start);
+				}
+			};
+		}
+
+		private DOCUMENT_STATUS finish(SCorpusGraph sCorpusGraph, DOCUMENT_STATUS status) {
 			// workaround to deal with a bug in Salt
 			if (getDocument().getGraph() == null) {
 				getDocument().setGraph(sCorpusGraph);
 			}
 
 			addProgress(1.0);
-			return (DOCUMENT_STATUS.COMPLETED);
+			return status;
 		}
 
-		private String getDocID(STextualDS text) {
-			String textName = text.getName();
-			String[] docPath = getDocument().getPath().segments();
+		private LayerOutput createTextOutput(STextualDS text) {
+			LayerOutput output = createUninstrumentedOutput(text);
+			if (statistics != null) {
+				return statistics.instrument(output, getDocument().getPath().toString() + "/" + text.getName());
+			}
+			return output;
+		}
 
-			if (docPath.length >= 2) {
-				return docPath[0].replaceAll("[._]", "") + "_" + docPath[docPath.length - 1].replaceAll("[._]", "") + "." + textName.replaceAll("[._]", "");
+		/**
+		 * @param zipPath The path of the document or corpus inside the archive.
+		 * @return The output of the document or corpus level, only used for the headers.
+		 */
+		private LayerOutput createHeaderOutput(String zipPath, WriteBehindQueue.Batch batch) {
+			if (zipArchive == null) {
+				return createDirectoryOutput(new File(getResourceURI().toFileString()), batch);
 			} else {
-				throw new PepperConvertException("Can't generate a valid document ID because the corpus path is invalid.");
+				return zipArchive.forText(zipPath);
 			}
 		}
 
-		private void mapText(File textDir, STextualDS text) {
-
-			try (
-					FileOutputStream dataXMLStream = new FileOutputStream(new File(textDir, "data.xml"))) {
-				XMLStreamWriter xml = outputFactory.createXMLStreamWriter(dataXMLStream, "UTF-8");
-
-				xml.writeStartDocument("UTF-8", "1.0");
-				xml.setDefaultNamespace(NS_URI);
-
-				indent(0, xml);
-				xml.writeStartElement(NS_URI, "raw_text");
-
-				xml.writeAttribute("docid", getDocID(text));
-
-				String textContent = text.getText();
-
-				indent(1, xml);
-				xml.writeStartElement(NS_URI, "text");
-				xml.writeCharacters(textContent);
-				xml.writeEndElement(); // end "text"
-				indent(0, xml);
-				xml.writeEndElement(); // end "raw_text"
-				xml.writeEndDocument();
+		/**
+		 * @param dir
+		 * @param batch The batch of the write-behind queue the files are added to, null to write them directly.
+		 * @return The output of the files in the directory, tracked by the manifest if there is one.
+		 */
+		private LayerOutput createDirectoryOutput(File dir, WriteBehindQueue.Batch batch) {
+			if (manifest != null) {
+				return manifest.track(dir, new DirectoryOutput(dir, manifest::written, batch));
+			}
+			return new DirectoryOutput(dir, null, batch);
+		}
 
-				xml.flush();
-				xml.close();
+		private LayerOutput createUninstrumentedOutput(STextualDS text) {
+			String textName = DocumentIds.clean(text.getName());
+			if (zipArchive == null) {
+				File textDir = new File(getResourceURI().toFileString(), textName);
+				if (!textDir.exists() && !textDir.mkdirs()) {
+					throw new PepperConvertException("Can't create directory " + textDir.getAbsolutePath());
+				}
+				return createDirectoryOutput(textDir, pendingFiles);
+			} else {
+				// KorAP layout: CORPUS/DOC/TEXT
+				String[] docPath = getDocument().getPath().segments();
+				return zipArchive.forText(DocumentIds.clean(docPath[0]) + "/"
+						+ DocumentIds.clean(docPath[docPath.length - 1]) + "/" + textName);
+			}
+		}
 
+		private void mapDocumentHeader() {
+			// KorAP layout: CORPUS/DOC
+			LayerOutput output = createHeaderOutput(DocumentIds.getDocumentSigle(getDocument()), pendingFiles);
+			try {
+				output.write(HeaderWriter.FILE, headerStream -> HeaderWriter.document(headerStream, getDocument(),
+						getProperties()));
 			} catch (IOException | XMLStreamException ex) {
-				log.error("Could not create file \"data.xml\" for document " + getResourceURI(), ex);
+				throw new PepperConvertException("Could not create file \"" + HeaderWriter.FILE + "\" for document "
+						+ getResourceURI(), ex);
 			}
 		}
 
-		protected final void indent(int nr, XMLStreamWriter xml) {
+		private void mapTextHeader(LayerOutput output, STextualDS text) {
 			try {
-				xml.writeCharacters("\n" + Strings.repeat("\t", nr));
-			} catch (XMLStreamException ex) {
-				java.util.logging.Logger.getLogger(Foundry.class.getName()).log(Level.SEVERE, null, ex);
+				output.write(HeaderWriter.FILE, headerStream -> HeaderWriter.text(headerStream, getDocument(), text,
+						getProperties()));
+			} catch (IOException | XMLStreamException ex) {
+				throw new PepperConvertException("Could not create file \"" + HeaderWriter.FILE + "\" for text "
+						+ text.getId(), ex);
 			}
 		}
 
-		private void mapToken(File textDir, STextualDS text) {
-			File baseDir = new File(textDir, "base");
-			if (!baseDir.exists()) {
-				if (!baseDir.exists() && !baseDir.mkdirs()) {
-					log.error("Can't create output folder for token file.");
-					return;
+		void mapText(LayerOutput output, STextualDS text, DocumentIds ids) {
 
-				}
+			try {
+				output.write("data.xml", dataXMLStream -> writeText(dataXMLStream, text, ids));
+			} catch (IOException | XMLStreamException ex) {
+				throw new PepperConvertException("Could not create file \"data.xml\" for document " + getResourceURI(),
+						ex);
 			}
-			try (FileOutputStream tokenXMLStream = new FileOutputStream(new File(baseDir, "token.xml"))) {
-				XMLStreamWriter xml = outputFactory.createXMLStreamWriter(tokenXMLStream, "UTF-8");
-				xml.writeStartDocument("UTF-8", "1.0");
-				xml.setDefaultNamespace(NS_URI);
+		}
 
-				indent(0, xml);
-				xml.writeStartElement(NS_URI, "layer");
-				xml.writeAttribute("docid", getDocID(text));
-				xml.writeAttribute("version", KORAP_VERSION);
+		private void writeText(OutputStream dataXMLStream, STextualDS text, DocumentIds ids) throws XMLStreamException {
+			LayerWriter xml = LayerWriter.create(dataXMLStream, getProperties());
 
-				
-				indent(1, xml);
-				xml.writeStartElement(NS_URI, "spanList");
+			xml.writeStartDocument();
+			xml.setDefaultNamespace(NS_URI);
 
-				getDocument().getDocumentGraph().getTextualRelations().forEach((textRel)
-						-> {
-					if (textRel.getTarget() == text) {
-						SToken tok = textRel.getSource();
+			xml.indent(0);
+			xml.writeStartElement(NS_URI, "raw_text");
 
-						try {
-							indent(2, xml);
-							xml.writeStartElement(NS_URI, "span");
-							xml.writeAttribute("id", tok.getPath().fragment());
-							xml.writeAttribute("from", "" + textRel.getStart());
-							xml.writeAttribute("to", "" + textRel.getEnd());
-							xml.writeEndElement(); // end span
-						} catch (XMLStreamException ex) {
-							log.error("Could not map token " + tok.getId(), ex);
-						}
-					}
-				});
+			xml.writeAttribute("docid", ids.getDocID(text));
 
-				indent(1, xml);
-				xml.writeEndElement(); // end "spanList"
-				indent(0, xml);
-				xml.writeEndElement(); // end "layer"
-				xml.writeEndDocument();
+			String textContent = text.getText();
 
-				xml.flush();
-				xml.close();
+			xml.indent(1);
+			xml.writeStartElement(NS_URI, "text");
+			xml.writeCharacters(textContent);
+			xml.writeEndElement(); // end "text"
+			xml.indent(0);
+			xml.writeEndElement(); // end "raw_text"
+			xml.writeEndDocument();
 
+			xml.flush();
+			xml.close();
+		}
+
+		void mapToken(LayerOutput output, TokenTable tokens, DocumentIds ids) {
+			try {
+				output.write("base/token.xml", tokenXMLStream -> writeToken(tokenXMLStream, tokens, ids));
 			} catch (IOException | XMLStreamException ex) {
-				log.error("Could not create file \"base/token.xml\" for document " + getResourceURI(), ex);
+				throw new PepperConvertException("Could not create file \"base/token.xml\" for document "
+						+ getResourceURI(), ex);
 			}
 		}
 
+		private void writeToken(OutputStream tokenXMLStream, TokenTable tokens, DocumentIds ids)
+				throws XMLStreamException {
+			STextualDS text = tokens.getText();
+			LayerWriter xml = LayerWriter.create(tokenXMLStream, getProperties());
+			LayerRecorder recorder = LayerRecorder.of(tokenXMLStream);
+			xml.writeStartDocument();
+			xml.setDefaultNamespace(NS_URI);
+
+			xml.indent(0);
+			xml.writeStartElement(NS_URI, "layer");
+			xml.writeAttribute("docid", ids.getDocID(text));
+			xml.writeAttribute("version", KORAP_VERSION);
+
+			
+			xml.indent(1);
+			xml.writeStartElement(NS_URI, "spanList");
+
+			for (int i = 0; i < tokens.size(); i++) {
+				SToken tok = tokens.getToken(i);
+
+				try {
+					xml.indent(2);
+					xml.writeStartElement(NS_URI, "span");
+					xml.writeAttribute("id", ids.get(tok));
+					xml.writeAttribute("from", tokens.getStart(i));
+					xml.writeAttribute("to", tokens.getEnd(i));
+					xml.writeEndElement(); // end span
+					recorder.span();
+				} catch (XMLStreamException ex) {
+					log.error("Could not map token " + tok.getId(), ex);
+					recorder.warning();
+				}
+			}
+
+			xml.indent(1);
+			xml.writeEndElement(); // end "spanList"
+			xml.indent(0);
+			xml.writeEndElement(); // end "layer"
+			xml.writeEndDocument();
+
+			xml.flush();
+			xml.close();
+		}
+
 		/**
-		 * Storing the corpus-structure once
+		 * Writes the header of each root corpus once.
 		 */
 		@Override
 		public DOCUMENT_STATUS mapSCorpus() {
 			List<SNode> roots = getCorpus().getGraph().getRoots();
-			if ((roots != null) && (!roots.isEmpty())) {
-				if (getCorpus().equals(roots.get(0))) {
-//          SaltUtil.save_DOT(getCorpus().getGraph(), getResourceURI());
+			if (roots != null && roots.contains(getCorpus())) {
+				String sigle = DocumentIds.getCorpusSigle(getCorpus());
+				// the header is only cached once it is written, a failed header is not cached and fails the corpus
+				if (!corpusHeaders.containsKey(sigle)) {
+					byte[] header = HeaderWriter.corpus(getCorpus(), getProperties());
+					// the header is written outside of the cache, so the other mappers are not blocked by it
+					WriteBehindQueue.Batch batch = writeBehind == null ? null : writeBehind.newBatch();
+					try {
+						createHeaderOutput(sigle, batch).write(HeaderWriter.FILE,
+								headerStream -> headerStream.write(header));
+						if (batch != null) {
+							batch.await();
+						}
+					} catch (IOException | XMLStreamException ex) {
+						throw new PepperConvertException("Could not create file \"" + HeaderWriter.FILE
+								+ "\" for corpus " + getResourceURI(), ex);
+					}
+					corpusHeaders.putIfAbsent(sigle, header);
 				}
 			}
 
@@ -276,11 +593,34 @@ public class KorapXMLExporter extends PepperExporterImpl implements PepperExport
 
 	}
 
+	/**
+	 * Returns the archive of the root corpus of the given element and creates it if necessary.
+	 *
+	 * @param id
+	 * @return
+	 */
+	private ZipArchive getZipArchive(Identifier id) {
+		String corpusName = ((SNode) id.getIdentifiableElement()).getPath().segments()[0].replaceAll("[._]", "");
+		return zipArchives.computeIfAbsent(corpusName, name -> {
+			File zipFile = new File(getCorpusDesc().getCorpusPath().toFileString(), name + ".zip");
+			try {
+				return new ZipArchive(zipFile, getProperties().getZipCompression());
+			} catch (IOException ex) {
+				throw new PepperConvertException("Can't create archive " + zipFile.getAbsolutePath(), ex);
+			}
+		});
+	}
+
 	@Override
 	public void exportCorpusStructure() {
 		// create the directory structure with a folder for each (sub-) corpus
 		super.exportCorpusStructure();
 
+		if (getProperties().isZipOutput()) {
+			// all documents are written into the archive of their corpus
+			return;
+		}
+
 		// add a folder for each document
 		Collection<SCorpusGraph> corpGraphs = new LinkedList<>(this.getSaltProject().getCorpusGraphs());
 		corpGraphs.forEach((cg)
@@ -313,8 +653,98 @@ public class KorapXMLExporter extends PepperExporterImpl implements PepperExport
 	 */
 	@Override
 	public boolean isReadyToStart() throws PepperModuleNotReadyException {
-		// TODO make some initializations if necessary
+		KorapXMLExporterProperties props = getProperties();
+		props.compileSelectors();
+		foundryPlan = FoundryPlan.compile(props.getFoundryMappingRaw(), new FoundryRegistry());
+		layerExecutor = new LayerExecutor(props.getThreads(), props.getMaxDocumentsInFlight());
+		statistics = null;
+		if (props.isStatistics()) {
+			statistics = new ExportStatistics(props.isStatisticsJfr());
+			statistics.register(getName());
+		}
+		validation = null;
+		if (props.isValidate()) {
+			validation = new ExportValidation(new File(getCorpusDesc().getCorpusPath().toFileString(),
+					ExportValidation.FILE_NAME));
+		}
+		writeBehind = null;
+		if (props.getWriteBehindThreads() > 0) {
+			if (props.isZipOutput()) {
+				log.warn("Write-behind is not supported for ZIP output, the archive is written directly");
+			} else {
+				writeBehind = new WriteBehindQueue(props.getWriteBehindThreads(), props.getWriteBehindQueueDepth(),
+						props.getWriteBehindChunkSize());
+			}
+		}
+		manifest = null;
+		if (props.isIncremental()) {
+			if (props.isZipOutput()) {
+				log.warn("Incremental export is not supported for ZIP output, all documents are exported");
+			} else {
+				File outputDir = new File(getCorpusDesc().getCorpusPath().toFileString());
+				try {
+					manifest = ExportManifest.load(outputDir, KorapXMLMapper.KORAP_VERSION + "\t"
+							+ props.getOutputConfiguration(), props.getSyncBatch());
+				} catch (IOException ex) {
+					throw new PepperModuleNotReadyException("Can't read the manifest of the previous export in "
+							+ outputDir.getAbsolutePath(), ex);
+				}
+			}
+		}
 		return (super.isReadyToStart());
 	}
 
+	@Override
+	public void end() throws PepperModuleException {
+		super.end();
+		if (layerExecutor != null) {
+			layerExecutor.shutdown();
+		}
+		if (writeBehind != null) {
+			writeBehind.shutdown();
+			log.info(writeBehind.summary());
+		}
+		for (ZipArchive archive : zipArchives.values()) {
+			try {
+				archive.close();
+			} catch (IOException ex) {
+				log.error("Could not close archive " + archive.getFile().getAbsolutePath(), ex);
+			}
+		}
+		zipArchives.clear();
+		corpusHeaders.clear();
+		EncodedStringCache.clearAll();
+		if (manifest != null) {
+			try {
+				manifest.save();
+			} catch (IOException ex) {
+				log.error("Could not write the manifest of the export", ex);
+			}
+		}
+		if (validation != null) {
+			log.info(validation.summary());
+			try {
+				validation.close();
+			} catch (IOException ex) {
+				log.error("Could not write the validation report", ex);
+			}
+		}
+		if (statistics != null) {
+			String summary = statistics.summary();
+			log.info(summary);
+			File summaryFile = new File(getCorpusDesc().getCorpusPath().toFileString(), STATISTICS_FILE);
+			try {
+				Files.write(summaryFile.toPath(), summary.getBytes(StandardCharsets.UTF_8));
+			} catch (IOException ex) {
+				log.error("Could not write the export statistics to " + summaryFile.getAbsolutePath(), ex);
+			}
+			statistics.unregister();
+		}
+	}
+
+	@Override
+	public KorapXMLExporterProperties getProperties() {
+		return (KorapXMLExporterProperties) super.getProperties();
+	}
+
 }
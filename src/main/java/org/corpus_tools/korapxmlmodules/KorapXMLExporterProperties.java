@@ -15,13 +15,14 @@
  */
 package org.corpus_tools.korapxmlmodules;
 
-import com.google.common.base.Splitter;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import java.util.List;
+import java.util.zip.Deflater;
 import org.corpus_tools.korapxmlmodules.foundries.Foundry;
+import org.corpus_tools.korapxmlmodules.foundries.FoundryRegistry;
 import org.corpus_tools.pepper.modules.PepperModuleProperties;
 import org.corpus_tools.pepper.modules.PepperModuleProperty;
+import org.corpus_tools.pepper.modules.exceptions.PepperModuleNotReadyException;
 import org.corpus_tools.salt.util.SaltUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,7 +34,10 @@ import org.slf4j.LoggerFactory;
 public class KorapXMLExporterProperties extends PepperModuleProperties {
 
 	private static final Logger log = LoggerFactory.getLogger(KorapXMLExporterProperties.class);
-	
+
+	private volatile AnnotationMatcher[] treeTaggerMatchers;
+	private volatile AnnotationMatcher dependencyLabelMatcher;
+
 	public KorapXMLExporterProperties() {
 		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
 				"base.sentence", String.class,
@@ -55,9 +59,102 @@ public class KorapXMLExporterProperties extends PepperModuleProperties {
 				"The part of speech annotation used as \"TreeTagger#ctag\" layer in KorapXML",
 				SaltUtil.SALT_NAMESPACE + "::" +  SaltUtil.SEMANTICS_POS));
 
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"dependency.foundry", String.class,
+				"The foundry the \"dependency\" layer is written to.", "malt"));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"dependency.label", String.class,
+				"The annotation of the pointing relations used as label in the \"dependency\" layer. "
+				+ "If a relation has no such annotation, its type is used.", "func"));
+
 		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
 				"foundryMapping", String.class,
 				"Maps a layer to a foundry.", ""));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"parallel.threads", Integer.class,
+				"Number of threads used to write the layer files of the documents concurrently. "
+				+ "If 0 the number of available processors is used.", 0));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"parallel.maxDocuments", Integer.class,
+				"Maximal number of documents whose layers are written at the same time. "
+				+ "If 0 the number of threads is used.", 0));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.zip", Boolean.class,
+				"If true, all layers of a corpus are written into a single ZIP archive named after the corpus "
+				+ "instead of a directory per document and text.", false));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.zip.compression", Integer.class,
+				"The compression level (0-9) of the ZIP archives, -1 for the default level.", Deflater.DEFAULT_COMPRESSION));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.prettyPrint", Boolean.class,
+				"If false, no line breaks and indentation are written to the XML files.", true));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.writer", String.class,
+				"The XML writer implementation: \"" + LayerWriter.WRITER_KORAP + "\" for the specialized KorapXML writer "
+				+ "or \"" + LayerWriter.WRITER_STAX + "\" for the generic StAX writer.", LayerWriter.WRITER_KORAP));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.saltIds", Boolean.class,
+				"If true, the names of the Salt IDs are used as IDs of the tokens and spans. Otherwise compact "
+				+ "IDs are generated (\"t0\", \"t1\", ... for tokens and \"s0\", \"s1\", ... for spans).", false));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.krill", Boolean.class,
+				"If true, a Krill JSON document (\"" + KrillText.FILE + "\") with the term stream of all span "
+				+ "layers is written for each text in addition to the KorapXML files.", false));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.incremental", Boolean.class,
+				"If true, a manifest with content hashes of all documents and layer files is stored in the output "
+				+ "directory. Unchanged documents and layer files of a previous export are not written again. "
+				+ "Finished documents are recorded in a journal, so an interrupted export is resumed by the next run. "
+				+ "The journal needs the manifest, so only incremental exports can be resumed. "
+				+ "Not supported for ZIP output.", false));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.incremental.syncBatch", Integer.class,
+				"Number of finished documents after which the written files and the journal of an incremental "
+				+ "export are synced to disk. After a crash, at most this many documents are exported again.",
+				ExportManifest.DEFAULT_SYNC_BATCH));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.writeBehind.threads", Integer.class,
+				"Number of threads that write the layer files to disk while the next content is serialized. "
+				+ "If 0 the files are written by the threads that serialize them. Not used for ZIP output.", 0));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.writeBehind.queueDepth", Integer.class,
+				"Maximal number of chunks that wait for the write-behind threads. If the queue is full, the "
+				+ "serialization waits until the storage caught up.", WriteBehindQueue.DEFAULT_QUEUE_DEPTH));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"output.writeBehind.chunkSize", Integer.class,
+				"Size in bytes of the chunks the write-behind threads write with a single call. Larger chunks "
+				+ "mean fewer, larger writes but a longer latency of each write.", WriteBehindQueue.DEFAULT_CHUNK_SIZE));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"validate", Boolean.class,
+				"If true, the offsets, span IDs and relation targets of all layers are checked while they are "
+				+ "written. The errors of each document are logged and written to \"" + ExportValidation.FILE_NAME
+				+ "\" in the output directory.", false));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"statistics", Boolean.class,
+				"If true, wall time, spans, bytes and warnings are recorded for each document, text and layer. "
+				+ "The totals are available as JMX MBean during the export and a summary is written to the "
+				+ "output directory at the end.", false));
+
+		KorapXMLExporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"statistics.jfr", Boolean.class,
+				"If true, the statistics of each document, text and layer are also recorded as JFR events. "
+				+ "Only used if \"statistics\" is enabled.", false));
 	}
 
 	public String getBaseSentence() {
@@ -76,26 +173,178 @@ public class KorapXMLExporterProperties extends PepperModuleProperties {
 		return ((PepperModuleProperty<String>) getProperty("treetagger.pos")).getValue();
 	}
 	
-	public Multimap<String, Foundry> getFoundryMapping() {
-		Multimap<String, Foundry> result = HashMultimap.create();
-		
-		String raw = ((PepperModuleProperty<String>) getProperty("foundryMapping")).getValue();
-		if(raw != null && !raw.isEmpty()) {
-			for(String def : Splitter.on(',').trimResults().omitEmptyStrings().split(raw)) {
-				List<String> splittedDef = Splitter.on("->").trimResults().omitEmptyStrings().limit(2).splitToList(def);
-				if(splittedDef.size() == 2) {
-					try {
-						Class<?> rawClass = Class.forName("org.corpus_tools.korapxmlmodules.foundries." + splittedDef.get(1));
-						Class<? extends Foundry> foundryClass = rawClass.asSubclass(Foundry.class);
-						result.put(splittedDef.get(0), foundryClass.newInstance());
-						
-					} catch (ClassNotFoundException | ClassCastException | InstantiationException | IllegalAccessException ex ) {
-						log.warn("Can't find the foundry with name {}: {}", splittedDef.get(1), ex.getMessage());
-					}
-				}
-			}
+	public String getDependencyFoundry() {
+		return ((PepperModuleProperty<String>) getProperty("dependency.foundry")).getValue();
+	}
+
+	public String getDependencyLabel() {
+		return ((PepperModuleProperty<String>) getProperty("dependency.label")).getValue();
+	}
+
+	public int getThreads() {
+		Integer threads = ((PepperModuleProperty<Integer>) getProperty("parallel.threads")).getValue();
+		if (threads == null || threads <= 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return threads;
+	}
+
+	public int getMaxDocumentsInFlight() {
+		Integer maxDocuments = ((PepperModuleProperty<Integer>) getProperty("parallel.maxDocuments")).getValue();
+		if (maxDocuments == null || maxDocuments <= 0) {
+			return getThreads();
+		}
+		return maxDocuments;
+	}
+
+	/**
+	 * @return Matchers for the lemma and part of speech annotations of the TreeTagger foundry, the array must not be
+	 * modified.
+	 */
+	public AnnotationMatcher[] getTreeTaggerMatchers() {
+		AnnotationMatcher[] result = treeTaggerMatchers;
+		if (result == null) {
+			result = new AnnotationMatcher[]{
+				AnnotationMatcher.forQName(getTreeTaggerLemma()),
+				AnnotationMatcher.forQName(getTreeTaggerPOS())
+			};
+			treeTaggerMatchers = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return Matcher for the label annotation of the dependency relations, a name without namespace matches the
+	 * name in any namespace.
+	 */
+	public AnnotationMatcher getDependencyLabelMatcher() {
+		AnnotationMatcher result = dependencyLabelMatcher;
+		if (result == null) {
+			String label = getDependencyLabel();
+			result = label.contains("::") ? AnnotationMatcher.forQName(label) : AnnotationMatcher.forName(label);
+			dependencyLabelMatcher = result;
 		}
 		return result;
 	}
 
+	/**
+	 * Compiles the annotation selectors again, this must be called when the selector properties have been changed
+	 * after they were used.
+	 */
+	public void compileSelectors() {
+		treeTaggerMatchers = null;
+		dependencyLabelMatcher = null;
+		getTreeTaggerMatchers();
+		getDependencyLabelMatcher();
+	}
+
+	public boolean isZipOutput() {
+		Boolean zip = ((PepperModuleProperty<Boolean>) getProperty("output.zip")).getValue();
+		return zip != null && zip;
+	}
+
+	public int getZipCompression() {
+		Integer level = ((PepperModuleProperty<Integer>) getProperty("output.zip.compression")).getValue();
+		return level == null ? Deflater.DEFAULT_COMPRESSION : level;
+	}
+
+	public boolean isPrettyPrint() {
+		Boolean prettyPrint = ((PepperModuleProperty<Boolean>) getProperty("output.prettyPrint")).getValue();
+		return prettyPrint == null || prettyPrint;
+	}
+
+	public String getWriter() {
+		return ((PepperModuleProperty<String>) getProperty("output.writer")).getValue();
+	}
+
+	public boolean isSaltIds() {
+		Boolean saltIds = ((PepperModuleProperty<Boolean>) getProperty("output.saltIds")).getValue();
+		return saltIds != null && saltIds;
+	}
+
+	public boolean isKrillOutput() {
+		Boolean krill = ((PepperModuleProperty<Boolean>) getProperty("output.krill")).getValue();
+		return krill != null && krill;
+	}
+
+	public boolean isIncremental() {
+		Boolean incremental = ((PepperModuleProperty<Boolean>) getProperty("output.incremental")).getValue();
+		return incremental != null && incremental;
+	}
+
+	public int getSyncBatch() {
+		Integer batch = ((PepperModuleProperty<Integer>) getProperty("output.incremental.syncBatch")).getValue();
+		if (batch == null || batch <= 0) {
+			return ExportManifest.DEFAULT_SYNC_BATCH;
+		}
+		return batch;
+	}
+
+	public int getWriteBehindThreads() {
+		Integer threads = ((PepperModuleProperty<Integer>) getProperty("output.writeBehind.threads")).getValue();
+		return threads == null ? 0 : Math.max(0, threads);
+	}
+
+	public int getWriteBehindQueueDepth() {
+		Integer depth = ((PepperModuleProperty<Integer>) getProperty("output.writeBehind.queueDepth")).getValue();
+		if (depth == null || depth <= 0) {
+			return WriteBehindQueue.DEFAULT_QUEUE_DEPTH;
+		}
+		return depth;
+	}
+
+	public int getWriteBehindChunkSize() {
+		Integer size = ((PepperModuleProperty<Integer>) getProperty("output.writeBehind.chunkSize")).getValue();
+		if (size == null || size <= 0) {
+			return WriteBehindQueue.DEFAULT_CHUNK_SIZE;
+		}
+		return size;
+	}
+
+	public boolean isValidate() {
+		Boolean validate = ((PepperModuleProperty<Boolean>) getProperty("validate")).getValue();
+		return validate != null && validate;
+	}
+
+	public boolean isStatistics() {
+		Boolean statistics = ((PepperModuleProperty<Boolean>) getProperty("statistics")).getValue();
+		return statistics != null && statistics;
+	}
+
+	public boolean isStatisticsJfr() {
+		Boolean jfr = ((PepperModuleProperty<Boolean>) getProperty("statistics.jfr")).getValue();
+		return jfr != null && jfr;
+	}
+
+	/**
+	 * @return All property values that influence the content of the exported files.
+	 */
+	public String getOutputConfiguration() {
+		return String.join("\t", getBaseSentence(), getBaseParagraph(), getTreeTaggerLemma(), getTreeTaggerPOS(),
+				getDependencyFoundry(), getDependencyLabel(), getFoundryMappingRaw(), String.valueOf(isPrettyPrint()), getWriter(),
+				String.valueOf(isSaltIds()), String.valueOf(isKrillOutput()));
+	}
+
+	/**
+	 * @return The unparsed foundry mapping, see {@link FoundryPlan#compile(java.lang.String, org.corpus_tools.korapxmlmodules.foundries.FoundryRegistry) }.
+	 */
+	public String getFoundryMappingRaw() {
+		return ((PepperModuleProperty<String>) getProperty("foundryMapping")).getValue();
+	}
+
+	/**
+	 * @return The foundries for each layer name, empty if the mapping is invalid.
+	 * @deprecated Use {@link FoundryPlan#compile(java.lang.String, org.corpus_tools.korapxmlmodules.foundries.FoundryRegistry) }
+	 * with {@link #getFoundryMappingRaw() }, which reports an invalid mapping.
+	 */
+	@Deprecated
+	public Multimap<String, Foundry> getFoundryMapping() {
+		try {
+			return HashMultimap.create(FoundryPlan.compile(getFoundryMappingRaw(), new FoundryRegistry()).getMapping());
+		} catch (PepperModuleNotReadyException ex) {
+			log.warn("Invalid foundry mapping: {}", ex.getMessage());
+			return HashMultimap.create();
+		}
+	}
+
 }
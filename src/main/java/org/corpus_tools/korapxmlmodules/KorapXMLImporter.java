@@ -0,0 +1,352 @@
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.pepper.common.DOCUMENT_STATUS;
+import org.corpus_tools.pepper.common.PepperConfiguration;
+import org.corpus_tools.pepper.exceptions.PepperConvertException;
+import org.corpus_tools.pepper.impl.PepperImporterImpl;
+import org.corpus_tools.pepper.impl.PepperMapperImpl;
+import org.corpus_tools.pepper.modules.PepperImporter;
+import org.corpus_tools.pepper.modules.PepperMapper;
+import org.corpus_tools.pepper.modules.exceptions.PepperModuleException;
+import org.corpus_tools.salt.SaltFactory;
+import org.corpus_tools.salt.common.SCorpus;
+import org.corpus_tools.salt.common.SCorpusGraph;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SDominanceRelation;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.SSpanningRelation;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.SStructuredNode;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.STextualRelation;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.core.SNode;
+import org.corpus_tools.salt.graph.Identifier;
+import org.eclipse.emf.common.util.URI;
+import org.osgi.service.component.annotations.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports corpora in the directory layout written by the {@link KorapXMLExporter}.
+ *
+ * Each directory that contains text directories (with a "data.xml" file) is a document, all other directories are
+ * corpora.
+ *
+ * @author Thomas Krause
+ */
+//@formatter:off
+@Component(name = "KorapXMLImporterComponent", factory = "PepperImporterComponentFactory")
+//@formatter:on
+public class KorapXMLImporter extends PepperImporterImpl implements PepperImporter {
+
+	private final static Logger log = LoggerFactory.getLogger(KorapXMLImporter.class);
+
+	private final LongAdder importedTokens = new LongAdder();
+	private final LongAdder importNanos = new LongAdder();
+
+	public KorapXMLImporter() {
+		super();
+		setName("KorapXMLImporter");
+		setSupplierContact(URI.createURI(PepperConfiguration.EMAIL));
+		setSupplierHomepage(URI.createURI(PepperConfiguration.HOMEPAGE));
+		setDesc("The importer reads corpora in the KorapXML format as used by the Korap system "
+				+ "(see: http://github.org/korap/).");
+		addSupportedFormat("KorapXML", "1.0", null);
+
+		setProperties(new KorapXMLImporterProperties());
+	}
+
+	@Override
+	public PepperMapper createPepperMapper(Identifier Identifier) {
+		KorapXMLImportMapper mapper = new KorapXMLImportMapper();
+		mapper.setResourceURI(getIdentifier2ResourceTable().get(Identifier));
+		mapper.setThroughput(importedTokens, importNanos);
+		return (mapper);
+	}
+
+	@Override
+	public void importCorpusStructure(SCorpusGraph corpusGraph) throws PepperModuleException {
+		File root = new File(getCorpusDesc().getCorpusPath().toFileString());
+		if (!root.isDirectory()) {
+			throw new PepperModuleException("Corpus path " + root.getAbsolutePath() + " is not a directory");
+		}
+		if (isDocumentDirectory(root)) {
+			// documents need a parent corpus
+			SCorpus corpus = corpusGraph.createCorpus(null, root.getName());
+			importCorpus(corpusGraph, corpus, root);
+		} else {
+			for (File dir : listDirectories(root)) {
+				importCorpus(corpusGraph, null, dir);
+			}
+		}
+	}
+
+	private void importCorpus(SCorpusGraph corpusGraph, SCorpus parent, File dir) {
+		URI location = URI.createFileURI(dir.getAbsolutePath());
+		if (parent != null && isDocumentDirectory(dir)) {
+			SDocument doc = corpusGraph.createDocument(parent, dir.getName());
+			getIdentifier2ResourceTable().put(doc.getIdentifier(), location);
+		} else {
+			SCorpus corpus = corpusGraph.createCorpus(parent, dir.getName());
+			getIdentifier2ResourceTable().put(corpus.getIdentifier(), location);
+			for (File child : listDirectories(dir)) {
+				importCorpus(corpusGraph, corpus, child);
+			}
+		}
+	}
+
+	private static boolean isDocumentDirectory(File dir) {
+		for (File child : listDirectories(dir)) {
+			if (new File(child, "data.xml").isFile()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static File[] listDirectories(File dir) {
+		File[] result = dir.listFiles(File::isDirectory);
+		if (result == null) {
+			return new File[0];
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	@Override
+	public void end() throws PepperModuleException {
+		super.end();
+		long tokens = importedTokens.sum();
+		long nanos = importNanos.sum();
+		if (tokens > 0 && nanos > 0) {
+			log.info("Imported {} tokens in {} ms of mapping time ({} tokens/s)", tokens, TimeUnit.NANOSECONDS.toMillis(nanos),
+					tokens * TimeUnit.SECONDS.toNanos(1) / nanos);
+		}
+	}
+
+	@Override
+	public KorapXMLImporterProperties getProperties() {
+		return (KorapXMLImporterProperties) super.getProperties();
+	}
+
+	/**
+	 * Imports a single document directory.
+	 *
+	 * All files are read with a pull parser. Spans are attached to the tokens they cover by a binary search on the
+	 * sorted token offsets, only the layers listed in the "importLayers" property are read.
+	 */
+	public static class KorapXMLImportMapper extends PepperMapperImpl {
+
+		private LongAdder importedTokens = new LongAdder();
+		private LongAdder importNanos = new LongAdder();
+
+		/**
+		 * Sets the counters the number of imported tokens and the time needed are added to.
+		 *
+		 * @param importedTokens
+		 * @param importNanos
+		 */
+		public void setThroughput(LongAdder importedTokens, LongAdder importNanos) {
+			this.importedTokens = importedTokens;
+			this.importNanos = importNanos;
+		}
+
+		@Override
+		public DOCUMENT_STATUS mapSDocument() {
+			if (getDocument().getDocumentGraph() == null) {
+				getDocument().setDocumentGraph(SaltFactory.createSDocumentGraph());
+			}
+			SDocumentGraph graph = getDocument().getDocumentGraph();
+			File docDir = new File(getResourceURI().toFileString());
+
+			long startTime = System.nanoTime();
+			long tokens = 0;
+			for (File textDir : listDirectories(docDir)) {
+				File dataFile = new File(textDir, "data.xml");
+				if (dataFile.isFile()) {
+					try {
+						tokens += importText(graph, textDir);
+					} catch (IOException | XMLStreamException ex) {
+						throw new PepperConvertException("Could not import text " + textDir.getAbsolutePath(), ex);
+					}
+				}
+			}
+			long nanos = System.nanoTime() - startTime;
+
+			importedTokens.add(tokens);
+			importNanos.add(nanos);
+			if (nanos > 0) {
+				log.debug("Imported {} tokens of document {} ({} tokens/s)", tokens, getDocument().getId(),
+						tokens * TimeUnit.SECONDS.toNanos(1) / nanos);
+			}
+
+			addProgress(1.0);
+			return (DOCUMENT_STATUS.COMPLETED);
+		}
+
+		/**
+		 * @return The number of imported tokens.
+		 */
+		private int importText(SDocumentGraph graph, File textDir) throws IOException, XMLStreamException {
+			STextualDS text = SaltFactory.createSTextualDS();
+			text.setName(textDir.getName());
+			try (InputStream in = open(new File(textDir, "data.xml"));
+					KorapXMLReader reader = new KorapXMLReader(in)) {
+				text.setText(reader.readText());
+			}
+			graph.addNode(text);
+
+			File tokenFile = new File(textDir, "base/token.xml");
+			if (!tokenFile.isFile()) {
+				log.warn("No tokens for text {}", textDir.getAbsolutePath());
+				return 0;
+			}
+			TokenSequence tokens = importTokens(graph, text, tokenFile);
+
+			for (String layer : getProperties().getImportLayers()) {
+				File layerFile = new File(textDir, layer + ".xml");
+				if (layerFile.isFile()) {
+					importLayer(graph, tokens, layer, layerFile);
+				}
+			}
+			return tokens.size();
+		}
+
+		private TokenSequence importTokens(SDocumentGraph graph, STextualDS text, File tokenFile)
+				throws IOException, XMLStreamException {
+			TokenSequence.Builder tokens = new TokenSequence.Builder();
+			try (InputStream in = open(tokenFile);
+					KorapXMLReader reader = new KorapXMLReader(in)) {
+				while (reader.nextSpan()) {
+					SToken tok = SaltFactory.createSToken();
+					graph.addNode(tok);
+
+					STextualRelation textRel = SaltFactory.createSTextualRelation();
+					textRel.setSource(tok);
+					textRel.setTarget(text);
+					textRel.setStart(reader.getFrom());
+					textRel.setEnd(reader.getTo());
+					graph.addRelation(textRel);
+
+					tokens.add(tok, reader.getFrom(), reader.getTo(), reader.getId());
+				}
+			}
+			return tokens.build();
+		}
+
+		private void importLayer(SDocumentGraph graph, TokenSequence tokens, String layer, File layerFile)
+				throws IOException, XMLStreamException {
+			String layerName = layer.substring(layer.lastIndexOf('/') + 1);
+
+			// structures and the targets of their relations, resolved after the whole file has been read
+			Map<String, SStructure> structures = new HashMap<>();
+			List<SStructure> sources = new ArrayList<>();
+			List<String> targets = new ArrayList<>();
+
+			try (InputStream in = open(layerFile);
+					KorapXMLReader reader = new KorapXMLReader(in)) {
+				while (reader.nextSpan()) {
+					SStructuredNode node;
+					if ("morpho".equals(layerName)) {
+						// morphological annotations belong to the token itself
+						node = tokens.exact(reader.getFrom(), reader.getTo());
+						if (node == null) {
+							node = createSpan(graph, tokens, reader);
+						}
+					} else if ("constituency".equals(layerName)) {
+						SStructure struct = SaltFactory.createSStructure();
+						graph.addNode(struct);
+						if (reader.getId() != null) {
+							structures.put(reader.getId(), struct);
+						}
+						if (reader.getRelationTargets().isEmpty()) {
+							// no explicit children, dominate the covered tokens
+							for (SToken tok : tokens.covered(reader.getFrom(), reader.getTo())) {
+								dominate(graph, struct, tok);
+							}
+						} else {
+							for (String target : reader.getRelationTargets()) {
+								sources.add(struct);
+								targets.add(target);
+							}
+						}
+						node = struct;
+					} else {
+						node = createSpan(graph, tokens, reader);
+					}
+					if (node != null) {
+						annotate(node, reader.getFeatures());
+					}
+				}
+			}
+
+			for (int i = 0; i < sources.size(); i++) {
+				String target = targets.get(i);
+				int hash = target.indexOf('#');
+				SStructuredNode child = hash < 0 ? structures.get(target) : tokens.byId(target.substring(hash + 1));
+				if (child == null) {
+					log.warn("Unknown relation target {} in {}", target, layerFile.getAbsolutePath());
+				} else {
+					dominate(graph, sources.get(i), child);
+				}
+			}
+		}
+
+		private static SSpan createSpan(SDocumentGraph graph, TokenSequence tokens, KorapXMLReader reader) {
+			List<SToken> covered = tokens.covered(reader.getFrom(), reader.getTo());
+			if (covered.isEmpty()) {
+				log.warn("Span {} ({}-{}) does not cover any token", reader.getId(), reader.getFrom(), reader.getTo());
+				return null;
+			}
+			SSpan span = SaltFactory.createSSpan();
+			graph.addNode(span);
+			for (SToken tok : covered) {
+				SSpanningRelation rel = SaltFactory.createSSpanningRelation();
+				rel.setSource(span);
+				rel.setTarget(tok);
+				graph.addRelation(rel);
+			}
+			return span;
+		}
+
+		private static void dominate(SDocumentGraph graph, SStructure parent, SStructuredNode child) {
+			SDominanceRelation rel = SaltFactory.createSDominanceRelation();
+			rel.setSource(parent);
+			rel.setTarget(child);
+			graph.addRelation(rel);
+		}
+
+		private static void annotate(SNode node, List<KorapXMLReader.Feature> features) {
+			for (KorapXMLReader.Feature f : features) {
+				// the same annotation can be part of several layers, e.g. the part of speech
+				if (node.getAnnotation(f.namespace, f.name) == null) {
+					node.createAnnotation(f.namespace, f.name, f.value);
+				}
+			}
+		}
+
+		private static InputStream open(File file) throws IOException {
+			return new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		}
+
+		@Override
+		public KorapXMLImporterProperties getProperties() {
+			return (KorapXMLImporterProperties) super.getProperties();
+		}
+	}
+}
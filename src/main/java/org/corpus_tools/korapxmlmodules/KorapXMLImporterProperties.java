@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import com.google.common.base.Splitter;
+import java.util.List;
+import org.corpus_tools.pepper.modules.PepperModuleProperties;
+import org.corpus_tools.pepper.modules.PepperModuleProperty;
+
+/**
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class KorapXMLImporterProperties extends PepperModuleProperties {
+
+	public static final String DEFAULT_LAYERS
+			= "base/sentences,base/paragraph,tree_tagger/morpho,corenlp/morpho,corenlp/constituency";
+
+	public KorapXMLImporterProperties() {
+		KorapXMLImporterProperties.this.addProperty(new PepperModuleProperty<>(
+				"importLayers", String.class,
+				"Comma separated list of the layer files (relative to the text directory and without the \".xml\" "
+				+ "ending) that are imported in addition to the text and the tokens. Files of other layers are not read.",
+				DEFAULT_LAYERS));
+	}
+
+	public List<String> getImportLayers() {
+		String layers = ((PepperModuleProperty<String>) getProperty("importLayers")).getValue();
+		return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(layers == null ? "" : layers);
+	}
+
+}
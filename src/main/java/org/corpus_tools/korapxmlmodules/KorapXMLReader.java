@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a single KorapXML file with a pull parser.
+ *
+ * Span lists are read one span at a time with {@link #nextSpan() }, the current span is overwritten by the next one, so
+ * the memory needed does not depend on the size of the file.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class KorapXMLReader implements AutoCloseable {
+
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+
+	static {
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * An annotation of a span. The namespace is the type of the enclosing feature structure.
+	 */
+	public static class Feature {
+
+		public final String namespace;
+		public final String name;
+		public final String value;
+
+		public Feature(String namespace, String name, String value) {
+			this.namespace = namespace;
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	private final XMLStreamReader xml;
+
+	private String docId;
+
+	private String id;
+	private int from;
+	private int to;
+	private final List<Feature> features = new ArrayList<>();
+	private final List<String> relationTargets = new ArrayList<>();
+
+	public KorapXMLReader(InputStream in) throws XMLStreamException {
+		this.xml = inputFactory.createXMLStreamReader(in, "UTF-8");
+	}
+
+	/**
+	 * Reads the content of the "text" element of a "data.xml" file.
+	 *
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	public String readText() throws XMLStreamException {
+		while (xml.hasNext()) {
+			if (xml.next() == XMLStreamConstants.START_ELEMENT) {
+				if ("raw_text".equals(xml.getLocalName())) {
+					docId = xml.getAttributeValue(null, "docid");
+				} else if ("text".equals(xml.getLocalName())) {
+					return xml.getElementText();
+				}
+			}
+		}
+		throw new XMLStreamException("No \"text\" element found");
+	}
+
+	/**
+	 * Advances to the next span of the span list.
+	 *
+	 * @return False if there are no more spans.
+	 * @throws XMLStreamException
+	 */
+	public boolean nextSpan() throws XMLStreamException {
+		while (xml.hasNext()) {
+			if (xml.next() == XMLStreamConstants.START_ELEMENT) {
+				String name = xml.getLocalName();
+				if ("span".equals(name)) {
+					readSpan();
+					return true;
+				} else if ("layer".equals(name)) {
+					docId = xml.getAttributeValue(null, "docid");
+				}
+			}
+		}
+		return false;
+	}
+
+	private void readSpan() throws XMLStreamException {
+		id = xml.getAttributeValue(null, "id");
+		from = parseOffset("from");
+		to = parseOffset("to");
+		features.clear();
+		relationTargets.clear();
+
+		// the types of the open feature structures
+		List<String> types = new ArrayList<>();
+		int depth = 1;
+		while (depth > 0) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = xml.getLocalName();
+				if ("fs".equals(name)) {
+					types.add(xml.getAttributeValue(null, "type"));
+					depth++;
+				} else if ("f".equals(name)) {
+					readFeature(types.isEmpty() ? null : types.get(types.size() - 1));
+				} else if ("rel".equals(name)) {
+					String target = xml.getAttributeValue(null, "target");
+					if (target != null) {
+						relationTargets.add(target);
+					}
+					depth++;
+				} else {
+					depth++;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				if ("fs".equals(xml.getLocalName())) {
+					types.remove(types.size() - 1);
+				}
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Reads an "f" element, which either contains the value of an annotation or wraps other feature structures.
+	 */
+	private void readFeature(String namespace) throws XMLStreamException {
+		String name = xml.getAttributeValue(null, "name");
+		StringBuilder value = new StringBuilder();
+		List<String> types = new ArrayList<>();
+		boolean leaf = true;
+		int depth = 1;
+		while (depth > 0) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				leaf = false;
+				if ("fs".equals(xml.getLocalName())) {
+					types.add(xml.getAttributeValue(null, "type"));
+				} else if ("f".equals(xml.getLocalName())) {
+					readFeature(types.isEmpty() ? namespace : types.get(types.size() - 1));
+					depth--;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				if ("fs".equals(xml.getLocalName())) {
+					types.remove(types.size() - 1);
+				}
+				depth--;
+			} else if (leaf && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+				value.append(xml.getText());
+			}
+		}
+		if (leaf && name != null) {
+			features.add(new Feature(namespace == null || namespace.isEmpty() ? null : namespace, name,
+					value.toString()));
+		}
+	}
+
+	private int parseOffset(String attribute) throws XMLStreamException {
+		String value = xml.getAttributeValue(null, attribute);
+		if (value == null) {
+			throw new XMLStreamException("Span without \"" + attribute + "\" attribute", xml.getLocation());
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException ex) {
+			throw new XMLStreamException("Invalid offset \"" + value + "\"", xml.getLocation(), ex);
+		}
+	}
+
+	public String getDocId() {
+		return docId;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getFrom() {
+		return from;
+	}
+
+	public int getTo() {
+		return to;
+	}
+
+	/**
+	 * @return The annotations of the current span, only valid until the next call to {@link #nextSpan() }.
+	 */
+	public List<Feature> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @return The targets of all relations of the current span, only valid until the next call to
+	 * {@link #nextSpan() }.
+	 */
+	public List<String> getRelationTargets() {
+		return relationTargets;
+	}
+
+	/**
+	 * Closes the parser, the underlying stream is not closed.
+	 *
+	 * @throws XMLStreamException
+	 */
+	@Override
+	public void close() throws XMLStreamException {
+		xml.close();
+	}
+}
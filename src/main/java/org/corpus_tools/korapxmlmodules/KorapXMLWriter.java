@@ -0,0 +1,367 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A {@link LayerWriter} that writes UTF-8 encoded KorapXML directly into a byte buffer.
+ *
+ * KorapXML files only use a single default namespace, which is declared on the root element, so no namespace
+ * handling is necessary. Strings are encoded without creating intermediate byte arrays and are only escaped if they
+ * contain one of the XML special characters. Short attribute values and texts are copied from the
+ * {@link EncodedStringCache}, except for the identifiers in the "id", "docid" and "target" attributes.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class KorapXMLWriter extends LayerWriter {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final byte[] XML_DECLARATION
+			= "<?xml version=\"1.0\" encoding=\"UTF-8\"?>".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * A newline followed by {@link #MAX_DEPTH} tabs, indentation is a prefix of this array.
+	 */
+	private static final byte[] INDENTATION = new byte[MAX_DEPTH + 1];
+
+	static {
+		Arrays.fill(INDENTATION, (byte) '\t');
+		INDENTATION[0] = '\n';
+	}
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int pos = 0;
+
+	private String defaultNamespace;
+	private boolean namespaceDeclared = false;
+
+	private String[] openElements = new String[MAX_DEPTH];
+	private int depth = 0;
+	private boolean startTagOpen = false;
+
+	public KorapXMLWriter(OutputStream out, boolean prettyPrint) {
+		super(prettyPrint);
+		this.out = out;
+	}
+
+	@Override
+	public void writeStartDocument() throws XMLStreamException {
+		writeRaw(XML_DECLARATION);
+	}
+
+	@Override
+	public void setDefaultNamespace(String uri) throws XMLStreamException {
+		this.defaultNamespace = uri;
+	}
+
+	@Override
+	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+		closeStartTag();
+		if (depth == openElements.length) {
+			openElements = Arrays.copyOf(openElements, depth * 2);
+		}
+		openElements[depth++] = localName;
+
+		ensure(1);
+		buffer[pos++] = '<';
+		writeName(localName);
+		startTagOpen = true;
+
+		if (!namespaceDeclared) {
+			String ns = namespaceURI == null ? defaultNamespace : namespaceURI;
+			if (ns != null) {
+				writeAttribute("xmlns", ns);
+			}
+			namespaceDeclared = true;
+		}
+	}
+
+	@Override
+	public void writeAttribute(String localName, String value) throws XMLStreamException {
+		ensure(1);
+		buffer[pos++] = ' ';
+		writeName(localName);
+		ensure(2);
+		buffer[pos++] = '=';
+		buffer[pos++] = '"';
+		if (isIdentifier(localName)) {
+			// unique values are not worth caching
+			writeEscaped(value, true);
+		} else {
+			writeCached(value, EncodedStringCache.ATTRIBUTES, true);
+		}
+		ensure(1);
+		buffer[pos++] = '"';
+	}
+
+	private static boolean isIdentifier(String localName) {
+		switch (localName) {
+			case "id":
+			case "docid":
+			case "target":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	@Override
+	public void writeAttribute(String localName, int value) throws XMLStreamException {
+		ensure(1);
+		buffer[pos++] = ' ';
+		writeName(localName);
+		// an int has at most 11 characters
+		ensure(14);
+		buffer[pos++] = '=';
+		buffer[pos++] = '"';
+		writeInt(value);
+		buffer[pos++] = '"';
+	}
+
+	@Override
+	public void writeCharacters(String text) throws XMLStreamException {
+		closeStartTag();
+		writeCached(text, EncodedStringCache.CHARACTERS, false);
+	}
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+		if (depth == 0) {
+			throw new XMLStreamException("No open element to close");
+		}
+		String localName = openElements[--depth];
+		openElements[depth] = null;
+		// empty elements are written with an end tag like the StAX writer does
+		closeStartTag();
+		ensure(2);
+		buffer[pos++] = '<';
+		buffer[pos++] = '/';
+		writeName(localName);
+		ensure(1);
+		buffer[pos++] = '>';
+	}
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		while (depth > 0) {
+			writeEndElement();
+		}
+	}
+
+	@Override
+	public void indent(int depth) throws XMLStreamException {
+		if (isPrettyPrint()) {
+			closeStartTag();
+			int length = Math.min(depth, MAX_DEPTH) + 1;
+			ensure(length);
+			System.arraycopy(INDENTATION, 0, buffer, pos, length);
+			pos += length;
+		}
+	}
+
+	@Override
+	public void flush() throws XMLStreamException {
+		flushBuffer();
+		try {
+			out.flush();
+		} catch (IOException ex) {
+			throw new XMLStreamException(ex);
+		}
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		flush();
+	}
+
+	private void closeStartTag() throws XMLStreamException {
+		if (startTagOpen) {
+			ensure(1);
+			buffer[pos++] = '>';
+			startTagOpen = false;
+		}
+	}
+
+	/**
+	 * Element and attribute names are known to be plain ASCII.
+	 */
+	private void writeName(String name) throws XMLStreamException {
+		int length = name.length();
+		ensure(length);
+		for (int i = 0; i < length; i++) {
+			buffer[pos++] = (byte) name.charAt(i);
+		}
+	}
+
+	private void writeInt(int value) {
+		if (value == Integer.MIN_VALUE) {
+			for (char c : Integer.toString(value).toCharArray()) {
+				buffer[pos++] = (byte) c;
+			}
+			return;
+		}
+		if (value < 0) {
+			buffer[pos++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (int v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			buffer[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		pos += digits;
+	}
+
+	private static boolean needsEscaping(String s, boolean attribute) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '<' || c == '>' || c == '&' || (attribute && c == '"')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void writeCached(String s, EncodedStringCache cache, boolean attribute) throws XMLStreamException {
+		if (s == null) {
+			return;
+		}
+		byte[] encoded = cache.get(s);
+		if (encoded != null) {
+			writeRaw(encoded);
+		} else {
+			writeEscaped(s, attribute);
+		}
+	}
+
+	private void writeEscaped(String s, boolean attribute) throws XMLStreamException {
+		if (s == null) {
+			return;
+		}
+		int length = s.length();
+		if (!needsEscaping(s, attribute)) {
+			// fast path: only encode the characters
+			for (int i = 0; i < length; i++) {
+				i = writeChar(s, i);
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				char c = s.charAt(i);
+				switch (c) {
+					case '<':
+						writeAscii("&lt;");
+						break;
+					case '>':
+						writeAscii("&gt;");
+						break;
+					case '&':
+						writeAscii("&amp;");
+						break;
+					case '"':
+						if (attribute) {
+							writeAscii("&quot;");
+						} else {
+							writeChar(s, i);
+						}
+						break;
+					default:
+						i = writeChar(s, i);
+				}
+			}
+		}
+	}
+
+	private void writeAscii(String s) throws XMLStreamException {
+		ensure(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			buffer[pos++] = (byte) s.charAt(i);
+		}
+	}
+
+	/**
+	 * Writes the UTF-8 encoding of the character at position i.
+	 *
+	 * @return The position of the last character that was consumed (i + 1 for surrogate pairs).
+	 */
+	private int writeChar(String s, int i) throws XMLStreamException {
+		char c = s.charAt(i);
+		ensure(4);
+		if (c < 0x80) {
+			buffer[pos++] = (byte) c;
+		} else if (c < 0x800) {
+			buffer[pos++] = (byte) (0xC0 | (c >> 6));
+			buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+				&& Character.isLowSurrogate(s.charAt(i + 1))) {
+			int cp = Character.toCodePoint(c, s.charAt(i + 1));
+			buffer[pos++] = (byte) (0xF0 | (cp >> 18));
+			buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+			buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			buffer[pos++] = (byte) (0x80 | (cp & 0x3F));
+			return i + 1;
+		} else if (Character.isSurrogate(c)) {
+			// unpaired surrogate, write a replacement character like the JDK encoder
+			buffer[pos++] = '?';
+		} else {
+			buffer[pos++] = (byte) (0xE0 | (c >> 12));
+			buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+		}
+		return i;
+	}
+
+	private void writeRaw(byte[] bytes) throws XMLStreamException {
+		if (bytes.length > buffer.length) {
+			flushBuffer();
+			try {
+				out.write(bytes);
+			} catch (IOException ex) {
+				throw new XMLStreamException(ex);
+			}
+		} else {
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+			pos += bytes.length;
+		}
+	}
+
+	private void ensure(int bytes) throws XMLStreamException {
+		if (pos + bytes > buffer.length) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws XMLStreamException {
+		if (pos > 0) {
+			try {
+				out.write(buffer, 0, pos);
+			} catch (IOException ex) {
+				throw new XMLStreamException(ex);
+			}
+			pos = 0;
+		}
+	}
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.salt.common.SDocument;
+
+/**
+ * Collects the term stream of a single text and writes it as a Krill JSON document.
+ *
+ * The surface terms are created from the {@link TokenTable}. The span layers add their terms while they are written
+ * (see {@link #of(org.corpus_tools.korapxmlmodules.LayerOutput) }), the annotations are captured from the same
+ * feature structures which are written to the KorapXML files. So the JSON document is created together with the
+ * layer files and the XML does not need to be parsed again.
+ *
+ * Each layer collects its terms separately, sorted by their token position. This way the layers of a text can be
+ * written concurrently and the JSON document does not depend on the order in which the layers were finished.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class KrillText implements LayerOutput, LayerRecorder {
+
+	public static final String FILE = "krill.json";
+
+	/**
+	 * Marks the span terms in the payload, see the Krill indexer.
+	 */
+	private static final String SPAN_PAYLOAD = "$<b>64";
+
+	private final LayerOutput output;
+	private final TokenTable tokens;
+	private final SDocument document;
+
+	/**
+	 * The finished layers by their path, e.g. "base/sentences".
+	 */
+	private final Map<String, Layer> layers = new TreeMap<>();
+
+	/**
+	 * @param output The output of the text the KorapXML layers and the JSON document are written to.
+	 * @param tokens
+	 * @param document The document of the text, the sigles are created from it.
+	 */
+	public KrillText(LayerOutput output, TokenTable tokens, SDocument document) {
+		this.output = output;
+		this.tokens = tokens;
+		this.document = document;
+	}
+
+	/**
+	 * @param output The output a layer is written to.
+	 * @return The Krill document of the output or null if no Krill document is created.
+	 */
+	public static KrillText of(LayerOutput output) {
+		return output instanceof KrillText ? (KrillText) output : null;
+	}
+
+	@Override
+	public OutputStream open(String path) throws IOException {
+		return output.open(path);
+	}
+
+	@Override
+	public void span() {
+		LayerRecorder.of(output).span();
+	}
+
+	@Override
+	public void warning() {
+		LayerRecorder.of(output).warning();
+	}
+
+	/**
+	 * @param foundry
+	 * @param name
+	 * @return A new layer, it is added to the document when it is closed.
+	 */
+	public Layer createLayer(String foundry, String name) {
+		return new Layer(foundry, name);
+	}
+
+	/**
+	 * @param foundry
+	 * @return The prefix used by Krill for the foundry.
+	 */
+	static String prefix(String foundry) {
+		return "tree_tagger".equals(foundry) ? "tt" : foundry;
+	}
+
+	/**
+	 * @param name The name of an annotation.
+	 * @return The key used by Krill for the annotation, e.g. "p" for "pos".
+	 */
+	static String key(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		switch (lower) {
+			case "pos":
+				return "p";
+			case "lemma":
+				return "l";
+			case "cat":
+				return "c";
+			case "msd":
+				return "m";
+			default:
+				return lower;
+		}
+	}
+
+	/**
+	 * @param offset
+	 * @return The position of the first token that starts at or after the offset.
+	 */
+	private int firstPosition(int offset) {
+		int lo = 0;
+		int hi = tokens.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (tokens.getStart(mid) < offset) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Writes the JSON document to {@link #FILE}.
+	 *
+	 * @throws IOException
+	 */
+	public void write() throws IOException {
+		List<Layer> finished;
+		synchronized (layers) {
+			finished = new ArrayList<>(layers.values());
+		}
+
+		Set<String> foundries = new TreeSet<>();
+		Set<String> layerInfos = new TreeSet<>();
+		foundries.add("base");
+		for (Layer layer : finished) {
+			foundries.add(layer.foundry);
+			foundries.add(layer.foundry + "/" + layer.name);
+			layerInfos.addAll(layer.infos);
+		}
+
+		String text = tokens.getText().getText();
+
+		try {
+			output.write(FILE, stream -> {
+				Writer json = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+				json.write("{\"corpusSigle\":");
+				string(json, DocumentIds.getCorpusSigle(document));
+				json.write(",\"docSigle\":");
+				string(json, DocumentIds.getDocumentSigle(document));
+				json.write(",\"textSigle\":");
+				string(json, DocumentIds.getTextSigle(document, tokens.getText()));
+				json.write(",\"data\":{\"text\":");
+				string(json, text == null ? "" : text);
+				json.write(",\"name\":\"tokens\",\"tokenSource\":\"base#tokens\",\"foundries\":");
+				string(json, String.join(" ", foundries));
+				json.write(",\"layerInfos\":");
+				string(json, String.join(" ", layerInfos));
+				json.write(",\"stream\":[");
+
+				// the terms of all layers are sorted by position, so they are merged with one cursor per layer
+				int[] cursor = new int[finished.size()];
+				for (int pos = 0; pos < tokens.size(); pos++) {
+					if (pos > 0) {
+						json.write(',');
+					}
+					json.write('[');
+					if (pos == 0) {
+						string(json, "-:tokens$<i>" + tokens.size());
+						json.write(',');
+					}
+					int start = tokens.getStart(pos);
+					int end = tokens.getEnd(pos);
+					string(json, "_" + pos + "$<i>" + start + "<i>" + end);
+					String surface = text == null ? "" : text.substring(start, end);
+					json.write(',');
+					string(json, "i:" + surface.toLowerCase(Locale.ROOT));
+					json.write(',');
+					string(json, "s:" + surface);
+
+					for (int l = 0; l < cursor.length; l++) {
+						Layer layer = finished.get(l);
+						while (cursor[l] < layer.size && layer.positions[cursor[l]] == pos) {
+							json.write(',');
+							string(json, layer.terms[cursor[l]]);
+							cursor[l]++;
+						}
+					}
+					json.write(']');
+				}
+				json.write("]}}");
+				json.flush();
+			});
+		} catch (XMLStreamException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	private static void string(Writer json, String value) throws IOException {
+		json.write('"');
+		int last = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\' || c < 0x20) {
+				json.write(value, last, i - last);
+				switch (c) {
+					case '"':
+						json.write("\\\"");
+						break;
+					case '\\':
+						json.write("\\\\");
+						break;
+					case '\n':
+						json.write("\\n");
+						break;
+					case '\r':
+						json.write("\\r");
+						break;
+					case '\t':
+						json.write("\\t");
+						break;
+					default:
+						json.write(String.format("\\u%04x", (int) c));
+				}
+				last = i + 1;
+			}
+		}
+		json.write(value, last, value.length() - last);
+		json.write('"');
+	}
+
+	/**
+	 * The terms of a single span layer. The spans must be added in the order of their start offset.
+	 */
+	public class Layer implements AutoCloseable {
+
+		private final String foundry;
+		private final String name;
+		private final String prefix;
+		private final Set<String> infos = new TreeSet<>();
+
+		private int[] positions = new int[64];
+		private String[] terms = new String[64];
+		private int size = 0;
+
+		private final FeatureWriter features = new FeatureWriter();
+		private boolean token;
+		private int spanPosition;
+		private String spanPayload;
+
+		private Layer(String foundry, String name) {
+			this.foundry = foundry;
+			this.name = name;
+			this.prefix = prefix(foundry);
+		}
+
+		/**
+		 * Starts a new span, its annotations are written to {@link #features() } and the terms are created by
+		 * {@link #endSpan() }.
+		 *
+		 * @param start
+		 * @param end
+		 * @param token True if the span is a single token, its annotations are added to the token position.
+		 */
+		public void beginSpan(int start, int end, boolean token) {
+			this.token = token;
+			this.spanPosition = firstPosition(start);
+			this.spanPayload = SPAN_PAYLOAD + "<i>" + start + "<i>" + end + "<i>" + firstPosition(end);
+			features.clear();
+		}
+
+		/**
+		 * @return A writer that captures the features of the current span.
+		 */
+		public LayerWriter features() {
+			return features;
+		}
+
+		public void endSpan() {
+			if (spanPosition >= tokens.size()) {
+				return;
+			}
+			int first = size;
+			if (token) {
+				for (int i = 0; i < features.size; i++) {
+					String key = key(features.names[i]);
+					add(first, prefix + "/" + key + ":" + features.values[i]);
+					infos.add(prefix + "/" + key + "=tokens");
+				}
+			} else if (features.size == 0 || "base".equals(foundry)) {
+				// structural spans like sentences ("s") and paragraphs ("p") are named after their layer, the elements
+				// of the structure layer have their own name
+				String key = features.get("name");
+				if (key == null) {
+					key = name.isEmpty() ? "s" : name.substring(0, 1);
+				}
+				add(first, "<>:" + prefix + "/s:" + key + spanPayload);
+				infos.add(prefix + "/s=spans");
+			} else {
+				for (int i = 0; i < features.size; i++) {
+					String key = key(features.names[i]);
+					add(first, "<>:" + prefix + "/" + key + ":" + features.values[i] + spanPayload);
+					infos.add(prefix + "/" + key + "=spans");
+				}
+			}
+		}
+
+		private void add(int firstOfSpan, String term) {
+			// the same annotation can be given in several namespaces
+			for (int i = firstOfSpan; i < size; i++) {
+				if (terms[i].equals(term)) {
+					return;
+				}
+			}
+			if (size == terms.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+				terms = Arrays.copyOf(terms, size * 2);
+			}
+			positions[size] = spanPosition;
+			terms[size] = term;
+			size++;
+		}
+
+		/**
+		 * Adds the layer to the document.
+		 */
+		@Override
+		public void close() {
+			synchronized (layers) {
+				layers.put(foundry + "/" + name, this);
+			}
+		}
+	}
+
+	/**
+	 * Captures the name and value of each "f" element with text content, the nesting of the feature structures is
+	 * ignored.
+	 */
+	private static class FeatureWriter extends LayerWriter {
+
+		private String[] names = new String[8];
+		private String[] values = new String[8];
+		private int size = 0;
+
+		private boolean inFeature = false;
+		private String name;
+		private StringBuilder value = new StringBuilder();
+
+		FeatureWriter() {
+			super(false);
+		}
+
+		/**
+		 * @param featureName
+		 * @return The value of the first captured feature with the name or null.
+		 */
+		String get(String featureName) {
+			for (int i = 0; i < size; i++) {
+				if (names[i].equals(featureName)) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+
+		void clear() {
+			size = 0;
+			inFeature = false;
+		}
+
+		@Override
+		public void writeStartDocument() throws XMLStreamException {
+		}
+
+		@Override
+		public void setDefaultNamespace(String uri) throws XMLStreamException {
+		}
+
+		@Override
+		public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+			inFeature = "f".equals(localName);
+			value.setLength(0);
+			name = null;
+		}
+
+		@Override
+		public void writeAttribute(String localName, String value) throws XMLStreamException {
+			if (inFeature && "name".equals(localName)) {
+				name = value;
+			}
+		}
+
+		@Override
+		public void writeAttribute(String localName, int value) throws XMLStreamException {
+		}
+
+		@Override
+		public void writeCharacters(String text) throws XMLStreamException {
+			if (inFeature && text != null) {
+				value.append(text);
+			}
+		}
+
+		@Override
+		public void writeEndElement() throws XMLStreamException {
+			// features that wrap another feature structure have no text
+			if (inFeature && name != null && value.length() > 0) {
+				if (size == names.length) {
+					names = Arrays.copyOf(names, size * 2);
+					values = Arrays.copyOf(values, size * 2);
+				}
+				names[size] = name;
+				values[size] = value.toString();
+				size++;
+			}
+			inFeature = false;
+		}
+
+		@Override
+		public void writeEndDocument() throws XMLStreamException {
+		}
+
+		@Override
+		public void indent(int depth) throws XMLStreamException {
+		}
+
+		@Override
+		public void flush() throws XMLStreamException {
+		}
+
+		@Override
+		public void close() throws XMLStreamException {
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.corpus_tools.pepper.exceptions.PepperConvertException;
+
+/**
+ * Writes the independent layer files of the documents concurrently.
+ *
+ * The exporter owns a single instance which is shared by all mappers. Its thread pool has a fixed size and is not
+ * the common fork-join pool, so it does not compete with the mapper threads of Pepper. The number of documents that
+ * can have layer tasks queued at the same time is limited as well, additional mappers block in
+ * {@link #beginDocument() } until another document is finished.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class LayerExecutor {
+
+	private final ExecutorService executor;
+	private final Semaphore documents;
+
+	/**
+	 * Creates an executor that runs all tasks directly in the calling thread.
+	 */
+	public LayerExecutor() {
+		this.executor = null;
+		this.documents = new Semaphore(Integer.MAX_VALUE);
+	}
+
+	public LayerExecutor(int threads, int maxDocuments) {
+		AtomicInteger threadCounter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "korapxml-layer-" + threadCounter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.documents = new Semaphore(maxDocuments, true);
+	}
+
+	/**
+	 * Blocks until the document is allowed to submit its layers.
+	 */
+	public void beginDocument() {
+		documents.acquireUninterruptibly();
+	}
+
+	public void endDocument() {
+		documents.release();
+	}
+
+	/**
+	 * Creates a new group of tasks which belong to a single document.
+	 *
+	 * @return
+	 */
+	public Tasks tasks() {
+		return new Tasks();
+	}
+
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * A group of layer tasks that can be waited for together.
+	 */
+	public class Tasks {
+
+		private final List<Future<?>> futures = new ArrayList<>();
+
+		public void submit(Runnable task) {
+			if (executor == null) {
+				FutureTask<?> f = new FutureTask<>(task, null);
+				f.run();
+				futures.add(f);
+			} else {
+				futures.add(executor.submit(task));
+			}
+		}
+
+		/**
+		 * Waits until all submitted tasks are finished.
+		 *
+		 * @throws PepperConvertException If one of the tasks failed.
+		 */
+		public void await() {
+			PepperConvertException failure = null;
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					failure = new PepperConvertException("Interrupted while waiting for the layers to be written", ex);
+				} catch (ExecutionException ex) {
+					if (failure == null) {
+						failure = new PepperConvertException("Could not write layer: " + ex.getCause().getMessage(),
+								ex.getCause());
+					}
+				}
+			}
+			futures.clear();
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The destination of all layer files of a single text.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public interface LayerOutput {
+
+	/**
+	 * Opens a layer file for writing. The file is complete once the returned stream is closed.
+	 *
+	 * @param path The path of the file relative to the text, e.g. "base/token.xml".
+	 * @return
+	 * @throws IOException
+	 */
+	public OutputStream open(String path) throws IOException;
+
+	/**
+	 * Writes a complete layer file. If the content can't be written, the file is discarded instead of leaving a
+	 * truncated file behind.
+	 *
+	 * @param path The path of the file relative to the text, e.g. "base/token.xml".
+	 * @param content Writes the content to the stream, it must not close the stream.
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public default void write(String path, Content content) throws IOException, XMLStreamException {
+		OutputStream stream = open(path);
+		try {
+			content.write(stream);
+		} catch (IOException | XMLStreamException | RuntimeException ex) {
+			discard(stream);
+			throw ex;
+		}
+		stream.close();
+	}
+
+	/**
+	 * Closes a layer stream whose content is incomplete, an existing file of the same path is not replaced.
+	 *
+	 * @param stream A stream returned by {@link #open(java.lang.String) }.
+	 */
+	public static void discard(OutputStream stream) {
+		if (stream instanceof Discardable) {
+			((Discardable) stream).discard();
+		} else {
+			try {
+				stream.close();
+			} catch (IOException ex) {
+				// the content is dropped anyway
+			}
+		}
+	}
+
+	@FunctionalInterface
+	public interface Content {
+
+		void write(OutputStream stream) throws IOException, XMLStreamException;
+	}
+
+	/**
+	 * A layer stream that only publishes its file when it is closed and can be closed without publishing it.
+	 */
+	public interface Discardable {
+
+		/**
+		 * Closes the stream and drops its content.
+		 */
+		void discard();
+	}
+}
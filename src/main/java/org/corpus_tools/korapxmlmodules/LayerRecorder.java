@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+/**
+ * Counts the spans and warnings of a layer for the {@link ExportStatistics}.
+ *
+ * Use {@link #of(java.lang.Object) } with the stream or output of the layer, if the statistics are disabled the
+ * returned recorder does nothing.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public interface LayerRecorder {
+
+	LayerRecorder NONE = new LayerRecorder() {
+		@Override
+		public void span() {
+		}
+
+		@Override
+		public void warning() {
+		}
+	};
+
+	void span();
+
+	void warning();
+
+	/**
+	 * @param streamOrOutput A layer stream or a {@link LayerOutput}.
+	 * @return The recorder of the stream or output, {@link #NONE} if it is not instrumented.
+	 */
+	static LayerRecorder of(Object streamOrOutput) {
+		return streamOrOutput instanceof LayerRecorder ? (LayerRecorder) streamOrOutput : NONE;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.OutputStream;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Writes a single KorapXML file.
+ *
+ * Use {@link #create(java.io.OutputStream, org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties) } to get the
+ * implementation selected by the "output.writer" property. Indentation is only written if pretty-printing is enabled.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public abstract class LayerWriter {
+
+	public static final String WRITER_KORAP = "korap";
+	public static final String WRITER_STAX = "stax";
+
+	protected static final int MAX_DEPTH = 16;
+
+	private final boolean prettyPrint;
+
+	protected LayerWriter(boolean prettyPrint) {
+		this.prettyPrint = prettyPrint;
+	}
+
+	/**
+	 * @param out
+	 * @param props
+	 * @return The writer selected by the properties, it validates the content if the stream belongs to a validated
+	 * output (see {@link ExportValidation}).
+	 * @throws XMLStreamException
+	 */
+	public static LayerWriter create(OutputStream out, KorapXMLExporterProperties props) throws XMLStreamException {
+		LayerWriter writer;
+		if (WRITER_STAX.equals(props.getWriter())) {
+			writer = new StaxLayerWriter(out, props.isPrettyPrint());
+		} else {
+			writer = new KorapXMLWriter(out, props.isPrettyPrint());
+		}
+		return ExportValidation.wrap(out, writer);
+	}
+
+	public boolean isPrettyPrint() {
+		return prettyPrint;
+	}
+
+	public abstract void writeStartDocument() throws XMLStreamException;
+
+	public abstract void setDefaultNamespace(String uri) throws XMLStreamException;
+
+	/**
+	 * @param namespaceURI The namespace of the element or null for elements without namespace, e.g. in headers.
+	 * @param localName
+	 * @throws XMLStreamException
+	 */
+	public abstract void writeStartElement(String namespaceURI, String localName) throws XMLStreamException;
+
+	public abstract void writeAttribute(String localName, String value) throws XMLStreamException;
+
+	public abstract void writeAttribute(String localName, int value) throws XMLStreamException;
+
+	public abstract void writeCharacters(String text) throws XMLStreamException;
+
+	public abstract void writeEndElement() throws XMLStreamException;
+
+	public abstract void writeEndDocument() throws XMLStreamException;
+
+	/**
+	 * Starts a new line with the given depth, does nothing if pretty-printing is disabled.
+	 *
+	 * @param depth
+	 * @throws XMLStreamException
+	 */
+	public abstract void indent(int depth) throws XMLStreamException;
+
+	public abstract void flush() throws XMLStreamException;
+
+	/**
+	 * Flushes all content, the underlying stream is not closed.
+	 *
+	 * @throws XMLStreamException
+	 */
+	public abstract void close() throws XMLStreamException;
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.core.SAnnotation;
+import org.corpus_tools.salt.core.SNode;
+
+/**
+ * The tokens, spans and structures of one text and one layer, see {@link DocumentNodeView}.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class NodeSelection {
+
+	private final Typed<SToken> tokens = new Typed<>();
+	private final Typed<SSpan> spans = new Typed<>();
+	private final Typed<SStructure> structures = new Typed<>();
+
+	void add(SNode node) {
+		if (node instanceof SToken) {
+			tokens.add((SToken) node);
+		} else if (node instanceof SSpan) {
+			spans.add((SSpan) node);
+		} else if (node instanceof SStructure) {
+			structures.add((SStructure) node);
+		}
+	}
+
+	public Typed<SToken> getTokens() {
+		return tokens;
+	}
+
+	public Typed<SSpan> getSpans() {
+		return spans;
+	}
+
+	public Typed<SStructure> getStructures() {
+		return structures;
+	}
+
+	public boolean isEmpty() {
+		return tokens.all().isEmpty() && spans.all().isEmpty() && structures.all().isEmpty();
+	}
+
+	/**
+	 * All nodes of a single Salt type, additionally grouped by the qualified names of their annotations.
+	 *
+	 * @param <T>
+	 */
+	public static class Typed<T extends SNode> {
+
+		private final List<T> all = new ArrayList<>();
+		private final Map<String, List<T>> byAnnotation = new HashMap<>();
+
+		void add(T node) {
+			all.add(node);
+			for (SAnnotation anno : node.getAnnotations()) {
+				String qName = anno.getQName();
+				List<T> annotated = byAnnotation.get(qName);
+				if (annotated == null) {
+					annotated = new ArrayList<>();
+					byAnnotation.put(qName, annotated);
+				}
+				annotated.add(node);
+			}
+		}
+
+		public List<T> all() {
+			return Collections.unmodifiableList(all);
+		}
+
+		/**
+		 * @param qName The qualified name of the annotation ("namespace::name" or only "name" if there is no
+		 * namespace).
+		 * @return All nodes that have the annotation.
+		 */
+		public List<T> withAnnotation(String qName) {
+			List<T> result = byAnnotation.get(qName);
+			return result == null ? Collections.<T>emptyList() : Collections.unmodifiableList(result);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+/**
+ * Sorts ordinals by keys which are stored in a primitive array.
+ *
+ * Each ordinal has a fixed number of long words as key, which are compared one after another. The key words are built
+ * with {@link #key(int, int)} from two int fields each, so the fields are compared as signed ints and a field can be
+ * sorted in descending order by inverting it. The keys are sorted with a LSD radix sort on 8 bit digits, which does
+ * not call a comparator and skips all digits that are the same for all keys, e.g. the high bits of small offsets.
+ * The sort is stable, so the ordinal is the final tie-break of equal keys. Short inputs are sorted with insertion
+ * sort instead.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+class OrdinalSort {
+
+	private static final int RADIX_BITS = 8;
+	private static final int BUCKETS = 1 << RADIX_BITS;
+	private static final int DIGITS = Long.SIZE / RADIX_BITS;
+
+	private static final int INSERTION_SORT_SIZE = 64;
+
+	private OrdinalSort() {
+	}
+
+	/**
+	 * @param high The field that is compared first.
+	 * @param low The field that is compared if the high fields are equal.
+	 * @return A key word which orders like the two signed fields.
+	 */
+	static long key(int high, int low) {
+		return ((long) (high ^ Integer.MIN_VALUE) << 32) | ((low ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param keys The keys of all ordinals, width consecutive words for each ordinal.
+	 * @param width The number of words of a key.
+	 * @param size
+	 * @return The ordinals 0 to size - 1 in the order of their keys, ordinals with equal keys in ascending order.
+	 */
+	static int[] sort(long[] keys, int width, int size) {
+		int[] a = new int[size];
+		for (int i = 0; i < size; i++) {
+			a[i] = i;
+		}
+
+		if (size < INSERTION_SORT_SIZE) {
+			for (int i = 1; i < size; i++) {
+				int x = a[i];
+				int j = i;
+				for (; j > 0 && compare(keys, width, x, a[j - 1]) < 0; j--) {
+					a[j] = a[j - 1];
+				}
+				a[j] = x;
+			}
+			return a;
+		}
+
+		// count the digits of all passes at once, the least significant digit is sorted first
+		int passes = width * DIGITS;
+		int[][] counts = new int[passes][BUCKETS];
+		for (int i = 0; i < size; i++) {
+			for (int pass = 0; pass < passes; pass++) {
+				counts[pass][digit(keys, width, i, pass)]++;
+			}
+		}
+
+		int[] b = new int[size];
+		for (int pass = 0; pass < passes; pass++) {
+			int[] position = counts[pass];
+			if (position[digit(keys, width, 0, pass)] == size) {
+				// all keys have the same digit
+				continue;
+			}
+			int sum = 0;
+			for (int d = 0; d < BUCKETS; d++) {
+				int count = position[d];
+				position[d] = sum;
+				sum += count;
+			}
+			for (int i = 0; i < size; i++) {
+				int ordinal = a[i];
+				b[position[digit(keys, width, ordinal, pass)]++] = ordinal;
+			}
+			int[] tmp = a;
+			a = b;
+			b = tmp;
+		}
+		return a;
+	}
+
+	private static int digit(long[] keys, int width, int ordinal, int pass) {
+		long word = keys[ordinal * width + width - 1 - pass / DIGITS];
+		return (int) (word >>> (pass % DIGITS * RADIX_BITS)) & (BUCKETS - 1);
+	}
+
+	private static int compare(long[] keys, int width, int a, int b) {
+		for (int w = 0; w < width; w++) {
+			int result = Long.compareUnsigned(keys[a * width + w], keys[b * width + w]);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+/**
+ * Computes the containment of spans given by their offsets.
+ *
+ * The spans are sorted by start offset and descending end offset, so each span comes after all spans containing it.
+ * A single sweep with a stack of the open spans then finds the parent of each span: all spans on the stack which end
+ * before the current one are closed, the remaining top of the stack contains it. This needs O(n log n) time for the
+ * sort and O(n) for the sweep. Spans with the same offsets are nested in the order they were given. If spans
+ * overlap without containment, the parent is the innermost span on the stack that contains the span.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class SpanNesting {
+
+	public static final int NO_PARENT = -1;
+
+	private final int[] parent;
+	private final int[] depth;
+
+	/**
+	 * @param start The start offset of each span.
+	 * @param end The end offset of each span.
+	 * @param size The number of spans, the arrays can be longer.
+	 */
+	public SpanNesting(int[] start, int[] end, int size) {
+		parent = new int[size];
+		depth = new int[size];
+
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = OrdinalSort.key(start[i], ~end[i]);
+		}
+		int[] order = OrdinalSort.sort(keys, 1, size);
+
+		int[] stack = new int[Math.max(16, size)];
+		int top = 0;
+		for (int i : order) {
+			// close all spans that do not contain this one
+			while (top > 0 && end[stack[top - 1]] < end[i]) {
+				top--;
+			}
+			if (top > 0) {
+				parent[i] = stack[top - 1];
+				depth[i] = depth[parent[i]] + 1;
+			} else {
+				parent[i] = NO_PARENT;
+				depth[i] = 0;
+			}
+			stack[top++] = i;
+		}
+	}
+
+	/**
+	 * @param span
+	 * @return The index of the innermost span containing the span or {@link #NO_PARENT}.
+	 */
+	public int getParent(int span) {
+		return parent[span];
+	}
+
+	/**
+	 * @param span
+	 * @return The number of spans containing the span, 0 for the outermost spans.
+	 */
+	public int getDepth(int span) {
+		return depth[span];
+	}
+
+	public int size() {
+		return parent.length;
+	}
+}
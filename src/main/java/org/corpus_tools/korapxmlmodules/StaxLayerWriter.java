@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A {@link LayerWriter} using a generic, namespace repairing StAX writer.
+ *
+ * This is the original output path, it is kept to compare its output with the one of {@link KorapXMLWriter}.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class StaxLayerWriter extends LayerWriter {
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	/**
+	 * A newline followed by {@link #MAX_DEPTH} tabs, indentation is a prefix of this array.
+	 */
+	private static final char[] INDENTATION = new char[MAX_DEPTH + 1];
+
+	static {
+		outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+
+		Arrays.fill(INDENTATION, '\t');
+		INDENTATION[0] = '\n';
+	}
+
+	private final XMLStreamWriter xml;
+
+	public StaxLayerWriter(OutputStream out, boolean prettyPrint) throws XMLStreamException {
+		super(prettyPrint);
+		this.xml = outputFactory.createXMLStreamWriter(out, "UTF-8");
+	}
+
+	@Override
+	public void writeStartDocument() throws XMLStreamException {
+		xml.writeStartDocument("UTF-8", "1.0");
+	}
+
+	@Override
+	public void setDefaultNamespace(String uri) throws XMLStreamException {
+		xml.setDefaultNamespace(uri);
+	}
+
+	@Override
+	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+		if (namespaceURI == null) {
+			xml.writeStartElement(localName);
+		} else {
+			xml.writeStartElement(namespaceURI, localName);
+		}
+	}
+
+	@Override
+	public void writeAttribute(String localName, String value) throws XMLStreamException {
+		xml.writeAttribute(localName, value);
+	}
+
+	@Override
+	public void writeAttribute(String localName, int value) throws XMLStreamException {
+		xml.writeAttribute(localName, Integer.toString(value));
+	}
+
+	@Override
+	public void writeCharacters(String text) throws XMLStreamException {
+		xml.writeCharacters(text);
+	}
+
+	@Override
+	public void writeEndElement() throws XMLStreamException {
+		xml.writeEndElement();
+	}
+
+	@Override
+	public void writeEndDocument() throws XMLStreamException {
+		xml.writeEndDocument();
+	}
+
+	@Override
+	public void indent(int depth) throws XMLStreamException {
+		if (isPrettyPrint()) {
+			xml.writeCharacters(INDENTATION, 0, Math.min(depth, MAX_DEPTH) + 1);
+		}
+	}
+
+	@Override
+	public void flush() throws XMLStreamException {
+		xml.flush();
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		xml.close();
+	}
+}
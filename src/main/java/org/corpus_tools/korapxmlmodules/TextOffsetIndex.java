@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.corpus_tools.salt.common.SDominanceRelation;
+import org.corpus_tools.salt.common.SSpanningRelation;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.core.SNode;
+import org.corpus_tools.salt.core.SRelation;
+
+/**
+ * Resolves the character offsets of all tokens, spans and structures of a single {@link STextualDS}.
+ *
+ * The index is built once per text: the offsets of the tokens are taken from the {@link TokenTable} and then
+ * propagated bottom-up along the spanning and dominance relations, so each node is visited only once no matter how
+ * deep the structure is. Offsets are stored in primitive arrays and addressed by an ordinal per node. The index is
+ * immutable after construction and can be shared by concurrent readers.
+ *
+ * The index also defines the order in which the nodes are written: sorted by start offset, end offset and depth, so
+ * nodes with the same offsets are ordered from the outermost to the innermost. The order is computed once for each
+ * text with {@link OrdinalSort} and does not depend on the order of the Salt collections.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class TextOffsetIndex {
+
+	/**
+	 * Returned by {@link #getOrdinal(org.corpus_tools.salt.core.SNode) } for nodes that do not (exclusively) cover
+	 * this text.
+	 */
+	public static final int NOT_FOUND = -1;
+
+	private final STextualDS text;
+
+	private final Map<SNode, Integer> ordinals = new IdentityHashMap<>();
+
+	private SNode[] nodes;
+	private int[] start;
+	private int[] end;
+	/**
+	 * The length of the longest path to a token, 0 for tokens.
+	 */
+	private int[] height;
+	private int size;
+
+	/**
+	 * All ordinals in output order.
+	 */
+	private final int[] sorted;
+
+	public TextOffsetIndex(TokenTable tokens) {
+		this.text = tokens.getText();
+
+		start = new int[Math.max(16, tokens.size() * 2)];
+		end = new int[start.length];
+		height = new int[start.length];
+		nodes = new SNode[start.length];
+
+		// the offsets of the tokens are given directly, their ordinals are the same as in the token table
+		Deque<SNode> resolved = new ArrayDeque<>();
+		for (int i = 0; i < tokens.size(); i++) {
+			SToken tok = tokens.getToken(i);
+			add(tok, tokens.getStart(i), tokens.getEnd(i), 0);
+			resolved.add(tok);
+		}
+
+		// propagate the offsets to the parent nodes, a parent is resolved as soon as all its children are
+		Map<SNode, int[]> pending = new IdentityHashMap<>();
+		while (!resolved.isEmpty()) {
+			SNode child = resolved.poll();
+			int childOrdinal = ordinals.get(child);
+			List<SRelation> inRels = child.getInRelations();
+			if (inRels == null) {
+				continue;
+			}
+			for (SRelation<?, ?> rel : inRels) {
+				if (!isOverlapping(rel)) {
+					continue;
+				}
+				SNode parent = rel.getSource();
+				// [open children, start, end, height]
+				int[] state = pending.get(parent);
+				if (state == null) {
+					state = new int[]{countChildren(parent), Integer.MAX_VALUE, Integer.MIN_VALUE, 0};
+					pending.put(parent, state);
+				}
+				state[0]--;
+				state[1] = Math.min(state[1], start[childOrdinal]);
+				state[2] = Math.max(state[2], end[childOrdinal]);
+				state[3] = Math.max(state[3], height[childOrdinal] + 1);
+				if (state[0] == 0) {
+					pending.remove(parent);
+					add(parent, state[1], state[2], state[3]);
+					resolved.add(parent);
+				}
+			}
+		}
+		// everything still pending covers tokens of other texts (or none at all) and is left out
+
+		sorted = sort();
+	}
+
+	private static boolean isOverlapping(SRelation<?, ?> rel) {
+		return rel instanceof SSpanningRelation || rel instanceof SDominanceRelation;
+	}
+
+	private static int countChildren(SNode node) {
+		int result = 0;
+		List<SRelation> outRels = node.getOutRelations();
+		if (outRels != null) {
+			for (SRelation<?, ?> rel : outRels) {
+				if (isOverlapping(rel)) {
+					result++;
+				}
+			}
+		}
+		return result;
+	}
+
+	private void add(SNode node, int nodeStart, int nodeEnd, int nodeHeight) {
+		if (size == start.length) {
+			start = Arrays.copyOf(start, size * 2);
+			end = Arrays.copyOf(end, size * 2);
+			height = Arrays.copyOf(height, size * 2);
+			nodes = Arrays.copyOf(nodes, size * 2);
+		}
+		nodes[size] = node;
+		start[size] = nodeStart;
+		end[size] = nodeEnd;
+		height[size] = nodeHeight;
+		ordinals.put(node, size);
+		size++;
+	}
+
+	/**
+	 * @return All ordinals sorted by start, end and descending height, the outer node first. Nodes with the same
+	 *         offsets and height keep the order of their ordinals.
+	 */
+	private int[] sort() {
+		long[] keys = new long[size * 2];
+		for (int i = 0; i < size; i++) {
+			keys[2 * i] = OrdinalSort.key(start[i], end[i]);
+			keys[2 * i + 1] = OrdinalSort.key(~height[i], 0);
+		}
+		return OrdinalSort.sort(keys, 2, size);
+	}
+
+	public STextualDS getText() {
+		return text;
+	}
+
+	/**
+	 * @param node
+	 * @return The ordinal of the node in this index or {@link #NOT_FOUND} if the node does not cover this text.
+	 */
+	public int getOrdinal(SNode node) {
+		Integer result = ordinals.get(node);
+		return result == null ? NOT_FOUND : result;
+	}
+
+	public boolean contains(SNode node) {
+		return ordinals.containsKey(node);
+	}
+
+	public int getStart(int ordinal) {
+		return start[ordinal];
+	}
+
+	public int getEnd(int ordinal) {
+		return end[ordinal];
+	}
+
+	/**
+	 * @param ordinal
+	 * @return The length of the longest path from the node to a token, 0 for tokens.
+	 */
+	public int getHeight(int ordinal) {
+		return height[ordinal];
+	}
+
+	public SNode getNode(int ordinal) {
+		return nodes[ordinal];
+	}
+
+	/**
+	 * @param rank
+	 * @return The ordinal of the node at the given position of the output order.
+	 */
+	public int getSortedOrdinal(int rank) {
+		return sorted[rank];
+	}
+
+	/**
+	 * @return The number of nodes (tokens, spans and structures) in this index.
+	 */
+	public int size() {
+		return size;
+	}
+}
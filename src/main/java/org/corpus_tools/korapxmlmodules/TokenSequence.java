@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.corpus_tools.salt.common.SToken;
+
+/**
+ * The imported tokens of a text, sorted by their offsets.
+ *
+ * The tokens covered by a span are found with a binary search on the start and end offsets, so no lookup by ID is
+ * necessary for spans. Tokens must not overlap, which is always true for KorapXML token files. The IDs from the token
+ * file are only indexed when they are needed to resolve relations.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+class TokenSequence {
+
+	private final SToken[] tokens;
+	private final int[] start;
+	private final int[] end;
+	private final String[] ids;
+
+	private Map<String, Integer> idIndex;
+
+	private TokenSequence(SToken[] tokens, int[] start, int[] end, String[] ids) {
+		this.tokens = tokens;
+		this.start = start;
+		this.end = end;
+		this.ids = ids;
+	}
+
+	public int size() {
+		return tokens.length;
+	}
+
+	public SToken getToken(int i) {
+		return tokens[i];
+	}
+
+	public int getStart(int i) {
+		return start[i];
+	}
+
+	public int getEnd(int i) {
+		return end[i];
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return All tokens that are completely inside the given range, in text order.
+	 */
+	public List<SToken> covered(int from, int to) {
+		// first token that does not start before "from"
+		int first = lowerBound(start, from);
+		// first token that ends after "to"
+		int last = lowerBound(end, to + 1);
+		if (first >= last) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(tokens).subList(first, last);
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return The token with exactly these offsets or null.
+	 */
+	public SToken exact(int from, int to) {
+		for (int i = lowerBound(start, from); i < start.length && start[i] == from; i++) {
+			if (end[i] == to) {
+				return tokens[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param id The ID from the token file.
+	 * @return The token or null if the ID is unknown.
+	 */
+	public SToken byId(String id) {
+		if (idIndex == null) {
+			idIndex = new HashMap<>(ids.length * 2);
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] != null) {
+					idIndex.put(ids[i], i);
+				}
+			}
+		}
+		Integer i = idIndex.get(id);
+		return i == null ? null : tokens[i];
+	}
+
+	private static int lowerBound(int[] a, int key) {
+		int low = 0;
+		int high = a.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (a[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Collects the tokens in file order, they are sorted when the sequence is built.
+	 */
+	static class Builder {
+
+		private SToken[] tokens = new SToken[64];
+		private int[] start = new int[64];
+		private int[] end = new int[64];
+		private String[] ids = new String[64];
+		private int size;
+		private boolean sorted = true;
+
+		void add(SToken token, int from, int to, String id) {
+			if (size == tokens.length) {
+				int capacity = size + (size >> 1);
+				tokens = Arrays.copyOf(tokens, capacity);
+				start = Arrays.copyOf(start, capacity);
+				end = Arrays.copyOf(end, capacity);
+				ids = Arrays.copyOf(ids, capacity);
+			}
+			if (size > 0 && (from < start[size - 1] || (from == start[size - 1] && to < end[size - 1]))) {
+				sorted = false;
+			}
+			tokens[size] = token;
+			start[size] = from;
+			end[size] = to;
+			ids[size] = id;
+			size++;
+		}
+
+		TokenSequence build() {
+			if (sorted) {
+				return new TokenSequence(Arrays.copyOf(tokens, size), Arrays.copyOf(start, size),
+						Arrays.copyOf(end, size), Arrays.copyOf(ids, size));
+			}
+			// the token files written by the exporter are sorted, everything else is sorted by (start, end)
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> start[a] != start[b]
+					? Integer.compare(start[a], start[b]) : Integer.compare(end[a], end[b]));
+			SToken[] sortedTokens = new SToken[size];
+			int[] sortedStart = new int[size];
+			int[] sortedEnd = new int[size];
+			String[] sortedIds = new String[size];
+			for (int i = 0; i < size; i++) {
+				sortedTokens[i] = tokens[order[i]];
+				sortedStart[i] = start[order[i]];
+				sortedEnd[i] = end[order[i]];
+				sortedIds[i] = ids[order[i]];
+			}
+			return new TokenSequence(sortedTokens, sortedStart, sortedEnd, sortedIds);
+		}
+	}
+}
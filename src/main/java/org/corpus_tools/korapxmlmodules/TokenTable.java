@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.STextualRelation;
+import org.corpus_tools.salt.common.SToken;
+
+/**
+ * The tokens of a single {@link STextualDS}, sorted by their offsets.
+ *
+ * Each token is stored as the index of its {@link STextualRelation} in the document graph and its start and end
+ * offset, all in primitive arrays. The tables for all texts of a document are created in a single pass over the
+ * textual relations with {@link #partition(org.corpus_tools.salt.common.SDocumentGraph) }.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class TokenTable {
+
+	private final STextualDS text;
+	private final List<STextualRelation> relations;
+
+	private final int[] ordinal;
+	private final int[] start;
+	private final int[] end;
+
+	private TokenTable(STextualDS text, List<STextualRelation> relations, long[] keys, int size) {
+		this.text = text;
+		this.relations = relations;
+
+		// each key has the start offset in the upper and the relation index in the lower half
+		Arrays.sort(keys, 0, size);
+
+		this.ordinal = new int[size];
+		this.start = new int[size];
+		this.end = new int[size];
+		for (int i = 0; i < size; i++) {
+			ordinal[i] = (int) keys[i];
+			start[i] = (int) (keys[i] >>> 32);
+			end[i] = relations.get(ordinal[i]).getEnd();
+		}
+
+		// tokens with the same start are ordered by their end offset, such runs are very short
+		for (int i = 1; i < size; i++) {
+			for (int j = i; j > 0 && start[j - 1] == start[j] && end[j - 1] > end[j]; j--) {
+				swap(ordinal, j);
+				swap(end, j);
+			}
+		}
+	}
+
+	private static void swap(int[] a, int j) {
+		int tmp = a[j];
+		a[j] = a[j - 1];
+		a[j - 1] = tmp;
+	}
+
+	/**
+	 * Creates a token table for each text of the document graph.
+	 *
+	 * @param graph
+	 * @return
+	 */
+	public static Map<STextualDS, TokenTable> partition(SDocumentGraph graph) {
+		List<STextualRelation> relations = graph.getTextualRelations();
+
+		Map<STextualDS, Builder> builders = new IdentityHashMap<>();
+		for (int i = 0; i < relations.size(); i++) {
+			STextualRelation rel = relations.get(i);
+			Builder b = builders.get(rel.getTarget());
+			if (b == null) {
+				b = new Builder();
+				builders.put(rel.getTarget(), b);
+			}
+			b.add(((long) rel.getStart() << 32) | i);
+		}
+
+		Map<STextualDS, TokenTable> result = new IdentityHashMap<>();
+		for (STextualDS text : graph.getTextualDSs()) {
+			Builder b = builders.remove(text);
+			result.put(text, b == null
+					? new TokenTable(text, relations, new long[0], 0)
+					: new TokenTable(text, relations, b.keys, b.size));
+		}
+		return result;
+	}
+
+	public STextualDS getText() {
+		return text;
+	}
+
+	public int size() {
+		return ordinal.length;
+	}
+
+	public SToken getToken(int i) {
+		return relations.get(ordinal[i]).getSource();
+	}
+
+	/**
+	 * @param i
+	 * @return The index of the textual relation of the i-th token in the list of textual relations of the document.
+	 */
+	public int getOrdinal(int i) {
+		return ordinal[i];
+	}
+
+	public int getStart(int i) {
+		return start[i];
+	}
+
+	public int getEnd(int i) {
+		return end[i];
+	}
+
+	private static class Builder {
+
+		long[] keys = new long[64];
+		int size;
+
+		void add(long key) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size + (size >> 1));
+			}
+			keys[size++] = key;
+		}
+	}
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the disk writes of the layer files to dedicated writer threads.
+ *
+ * The files are opened with a {@link Batch}, usually one for each document. Its streams collect the serialized
+ * content in chunks, full chunks are handed to a writer thread which writes them with a {@link FileChannel}. All
+ * chunks of a file are written by the same thread, so they stay in order and each file is written sequentially. The
+ * number of chunks which are queued or written at the same time is limited, if the storage falls behind, the
+ * serializing threads wait for free chunks. Closing a stream does not wait for its chunks, the writer thread closes
+ * the file and then calls the {@link Completion} of the file, e.g. to rename it into place. {@link Batch#await()}
+ * waits once until all files of the batch are complete and reports the first error.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+	public static final int DEFAULT_QUEUE_DEPTH = 64;
+	public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * A single operation of a writer thread, either a chunk of a file or the end of a file.
+	 */
+	private static class Op {
+
+		final FileSink sink;
+		final byte[] chunk;
+		final int length;
+		final boolean discard;
+
+		Op(FileSink sink, byte[] chunk, int length, boolean discard) {
+			this.sink = sink;
+			this.chunk = chunk;
+			this.length = length;
+			this.discard = discard;
+		}
+	}
+
+	private static final Op SHUTDOWN = new Op(null, null, 0, false);
+
+	/**
+	 * Called by the writer thread when a file is completely written and closed.
+	 */
+	public interface Completion {
+
+		void completed(File file) throws IOException;
+	}
+
+	private final int chunkSize;
+	private final int queueDepth;
+	private final Semaphore freeChunks;
+	private final BlockingQueue<byte[]> chunkPool;
+	private final List<BlockingQueue<Op>> queues = new ArrayList<>();
+	private final List<Thread> writers = new ArrayList<>();
+	private final AtomicInteger nextWriter = new AtomicInteger();
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger peakQueued = new AtomicInteger();
+	private final LongAdder files = new LongAdder();
+	private final LongAdder chunks = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder writeNanos = new LongAdder();
+	private final AtomicLong maxWriteNanos = new AtomicLong();
+	private final LongAdder waitNanos = new LongAdder();
+
+	/**
+	 * @param threads The number of writer threads.
+	 * @param queueDepth The maximal number of chunks which are queued or written at the same time.
+	 * @param chunkSize The size of the chunks in bytes, each chunk is written with a single call.
+	 */
+	public WriteBehindQueue(int threads, int queueDepth, int chunkSize) {
+		this.chunkSize = chunkSize;
+		this.queueDepth = queueDepth;
+		this.freeChunks = new Semaphore(queueDepth);
+		// each open stream additionally holds the chunk it is filling, those are allocated when needed
+		this.chunkPool = new LinkedBlockingQueue<>(queueDepth);
+		for (int i = 0; i < threads; i++) {
+			BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+			queues.add(queue);
+			Thread writer = new Thread(() -> drain(queue), "korapxml-writer-" + i);
+			writer.setDaemon(true);
+			writer.start();
+			writers.add(writer);
+		}
+	}
+
+	/**
+	 * @return A new batch the files of a document are opened with.
+	 */
+	public Batch newBatch() {
+		return new Batch();
+	}
+
+	private byte[] takeChunk() {
+		byte[] chunk = chunkPool.poll();
+		return chunk == null ? new byte[chunkSize] : chunk;
+	}
+
+	private void drain(BlockingQueue<Op> queue) {
+		while (true) {
+			Op op;
+			try {
+				op = queue.take();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (op == SHUTDOWN) {
+				return;
+			}
+			try {
+				if (op.chunk != null) {
+					write(op);
+				} else {
+					op.sink.finish(op.discard);
+				}
+			} catch (Throwable ex) {
+				// the writer thread must not die, the error fails the file and is reported to its batch
+				op.sink.fail(ex);
+			}
+		}
+	}
+
+	private void write(Op op) {
+		try {
+			long start = System.nanoTime();
+			try {
+				op.sink.write(ByteBuffer.wrap(op.chunk, 0, op.length));
+			} catch (IOException ex) {
+				op.sink.fail(ex);
+			}
+			long nanos = System.nanoTime() - start;
+			writeNanos.add(nanos);
+			maxWriteNanos.accumulateAndGet(nanos, Math::max);
+			chunks.increment();
+			bytes.add(op.length);
+		} finally {
+			queued.decrementAndGet();
+			chunkPool.offer(op.chunk);
+			freeChunks.release();
+		}
+	}
+
+	/**
+	 * Waits until the writer threads finished all queued files and stops them.
+	 */
+	public void shutdown() {
+		for (BlockingQueue<Op> queue : queues) {
+			queue.add(SHUTDOWN);
+		}
+		for (Thread writer : writers) {
+			try {
+				writer.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				log.warn("Interrupted while waiting for the writer threads");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return A human readable summary of the written chunks, the write latency and the time the serializing threads
+	 * waited for the storage.
+	 */
+	public String summary() {
+		long n = chunks.sum();
+		return "Write-behind: " + files.sum() + " files, " + n + " chunks, " + bytes.sum() + " bytes, "
+				+ "average write latency " + (n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(writeNanos.sum() / n))
+				+ " us, maximal write latency " + TimeUnit.NANOSECONDS.toMicros(maxWriteNanos.get()) + " us, "
+				+ "peak queue depth " + peakQueued.get() + " of " + queueDepth + ", waited "
+				+ TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()) + " ms for free chunks";
+	}
+
+	/**
+	 * The files of a document. The files are written in the background after their streams are closed, the batch
+	 * waits until all of them are complete.
+	 */
+	public class Batch {
+
+		private int pending = 0;
+		private IOException error;
+
+		private Batch() {
+		}
+
+		/**
+		 * Opens a file for writing, an existing file is replaced.
+		 *
+		 * @param file
+		 * @param completion Called by the writer thread once the file is complete, unless it is discarded or could
+		 * not be written, or null.
+		 * @return A stream that can be discarded, see {@link LayerOutput.Discardable}.
+		 */
+		public OutputStream open(File file, Completion completion) {
+			synchronized (this) {
+				pending++;
+			}
+			BlockingQueue<Op> queue = queues.get(Math.floorMod(nextWriter.getAndIncrement(), queues.size()));
+			return new WriteBehindStream(new FileSink(file, completion, this), queue);
+		}
+
+		private synchronized void finished(IOException fileError) {
+			if (fileError != null && error == null) {
+				error = fileError;
+			}
+			pending--;
+			if (pending == 0) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Waits until all files opened with this batch are closed or discarded and written.
+		 *
+		 * @throws IOException The first error of a file of this batch, the file itself is deleted.
+		 */
+		public synchronized void await() throws IOException {
+			while (pending > 0) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the writer threads");
+				}
+			}
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+
+	/**
+	 * The file of a single stream, it is only accessed by the writer thread of the stream.
+	 */
+	private class FileSink {
+
+		final File file;
+		final Completion completion;
+		final Batch batch;
+		FileChannel channel;
+		volatile IOException error;
+
+		FileSink(File file, Completion completion, Batch batch) {
+			this.file = file;
+			this.completion = completion;
+			this.batch = batch;
+		}
+
+		void write(ByteBuffer buffer) throws IOException {
+			if (error != null) {
+				return;
+			}
+			if (channel == null) {
+				open();
+			}
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		private void open() throws IOException {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		/**
+		 * Records the first error of the file, the following chunks are dropped and the file is deleted when it is
+		 * finished.
+		 */
+		void fail(Throwable ex) {
+			if (error == null) {
+				error = ex instanceof IOException ? (IOException) ex
+						: new IOException("Could not write " + file.getAbsolutePath(), ex);
+			}
+		}
+
+		void finish(boolean discard) {
+			try {
+				if (channel == null && error == null && !discard) {
+					// an empty file
+					open();
+				}
+				if (channel != null) {
+					channel.close();
+				}
+				if (error == null && !discard && completion != null) {
+					completion.completed(file);
+				}
+			} catch (Throwable ex) {
+				fail(ex);
+			} finally {
+				if (discard || error != null) {
+					try {
+						Files.deleteIfExists(file.toPath());
+					} catch (IOException ex) {
+						log.warn("Could not delete " + file.getAbsolutePath(), ex);
+					}
+				}
+				files.increment();
+				// a discarded file is not an error of the batch, its document already failed
+				batch.finished(discard ? null : error);
+			}
+		}
+	}
+
+	private class WriteBehindStream extends OutputStream implements LayerOutput.Discardable {
+
+		private final FileSink sink;
+		private final BlockingQueue<Op> queue;
+		private byte[] chunk;
+		private int length;
+		private boolean closed = false;
+
+		WriteBehindStream(FileSink sink, BlockingQueue<Op> queue) {
+			this.sink = sink;
+			this.queue = queue;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (chunk == null || length == chunk.length) {
+				nextChunk();
+			}
+			chunk[length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (chunk == null || length == chunk.length) {
+					nextChunk();
+				}
+				int n = Math.min(len, chunk.length - length);
+				System.arraycopy(b, off, chunk, length, n);
+				length += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		/**
+		 * Hands the full chunk to the writer thread and starts a new one.
+		 */
+		private void nextChunk() throws IOException {
+			if (closed) {
+				throw new IOException("Stream of " + sink.file.getAbsolutePath() + " is closed");
+			}
+			if (sink.error != null) {
+				// stop the serialization early, the error itself is reported by the batch
+				throw new IOException("Could not write " + sink.file.getAbsolutePath(), sink.error);
+			}
+			submit();
+			chunk = takeChunk();
+		}
+
+		private void submit() throws IOException {
+			if (chunk == null || length == 0) {
+				return;
+			}
+			if (!freeChunks.tryAcquire()) {
+				// backpressure, the storage is slower than the serialization
+				long start = System.nanoTime();
+				try {
+					freeChunks.acquire();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the writer threads");
+				} finally {
+					waitNanos.add(System.nanoTime() - start);
+				}
+			}
+			peakQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+			queue.add(new Op(sink, chunk, length, false));
+			chunk = null;
+			length = 0;
+		}
+
+		private void finish(boolean discard) throws IOException {
+			closed = true;
+			if (discard) {
+				if (chunk != null) {
+					chunkPool.offer(chunk);
+					chunk = null;
+				}
+			} else {
+				submit();
+			}
+			queue.add(new Op(sink, null, 0, discard));
+		}
+
+		/**
+		 * Hands the rest of the file to the writer thread without waiting for it, errors of the writer thread are
+		 * reported by the {@link Batch}.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			finish(false);
+		}
+
+		@Override
+		public void discard() {
+			if (closed) {
+				return;
+			}
+			try {
+				finish(true);
+			} catch (IOException ex) {
+				// the file is dropped anyway
+			}
+		}
+	}
+}
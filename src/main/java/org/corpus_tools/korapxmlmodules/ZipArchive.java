@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A ZIP archive that contains all layer files of a corpus.
+ *
+ * The entries use the same layout as the KorAP tooling ("CORPUS/DOC/TEXT/base/token.xml"). Each entry is spooled by
+ * the writing thread and appended to the archive in one step when its stream is closed, so any number of mappers can
+ * write into the same archive concurrently. Small entries are kept in memory, an entry that grows beyond
+ * {@link #DEFAULT_SPOOL_THRESHOLD} bytes is spooled to a temporary file next to the archive instead, so the memory
+ * used per open entry is bounded. Each entry can only be opened once.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class ZipArchive implements Closeable {
+
+	public static final int DEFAULT_SPOOL_THRESHOLD = 1 << 20;
+
+	private static final int SPOOL_BUFFER_SIZE = 1 << 16;
+
+	private final File file;
+	private final ZipOutputStream zip;
+	private final int spoolThreshold;
+	private final Set<String> names = ConcurrentHashMap.newKeySet();
+
+	public ZipArchive(File file, int compressionLevel) throws IOException {
+		this(file, compressionLevel, DEFAULT_SPOOL_THRESHOLD);
+	}
+
+	/**
+	 * @param file
+	 * @param compressionLevel
+	 * @param spoolThreshold The size in bytes up to which an entry is kept in memory.
+	 * @throws IOException
+	 */
+	ZipArchive(File file, int compressionLevel, int spoolThreshold) throws IOException {
+		this.file = file;
+		this.spoolThreshold = spoolThreshold;
+		this.zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		this.zip.setLevel(compressionLevel);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @param textPath The path of the text inside the archive, e.g. "CORPUS/DOC/TEXT".
+	 * @return An output which writes the layers of the text into this archive.
+	 */
+	public LayerOutput forText(String textPath) {
+		return path -> open(textPath + "/" + path);
+	}
+
+	private OutputStream open(String name) throws IOException {
+		if (!names.add(name)) {
+			throw new IOException("The entry " + name + " is written twice to " + file.getAbsolutePath());
+		}
+		return new EntryStream(name);
+	}
+
+	private synchronized void writeEntry(String name, byte[] content, int length) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content, 0, length);
+		zip.closeEntry();
+	}
+
+	private synchronized void writeEntry(String name, File spool) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		Files.copy(spool.toPath(), zip);
+		zip.closeEntry();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		zip.close();
+	}
+
+	private class EntryStream extends OutputStream implements LayerOutput.Discardable {
+
+		private final String name;
+		private byte[] buf = new byte[8192];
+		private int count;
+		private File spool;
+		private OutputStream spoolOut;
+		private boolean closed = false;
+
+		public EntryStream(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (spoolOut == null) {
+				reserve(1);
+			}
+			if (spoolOut != null) {
+				spoolOut.write(b);
+			} else {
+				buf[count++] = (byte) b;
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (spoolOut == null) {
+				reserve(len);
+			}
+			if (spoolOut != null) {
+				spoolOut.write(b, off, len);
+			} else {
+				System.arraycopy(b, off, buf, count, len);
+				count += len;
+			}
+		}
+
+		/**
+		 * Grows the memory buffer or moves its content to a spool file if the entry gets too large.
+		 */
+		private void reserve(int len) throws IOException {
+			if (closed) {
+				throw new IOException("Entry " + name + " is closed");
+			}
+			long needed = (long) count + len;
+			if (needed <= buf.length) {
+				return;
+			}
+			if (needed <= spoolThreshold) {
+				buf = Arrays.copyOf(buf, (int) Math.min(spoolThreshold, Math.max(needed, 2L * buf.length)));
+				return;
+			}
+			spool = File.createTempFile(file.getName() + ".", ".spool", file.getAbsoluteFile().getParentFile());
+			spoolOut = new BufferedOutputStream(new FileOutputStream(spool), SPOOL_BUFFER_SIZE);
+			spoolOut.write(buf, 0, count);
+			buf = null;
+			count = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (spoolOut == null) {
+				writeEntry(name, buf, count);
+				buf = null;
+			} else {
+				try {
+					spoolOut.close();
+					writeEntry(name, spool);
+				} finally {
+					Files.deleteIfExists(spool.toPath());
+				}
+			}
+		}
+
+		@Override
+		public void discard() {
+			// the entry is not added at all
+			closed = true;
+			buf = null;
+			if (spoolOut != null) {
+				try {
+					spoolOut.close();
+				} catch (IOException ex) {
+					// the file is deleted anyway
+				}
+				spool.delete();
+			}
+		}
+
+	}
+
+}
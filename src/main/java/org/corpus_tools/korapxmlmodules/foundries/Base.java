@@ -15,44 +15,186 @@
  */
 package org.corpus_tools.korapxmlmodules.foundries;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
+import javax.xml.stream.XMLStreamException;
+import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.KorapXMLMapper.NS_URI;
+import org.corpus_tools.korapxmlmodules.AnnotationMatcher;
+import org.corpus_tools.korapxmlmodules.DocumentIds;
 import org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties;
+import org.corpus_tools.korapxmlmodules.LayerOutput;
+import org.corpus_tools.korapxmlmodules.LayerWriter;
+import org.corpus_tools.korapxmlmodules.NodeSelection;
+import org.corpus_tools.korapxmlmodules.SpanNesting;
+import org.corpus_tools.korapxmlmodules.TextOffsetIndex;
 import org.corpus_tools.salt.common.SSpan;
-import org.corpus_tools.salt.common.STextualDS;
-import org.corpus_tools.salt.core.SNode;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.SStructuredNode;
+import org.corpus_tools.salt.core.SAnnotation;
 
 /**
+ * Maps the sentences, paragraphs and the structure of the text.
+ *
+ * The structure layer ("base/structure.xml") contains all spans and structures of the text, the level of each
+ * element in the containment hierarchy is given by the "l" attribute (starting with 1 for the outermost elements).
+ * Since the elements are written sorted by their offsets and outer elements first, the parent of an element is the
+ * closest preceding element with a lower level.
  *
  * @author Thomas Krause <thomaskrause@posteo.de>
  */
 public class Base extends Foundry {
 
 	@Override
-	public void map(File textDir, Collection<SNode> nodes, STextualDS text, KorapXMLExporterProperties properties) {
+	public void map(LayerOutput output, NodeSelection nodes, TextOffsetIndex offsets, DocumentIds ids,
+			KorapXMLExporterProperties properties) {
+
+		AnnotationMatcher sentence = AnnotationMatcher.forQName(properties.getBaseSentence());
+		AnnotationMatcher paragraph = AnnotationMatcher.forQName(properties.getBaseParagraph());
+
+		// map the sentence and paragraph spans in a single pass and collect the elements of the structure
+		BitSet elements = new BitSet(offsets.size());
+		try (SpanLayer sentences = openSpanLayer(output, "base", "sentences", offsets, ids, properties);
+				SpanLayer paragraphs = openSpanLayer(output, "base", "paragraph", offsets, ids, properties)) {
+			for (SSpan span : nodes.getSpans().all()) {
+				if (sentence.find(span) != null) {
+					sentences.add(span);
+				}
+				if (paragraph.find(span) != null) {
+					paragraphs.add(span);
+				}
+				select(span, offsets, elements);
+			}
+		}
+		for (SStructure struct : nodes.getStructures().all()) {
+			select(struct, offsets, elements);
+		}
+
+		Structure structure = new Structure(elements, offsets, sentence, paragraph);
+		try (SpanLayer layer = openSpanLayer(output, "base", "structure", offsets, ids, properties, structure)) {
+			for (int ordinal : structure.ordinals) {
+				layer.add((SStructuredNode) offsets.getNode(ordinal));
+			}
+		}
+	}
+
+	private static void select(SStructuredNode node, TextOffsetIndex offsets, BitSet elements) {
+		int ordinal = offsets.getOrdinal(node);
+		if (ordinal != TextOffsetIndex.NOT_FOUND) {
+			elements.set(ordinal);
+		}
+	}
+
+	/**
+	 * Writes the elements of the structure layer with their level. It is created for a single text, since the
+	 * foundries themselves are shared. Only the ordinals of the elements and their levels are kept while the layer is
+	 * written.
+	 */
+	private static class Structure implements SpanLayer.Mapping {
+
+		/**
+		 * The ordinals of the elements in ascending order.
+		 */
+		private final int[] ordinals;
+		private final int[] depth;
+		private final AnnotationMatcher sentence;
+		private final AnnotationMatcher paragraph;
+
+		Structure(BitSet elements, TextOffsetIndex offsets, AnnotationMatcher sentence, AnnotationMatcher paragraph) {
+			this.sentence = sentence;
+			this.paragraph = paragraph;
+
+			int size = elements.cardinality();
+			ordinals = new int[size];
+			int i = 0;
+			for (int ordinal = elements.nextSetBit(0); ordinal >= 0; ordinal = elements.nextSetBit(ordinal + 1)) {
+				ordinals[i++] = ordinal;
+			}
+
+			// the nesting is computed in the output order, so elements with the same offsets are nested in the order
+			// they are written, the outer node first
+			int[] written = new int[size];
+			int[] start = new int[size];
+			int[] end = new int[size];
+			i = 0;
+			for (int rank = 0; rank < offsets.size(); rank++) {
+				int ordinal = offsets.getSortedOrdinal(rank);
+				if (elements.get(ordinal)) {
+					written[i] = ordinal;
+					start[i] = offsets.getStart(ordinal);
+					end[i] = offsets.getEnd(ordinal);
+					i++;
+				}
+			}
+			SpanNesting nesting = new SpanNesting(start, end, size);
+			depth = new int[size];
+			for (i = 0; i < size; i++) {
+				depth[Arrays.binarySearch(ordinals, written[i])] = nesting.getDepth(i);
+			}
+		}
+
+		@Override
+		public void mapAttributes(SStructuredNode node, int ordinal, LayerWriter xml, KorapXMLExporterProperties props)
+				throws XMLStreamException {
+			xml.writeAttribute("l", depth[Arrays.binarySearch(ordinals, ordinal)] + 1);
+		}
+
+		/**
+		 * Writes the annotations as the attributes of the structural element, which is named after the sentence or
+		 * paragraph annotation or after its first annotation.
+		 */
+		@Override
+		public void mapAnnotations(Collection<SAnnotation> annotations, LayerWriter xml,
+				KorapXMLExporterProperties props) throws XMLStreamException {
+			List<SAnnotation> sorted = new ArrayList<>(annotations);
+			sorted.sort((a, b) -> a.getQName().compareTo(b.getQName()));
 
-		List<SSpan> layerSpans
-				= nodes.parallelStream().filter(SSpan.class::isInstance)
-						.map(n -> (SSpan) n)
-						.collect(Collectors.toList());
+			String name = sorted.isEmpty() ? "span" : sorted.get(0).getName();
+			for (SAnnotation anno : sorted) {
+				if (sentence.matches(anno)) {
+					name = "s";
+					break;
+				} else if (paragraph.matches(anno)) {
+					name = "p";
+					break;
+				}
+			}
 
-		String sentenceAnnotationQName = properties.getBaseSentence();
-		List<SSpan> sentenceSpans = layerSpans.parallelStream()
-				.filter(span -> span.getAnnotation(sentenceAnnotationQName) != null)
-				.collect(Collectors.toList());
+			xml.indent(3);
+			xml.writeStartElement(NS_URI, "fs");
+			xml.writeAttribute("type", "struct");
 
-		String paragraphAnnotationQName = properties.getBaseParagraph();
-		List<SSpan> paragraphSpans = layerSpans.parallelStream()
-				.filter(span -> span.getAnnotation(paragraphAnnotationQName) != null)
-				.collect(Collectors.toList());
+			xml.indent(4);
+			xml.writeStartElement(NS_URI, "f");
+			xml.writeAttribute("name", "name");
+			xml.writeCharacters(name);
+			xml.writeEndElement(); // </f>
 
-		// map all sentence spans
-		mapSpans(textDir, "base", "sentences", sentenceSpans, text, properties);
+			if (!sorted.isEmpty()) {
+				xml.indent(4);
+				xml.writeStartElement(NS_URI, "f");
+				xml.writeAttribute("name", "attr");
+				xml.indent(5);
+				xml.writeStartElement(NS_URI, "fs");
+				xml.writeAttribute("type", "attr");
+				for (SAnnotation anno : sorted) {
+					xml.indent(6);
+					xml.writeStartElement(NS_URI, "f");
+					xml.writeAttribute("name", anno.getName());
+					xml.writeCharacters(anno.getValue_STEXT());
+					xml.writeEndElement(); // </f>
+				}
+				xml.indent(5);
+				xml.writeEndElement(); // </fs>
+				xml.indent(4);
+				xml.writeEndElement(); // </f>
+			}
 
-		// map all paragraph spans
-		mapSpans(textDir, "base", "paragraph", paragraphSpans, text, properties);
+			xml.indent(3);
+			xml.writeEndElement(); // </fs>
+		}
 	}
 
 }
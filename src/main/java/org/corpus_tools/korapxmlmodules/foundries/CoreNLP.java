@@ -15,20 +15,19 @@
  */
 package org.corpus_tools.korapxmlmodules.foundries;
 
-import java.io.File;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import org.corpus_tools.korapxmlmodules.AnnotationMatcher;
+import org.corpus_tools.korapxmlmodules.DocumentIds;
 import org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties;
+import org.corpus_tools.korapxmlmodules.LayerOutput;
+import org.corpus_tools.korapxmlmodules.LayerWriter;
+import org.corpus_tools.korapxmlmodules.NodeSelection;
+import org.corpus_tools.korapxmlmodules.TextOffsetIndex;
 import org.corpus_tools.salt.common.SDominanceRelation;
-import org.corpus_tools.salt.common.SStructure;
 import org.corpus_tools.salt.common.SStructuredNode;
-import org.corpus_tools.salt.common.STextualDS;
-import org.corpus_tools.salt.common.SToken;
 import org.corpus_tools.salt.core.SAnnotation;
-import org.corpus_tools.salt.core.SNode;
 import org.corpus_tools.salt.core.SRelation;
 
 /**
@@ -37,50 +36,34 @@ import org.corpus_tools.salt.core.SRelation;
  */
 public class CoreNLP extends Foundry {
 
-	@Override
-	public void map(File textDir, Collection<SNode> nodes, STextualDS text, KorapXMLExporterProperties properties) {
+	private static final AnnotationMatcher[] MORPHO_ANNOS = {AnnotationMatcher.forName("pos")};
+	private static final AnnotationMatcher[] CONSTITUENCY_ANNOS = {AnnotationMatcher.forName("cat")};
 
-		List<SToken> tokenWithPosAnno
-				= nodes.parallelStream().filter(SToken.class::isInstance)
-						.map(n -> (SToken) n)
-						.filter(tok ->  tok.getAnnotation(null, "pos") != null)
-						.collect(Collectors.toList());
+	@Override
+	public void map(LayerOutput output, NodeSelection nodes, TextOffsetIndex offsets, DocumentIds ids,
+			KorapXMLExporterProperties properties) {
 
-		mapSpans(textDir, "corenlp", "morpho", tokenWithPosAnno, text, properties);
-		
-		List<SStructure> layerStructs
-				= nodes.parallelStream().filter(SStructure.class::isInstance)
-						.map(n -> (SStructure) n)
-						.collect(Collectors.toList());
+		mapSpans(output, "corenlp", "morpho", nodes.getTokens().withAnnotation("pos"), offsets, ids, properties);
 
-		mapSpans(textDir, "corenlp", "constituency", layerStructs, text, properties);
+		mapSpans(output, "corenlp", "constituency", nodes.getStructures().all(), offsets, ids, properties);
 
 	}
 	
 	@Override
-	public void mapAnnotations(Collection<SAnnotation> annotations, XMLStreamWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
-		
-		List<SAnnotation> filteredMorphAnnos = annotations.stream().filter(anno -> 
-				"pos".equals(anno.getName()))
-				.collect(Collectors.toList());
-		
-		List<SAnnotation> filteredConstAnnos = annotations.stream().filter(anno -> 
-				"cat".equals(anno.getName()))
-				.collect(Collectors.toList());
-		
-		
-		mapWrappedAnnotations(filteredMorphAnnos, "lex", xml);
-		mapDirectAnnotations(filteredConstAnnos, xml);
+	public void mapAnnotations(Collection<SAnnotation> annotations, LayerWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
+		mapWrappedAnnotations(annotations, MORPHO_ANNOS, "lex", xml);
+		mapDirectAnnotations(annotations, CONSTITUENCY_ANNOS, xml);
 	}
 
 	@Override
-	public void mapRelations(SStructuredNode node, XMLStreamWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
+	public void mapRelations(SStructuredNode node, TextOffsetIndex offsets, DocumentIds ids, LayerWriter xml,
+			KorapXMLExporterProperties props) throws XMLStreamException {
 		List<SRelation> outRels = node.getOutRelations();
 
 		if (outRels != null) {
 			for (SRelation rel : outRels) {
 				if(rel instanceof SDominanceRelation) {
-					mapRelation(rel, "dominates", "morpho", xml, props);
+					mapRelation(rel, "dominates", "morpho", ids, xml, props);
 				}
 			}
 		}
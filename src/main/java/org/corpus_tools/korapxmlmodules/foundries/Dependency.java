@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules.foundries;
+
+import java.util.Collection;
+import java.util.List;
+import javax.xml.stream.XMLStreamException;
+import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.KorapXMLMapper.NS_URI;
+import org.corpus_tools.korapxmlmodules.AnnotationMatcher;
+import org.corpus_tools.korapxmlmodules.DocumentIds;
+import org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties;
+import org.corpus_tools.korapxmlmodules.LayerOutput;
+import org.corpus_tools.korapxmlmodules.LayerWriter;
+import org.corpus_tools.korapxmlmodules.NodeSelection;
+import org.corpus_tools.korapxmlmodules.TextOffsetIndex;
+import org.corpus_tools.salt.common.SPointingRelation;
+import org.corpus_tools.salt.common.SStructuredNode;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.core.SAnnotation;
+import org.corpus_tools.salt.core.SNode;
+import org.corpus_tools.salt.core.SRelation;
+
+/**
+ * Maps dependency trees, given as pointing relations between tokens, to the "dependency" layer.
+ *
+ * Each token with outgoing pointing relations becomes a span with one "rel" element per relation. The target refers
+ * to the token in the base token layer, with its ID taken from the {@link DocumentIds} of the document, and the
+ * target span is repeated with its offsets, as in the dependency layers produced by KorAP. Relations whose target is not a token of the same text are not exported, the
+ * target could not be resolved in this layer.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class Dependency extends Foundry {
+
+	/**
+	 * The layer all tokens and their IDs are written to, the targets of the relations refer to it.
+	 */
+	private static final String TOKEN_FILE = "base/token";
+
+	@Override
+	public void map(LayerOutput output, NodeSelection nodes, TextOffsetIndex offsets, DocumentIds ids,
+			KorapXMLExporterProperties properties) {
+
+		try (SpanLayer dependency = openSpanLayer(output, properties.getDependencyFoundry(), "dependency", offsets,
+				ids, properties)) {
+			for (SToken tok : nodes.getTokens().all()) {
+				if (hasExportedRelation(tok, offsets)) {
+					dependency.add(tok);
+				}
+			}
+		}
+	}
+
+	private static boolean hasExportedRelation(SNode node, TextOffsetIndex offsets) {
+		List<SRelation> outRels = node.getOutRelations();
+		if (outRels != null) {
+			for (SRelation rel : outRels) {
+				if (isExported(rel, offsets)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param rel
+	 * @param offsets
+	 * @return True if the relation is a pointing relation to a token of the text.
+	 */
+	private static boolean isExported(SRelation rel, TextOffsetIndex offsets) {
+		if (rel instanceof SPointingRelation) {
+			SNode target = ((SPointingRelation) rel).getTarget();
+			return target instanceof SToken && offsets.getOrdinal(target) != TextOffsetIndex.NOT_FOUND;
+		}
+		return false;
+	}
+
+	@Override
+	public void mapAnnotations(Collection<SAnnotation> annotations, LayerWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
+		// the token annotations belong to the morpho layers
+	}
+
+	@Override
+	public void mapRelations(SStructuredNode node, TextOffsetIndex offsets, DocumentIds ids, LayerWriter xml,
+			KorapXMLExporterProperties props) throws XMLStreamException {
+		List<SRelation> outRels = node.getOutRelations();
+		if (outRels == null) {
+			return;
+		}
+
+		AnnotationMatcher labelMatcher = props.getDependencyLabelMatcher();
+		for (SRelation rel : outRels) {
+			if (isExported(rel, offsets)) {
+				SNode target = ((SPointingRelation) rel).getTarget();
+
+				xml.indent(3);
+				xml.writeStartElement(NS_URI, "rel");
+				String label = getLabel((SPointingRelation) rel, labelMatcher);
+				if (label != null) {
+					xml.writeAttribute("label", label);
+				}
+				// the target token is in another file, like the relation targets of Foundry.mapRelation()
+				xml.writeAttribute("target", TOKEN_FILE + "#" + ids.get(target));
+
+				int ordinal = offsets.getOrdinal(target);
+				xml.indent(4);
+				xml.writeStartElement(NS_URI, "span");
+				xml.writeAttribute("from", offsets.getStart(ordinal));
+				xml.writeAttribute("to", offsets.getEnd(ordinal));
+				xml.writeEndElement(); // </span>
+				xml.indent(3);
+				xml.writeEndElement(); // </rel>
+			}
+		}
+	}
+
+	/**
+	 * @param rel
+	 * @param labelMatcher
+	 * @return The value of the label annotation or the type of the relation if it has no such annotation.
+	 */
+	private static String getLabel(SPointingRelation rel, AnnotationMatcher labelMatcher) {
+		for (SAnnotation anno : rel.getAnnotations()) {
+			if (labelMatcher.matches(anno)) {
+				return anno.getValue_STEXT();
+			}
+		}
+		return rel.getType();
+	}
+}
@@ -15,140 +15,95 @@
  */
 package org.corpus_tools.korapxmlmodules.foundries;
 
-import com.google.common.base.Strings;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.logging.Level;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.KorapXMLMapper.KORAP_VERSION;
 import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.KorapXMLMapper.NS_URI;
-import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.outputFactory;
+import org.corpus_tools.korapxmlmodules.AnnotationMatcher;
+import org.corpus_tools.korapxmlmodules.DocumentIds;
 import org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties;
-import org.corpus_tools.pepper.exceptions.PepperConvertException;
-import org.corpus_tools.salt.SALT_TYPE;
+import org.corpus_tools.korapxmlmodules.LayerOutput;
+import org.corpus_tools.korapxmlmodules.LayerWriter;
+import org.corpus_tools.korapxmlmodules.NodeSelection;
+import org.corpus_tools.korapxmlmodules.TextOffsetIndex;
 import org.corpus_tools.salt.common.SStructuredNode;
-import org.corpus_tools.salt.common.STextualDS;
 import org.corpus_tools.salt.common.SToken;
 import org.corpus_tools.salt.core.SAnnotation;
-import org.corpus_tools.salt.core.SNode;
 import org.corpus_tools.salt.core.SRelation;
-import org.corpus_tools.salt.util.DataSourceSequence;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  *
  * @author Thomas Krause <thomaskrause@posteo.de>
  */
-public abstract class Foundry {
-
-	private static final Logger log = LoggerFactory.getLogger(Foundry.class);
-
-	public abstract void map(File textDir, Collection<SNode> nodes, STextualDS text, KorapXMLExporterProperties properties);
-
-	protected String getDocID(STextualDS text) {
-		String textName = text.getName();
-		String[] docPath = text.getGraph().getPath().segments();
-
-		if (docPath.length >= 2) {
-			return docPath[0].replaceAll("[._]", "") + "_" + docPath[docPath.length - 1].replaceAll("[._]", "") + "." + textName.replaceAll("[._]", "");
-		} else {
-			throw new PepperConvertException("Can't generate a valid document ID because the corpus path is invalid.");
-		}
+public abstract class Foundry implements SpanLayer.Mapping {
+
+	/**
+	 * The annotations of a node grouped by their namespace, reused for all nodes mapped by a thread.
+	 */
+	private static final ThreadLocal<AnnotationGroups> GROUPS = ThreadLocal.withInitial(AnnotationGroups::new);
+
+	/**
+	 * @return The name used to reference this foundry in the "foundryMapping" property.
+	 */
+	public String getName() {
+		return getClass().getSimpleName();
 	}
 
-	protected void mapSpans(File textDir, String foundry, String annoName,
-			Collection<? extends SStructuredNode> nodes,
-			STextualDS text, KorapXMLExporterProperties props) {
-		if (nodes == null || nodes.isEmpty()) {
-			log.warn("Nothing to map for span layer \"" + foundry + "#" + annoName + "\" in text " + text.getId());
-			return;
-		}
-
-		File foundryDir = new File(textDir, foundry);
-		if (!foundryDir.exists()) {
-			if (!foundryDir.exists() && !foundryDir.mkdirs()) {
-				log.error("Can't create output folder for foundry \"" + foundry + "\".");
-				return;
+	public abstract void map(LayerOutput output, NodeSelection nodes, TextOffsetIndex offsets, DocumentIds ids,
+			KorapXMLExporterProperties properties);
 
+	/**
+	 * Writes all nodes to a span layer.
+	 *
+	 * @see #openSpanLayer
+	 */
+	protected void mapSpans(LayerOutput output, String foundry, String annoName,
+			Collection<? extends SStructuredNode> nodes,
+			TextOffsetIndex offsets, DocumentIds ids, KorapXMLExporterProperties props) {
+		try (SpanLayer layer = openSpanLayer(output, foundry, annoName, offsets, ids, props)) {
+			for (SStructuredNode node : nodes) {
+				layer.add(node);
 			}
 		}
-		File outFile = new File(foundryDir, annoName + ".xml");
-		try (FileOutputStream tokenXMLStream = new FileOutputStream(outFile)) {
-			XMLStreamWriter xml = outputFactory.createXMLStreamWriter(tokenXMLStream, "UTF-8");
-			xml.writeStartDocument("UTF-8", "1.0");
-			xml.setDefaultNamespace(NS_URI);
-
-			indent(0, xml);
-			xml.writeStartElement(NS_URI, "layer");
-			xml.writeAttribute("docid", getDocID(text));
-			xml.writeAttribute("version", KORAP_VERSION);
-
-			indent(1, xml);
-			xml.writeStartElement(NS_URI, "spanList");
-
-			nodes.forEach((node)
-					-> {
-
-				List<DataSourceSequence> sequences
-						= text.getGraph().getOverlappedDataSourceSequence(node, SALT_TYPE.SSPANNING_RELATION,
-								SALT_TYPE.STEXT_OVERLAPPING_RELATION);
-
-				if (sequences.size() == 1) {
-
-					try {
-
-						indent(2, xml);
-						xml.writeStartElement(NS_URI, "span");
-						xml.writeAttribute("id", node.getPath().fragment());
-						xml.writeAttribute("from", "" + sequences.get(0).getStart());
-						xml.writeAttribute("to", "" + sequences.get(0).getEnd());
-
-						mapAnnotations(node.getAnnotations(), xml, props);
-						mapRelations(node, xml, props);
-
-						indent(2, xml);
-						xml.writeEndElement(); // </span>
-					} catch (XMLStreamException ex) {
-						log.error("Could not map span " + node.getId(), ex);
-					}
-				} else {
-					log.warn("Invalid size " + sequences.size() + " of data source sequences for span " + node.getId());
-				}
-
-			});
-
-			indent(1, xml);
-			xml.writeEndElement(); // end "spanList"
-			indent(0, xml);
-			xml.writeEndElement(); // end "layer"
-			xml.writeEndDocument();
-
-			xml.flush();
-			xml.close();
+	}
 
-		} catch (IOException | XMLStreamException ex) {
-			log.error("Could not create file \"" + foundry + "/" + annoName + ".xml\" for document " + text.getGraph().getId(), ex);
-		}
+	/**
+	 * Creates a span layer the nodes can be added to while they are selected, the annotations and relations are
+	 * mapped with {@link #mapAnnotations} and {@link #mapRelations}. The file is only opened when the first node is
+	 * added.
+	 *
+	 * @param output
+	 * @param foundry
+	 * @param annoName
+	 * @param offsets
+	 * @param ids
+	 * @param props
+	 * @return The layer, it must be closed when all nodes are added.
+	 */
+	protected SpanLayer openSpanLayer(LayerOutput output, String foundry, String annoName,
+			TextOffsetIndex offsets, DocumentIds ids, KorapXMLExporterProperties props) {
+		return openSpanLayer(output, foundry, annoName, offsets, ids, props, this);
+	}
 
+	/**
+	 * Creates a span layer whose span elements are written by the given mapping instead of this foundry.
+	 *
+	 * @see #openSpanLayer(LayerOutput, String, String, TextOffsetIndex, DocumentIds, KorapXMLExporterProperties)
+	 */
+	protected SpanLayer openSpanLayer(LayerOutput output, String foundry, String annoName,
+			TextOffsetIndex offsets, DocumentIds ids, KorapXMLExporterProperties props, SpanLayer.Mapping mapping) {
+		return new SpanLayer(mapping, output, foundry, annoName, offsets, ids, props);
 	}
 	
 	protected void mapRelation(SRelation<?,?> rel, 
-			String label, String tokenFile,
-			XMLStreamWriter xml, KorapXMLExporterProperties props)
+			String label, String tokenFile, DocumentIds ids,
+			LayerWriter xml, KorapXMLExporterProperties props)
 		throws XMLStreamException {
 		
-		indent(3, xml);
+		xml.indent(3);
 		xml.writeStartElement(NS_URI, "rel");
 		xml.writeAttribute("label", label);
-		String target = rel.getTarget().getPath().fragment();
+		String target = ids.get(rel.getTarget());
 		if(rel.getTarget() instanceof SToken) {
 			// the token in in another file
 			target = tokenFile + "#" + target;
@@ -157,84 +112,178 @@ public abstract class Foundry {
 		xml.writeEndElement();
 	}
 	
-	public void mapRelations(SStructuredNode node, XMLStreamWriter xml, KorapXMLExporterProperties props)
+	@Override
+	public void mapRelations(SStructuredNode node, TextOffsetIndex offsets, DocumentIds ids, LayerWriter xml,
+			KorapXMLExporterProperties props)
 		throws XMLStreamException {
 		// default is not to map any relation
 	}
 
-	public void mapAnnotations(Collection<SAnnotation> annotations, XMLStreamWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
+	@Override
+	public void mapAnnotations(Collection<SAnnotation> annotations, LayerWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
 		mapDirectAnnotations(annotations, xml);
 	}
 
-	protected final void mapDirectAnnotations(Collection<SAnnotation> annotations, XMLStreamWriter xml) throws XMLStreamException {
+	protected final void mapDirectAnnotations(Collection<SAnnotation> annotations, LayerWriter xml) throws XMLStreamException {
+		mapDirectAnnotations(annotations, null, xml);
+	}
+
+	/**
+	 * Maps the annotations as feature structures, one for each namespace.
+	 *
+	 * @param annotations
+	 * @param filter Only annotations matched by one of these matchers are mapped, all if null.
+	 * @param xml
+	 * @throws XMLStreamException
+	 */
+	protected final void mapDirectAnnotations(Collection<SAnnotation> annotations, AnnotationMatcher[] filter,
+			LayerWriter xml) throws XMLStreamException {
 		if (xml != null && annotations != null && !annotations.isEmpty()) {
 
 			// group the annotations by their namespace (this will become the type of the feature structure)
-			Multimap<String, SAnnotation> annosByNamspace
-					= Multimaps.index(annotations, anno -> anno.getNamespace() == null ? "" : anno.getNamespace());
+			AnnotationGroups groups = GROUPS.get().group(annotations, filter);
 			// write a feature structure for each namespace
-			for (Map.Entry<String, Collection<SAnnotation>> entry : annosByNamspace.asMap().entrySet()) {
+			for (int g = groups.nextGroup(0); g < groups.size; g = groups.nextGroup(g + 1)) {
 
-				indent(3, xml);
+				xml.indent(3);
 				xml.writeStartElement(NS_URI, "fs");
-				xml.writeAttribute("type", entry.getKey());
-				for (SAnnotation anno : entry.getValue()) {
-					indent(4, xml);
+				xml.writeAttribute("type", groups.namespace(g));
+				for (int i = g; i < groups.size; i = groups.nextInGroup(g, i + 1)) {
+					SAnnotation anno = groups.annotations[i];
+					xml.indent(4);
 					xml.writeStartElement(NS_URI, "f");
 					xml.writeAttribute("name", anno.getName());
 					xml.writeCharacters(anno.getValue_STEXT());
 					xml.writeEndElement(); // </f>
 				}
-				indent(3, xml);
+				xml.indent(3);
 				xml.writeEndElement(); // </fs>
 			}
 
 		}
 	}
 
-	protected final void mapWrappedAnnotations(Collection<SAnnotation> annotations, String type, XMLStreamWriter xml) throws XMLStreamException {
+	protected final void mapWrappedAnnotations(Collection<SAnnotation> annotations, String type, LayerWriter xml) throws XMLStreamException {
+		mapWrappedAnnotations(annotations, null, type, xml);
+	}
+
+	/**
+	 * Maps the annotations as feature structures of the given type which wrap a feature structure for each namespace.
+	 *
+	 * @param annotations
+	 * @param filter Only annotations matched by one of these matchers are mapped, all if null.
+	 * @param type
+	 * @param xml
+	 * @throws XMLStreamException
+	 */
+	protected final void mapWrappedAnnotations(Collection<SAnnotation> annotations, AnnotationMatcher[] filter,
+			String type, LayerWriter xml) throws XMLStreamException {
 		if (xml != null && annotations != null && !annotations.isEmpty()) {
 
 			// group the annotations by their namespace (this will become the type of the feature structure)
-			Multimap<String, SAnnotation> annosByNamspace
-					= Multimaps.index(annotations, anno -> anno.getNamespace() == null ? "" : anno.getNamespace());
+			AnnotationGroups groups = GROUPS.get().group(annotations, filter);
 			// write a feature structure for each namespace
-			for (Map.Entry<String, Collection<SAnnotation>> entry : annosByNamspace.asMap().entrySet()) {
+			for (int g = groups.nextGroup(0); g < groups.size; g = groups.nextGroup(g + 1)) {
 
-				indent(3, xml);
+				xml.indent(3);
 				xml.writeStartElement(NS_URI, "fs");
 				xml.writeAttribute("type", type);
 
-				indent(4, xml);
+				xml.indent(4);
 				xml.writeStartElement(NS_URI, "f");
 				xml.writeAttribute("name", type);
 
-				indent(5, xml);
+				xml.indent(5);
 				xml.writeStartElement(NS_URI, "fs");
-				xml.writeAttribute("type", entry.getKey());
-				for (SAnnotation anno : entry.getValue()) {
-					indent(6, xml);
+				xml.writeAttribute("type", groups.namespace(g));
+				for (int i = g; i < groups.size; i = groups.nextInGroup(g, i + 1)) {
+					SAnnotation anno = groups.annotations[i];
+					xml.indent(6);
 					xml.writeStartElement(NS_URI, "f");
 					xml.writeAttribute("name", anno.getName());
 					xml.writeCharacters(anno.getValue_STEXT());
 					xml.writeEndElement(); // </f>
 				}
-				indent(5, xml);
+				xml.indent(5);
 				xml.writeEndElement(); // </fs>
-				indent(4, xml);
+				xml.indent(4);
 				xml.writeEndElement(); // </f>
-				indent(3, xml);
+				xml.indent(3);
 				xml.writeEndElement(); // </fs>
 			}
 
 		}
 	}
 
-	protected final void indent(int nr, XMLStreamWriter xml) {
-		try {
-			xml.writeCharacters("\n" + Strings.repeat("\t", nr));
-		} catch (XMLStreamException ex) {
-			java.util.logging.Logger.getLogger(Foundry.class.getName()).log(Level.SEVERE, null, ex);
+	/**
+	 * Groups the annotations of a node by namespace without allocating a map. The groups keep the order in which
+	 * their namespaces first occur and the annotations of a group keep their order. A group is identified by the
+	 * index of its first annotation.
+	 */
+	private static class AnnotationGroups {
+
+		SAnnotation[] annotations = new SAnnotation[8];
+		String[] namespaces = new String[8];
+		/**
+		 * The index of the first annotation of the group of each annotation.
+		 */
+		int[] group = new int[8];
+		int size;
+
+		AnnotationGroups group(Collection<SAnnotation> source, AnnotationMatcher[] filter) {
+			// clear the references of the previous node
+			Arrays.fill(annotations, 0, size, null);
+			Arrays.fill(namespaces, 0, size, null);
+			size = 0;
+			for (SAnnotation anno : source) {
+				if (filter != null && !AnnotationMatcher.matchesAny(filter, anno)) {
+					continue;
+				}
+				if (size == annotations.length) {
+					annotations = Arrays.copyOf(annotations, size * 2);
+					namespaces = Arrays.copyOf(namespaces, size * 2);
+					group = Arrays.copyOf(group, size * 2);
+				}
+				String ns = anno.getNamespace() == null ? "" : anno.getNamespace();
+				int g = size;
+				for (int i = 0; i < size; i++) {
+					if (group[i] == i && namespaces[i].equals(ns)) {
+						g = i;
+						break;
+					}
+				}
+				annotations[size] = anno;
+				namespaces[size] = ns;
+				group[size] = g;
+				size++;
+			}
+			return this;
+		}
+
+		String namespace(int g) {
+			return namespaces[g];
+		}
+
+		/**
+		 * @return The first group starting at the index or {@link #size} if there is none.
+		 */
+		int nextGroup(int from) {
+			int i = from;
+			while (i < size && group[i] != i) {
+				i++;
+			}
+			return i;
+		}
+
+		/**
+		 * @return The next annotation of the group starting at the index or {@link #size} if there is none.
+		 */
+		int nextInGroup(int g, int from) {
+			int i = from;
+			while (i < size && group[i] != g) {
+				i++;
+			}
+			return i;
 		}
 	}
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules.foundries;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the {@link Foundry} implementation for a name used in the "foundryMapping" property.
+ *
+ * Foundries are registered as services of type {@link Foundry} (see {@link ServiceLoader}) and are found by
+ * {@link Foundry#getName() }, this allows foundries outside of this package. For compatibility a name can also be
+ * the simple class name of a foundry in this package or a fully qualified class name.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class FoundryRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(FoundryRegistry.class);
+
+	private final Map<String, Foundry> registered = new HashMap<>();
+
+	public FoundryRegistry() {
+		this(Foundry.class.getClassLoader());
+	}
+
+	public FoundryRegistry(ClassLoader classLoader) {
+		try {
+			for (Foundry f : ServiceLoader.load(Foundry.class, classLoader)) {
+				registered.putIfAbsent(f.getName(), f);
+			}
+		} catch (ServiceConfigurationError ex) {
+			log.warn("Could not load the registered foundries: {}", ex.getMessage());
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return The foundry with the given name or null if there is none.
+	 */
+	public Foundry get(String name) {
+		Foundry result = registered.get(name);
+		if (result == null) {
+			String className = name.contains(".") ? name : Foundry.class.getPackage().getName() + "." + name;
+			try {
+				Class<? extends Foundry> foundryClass = Class.forName(className).asSubclass(Foundry.class);
+				result = foundryClass.newInstance();
+				registered.put(name, result);
+			} catch (ClassNotFoundException | ClassCastException | InstantiationException | IllegalAccessException ex) {
+				log.debug("Can't find the foundry with name {}: {}", name, ex.getMessage());
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 Humboldt-Universität zu Berlin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.corpus_tools.korapxmlmodules.foundries;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.Collection;
+import javax.xml.stream.XMLStreamException;
+import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.KorapXMLMapper.KORAP_VERSION;
+import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.KorapXMLMapper.NS_URI;
+import org.corpus_tools.korapxmlmodules.DocumentIds;
+import org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties;
+import org.corpus_tools.korapxmlmodules.KrillText;
+import org.corpus_tools.korapxmlmodules.LayerOutput;
+import org.corpus_tools.korapxmlmodules.LayerRecorder;
+import org.corpus_tools.korapxmlmodules.LayerWriter;
+import org.corpus_tools.korapxmlmodules.TextOffsetIndex;
+import org.corpus_tools.pepper.exceptions.PepperConvertException;
+import org.corpus_tools.salt.common.SStructuredNode;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.core.SAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A span layer file the nodes are added to while they are selected.
+ *
+ * Adding a node only marks its ordinal in the {@link TextOffsetIndex}, so a foundry does not need to collect the nodes
+ * of a layer and several layers can be selected in a single pass over the nodes. The additional memory is one bit per
+ * node of the text. When the layer is closed, the marked nodes are written in the order of the index, sorted by their
+ * offsets and depth, so the file does not depend on the order the nodes were added in. If no node was added, no file
+ * is created. Use {@link Foundry#openSpanLayer} to create a layer and close it when all nodes are added. The content
+ * of the span elements is written by a {@link Mapping}, which is the foundry itself unless another one is given.
+ *
+ * @author Thomas Krause <thomaskrause@posteo.de>
+ */
+public class SpanLayer implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(SpanLayer.class);
+
+	/**
+	 * Writes the attributes, annotations and relations of the span elements of a layer.
+	 */
+	public interface Mapping {
+
+		/**
+		 * Writes additional attributes of a span element, it is called after the "id", "from" and "to" attributes are
+		 * written.
+		 *
+		 * @param node
+		 * @param ordinal The ordinal of the node in the {@link TextOffsetIndex} of the layer.
+		 * @param xml
+		 * @param props
+		 * @throws XMLStreamException
+		 */
+		default void mapAttributes(SStructuredNode node, int ordinal, LayerWriter xml,
+				KorapXMLExporterProperties props) throws XMLStreamException {
+			// default is not to add any attribute
+		}
+
+		void mapAnnotations(Collection<SAnnotation> annotations, LayerWriter xml, KorapXMLExporterProperties props)
+				throws XMLStreamException;
+
+		default void mapRelations(SStructuredNode node, TextOffsetIndex offsets, DocumentIds ids, LayerWriter xml,
+				KorapXMLExporterProperties props) throws XMLStreamException {
+			// default is not to map any relation
+		}
+	}
+
+	private final Mapping mapping;
+	private final LayerOutput output;
+	private final String foundryName;
+	private final String annoName;
+	private final String path;
+	private final TextOffsetIndex offsets;
+	private final DocumentIds ids;
+	private final KorapXMLExporterProperties props;
+
+	private final BitSet selected = new BitSet();
+	private int uncovered = 0;
+
+	private OutputStream stream;
+	private LayerWriter xml;
+	private LayerRecorder recorder;
+	private boolean closed = false;
+
+	SpanLayer(Mapping mapping, LayerOutput output, String foundryName, String annoName,
+			TextOffsetIndex offsets, DocumentIds ids, KorapXMLExporterProperties props) {
+		this.mapping = mapping;
+		this.output = output;
+		this.foundryName = foundryName;
+		this.annoName = annoName;
+		this.path = foundryName + "/" + annoName + ".xml";
+		this.offsets = offsets;
+		this.ids = ids;
+		this.props = props;
+	}
+
+	private void open() {
+		STextualDS text = offsets.getText();
+		try {
+			stream = output.open(path);
+			recorder = LayerRecorder.of(stream);
+			xml = LayerWriter.create(stream, props);
+			xml.writeStartDocument();
+			xml.setDefaultNamespace(NS_URI);
+
+			xml.indent(0);
+			xml.writeStartElement(NS_URI, "layer");
+			xml.writeAttribute("docid", ids.getDocID(text));
+			xml.writeAttribute("version", KORAP_VERSION);
+
+			xml.indent(1);
+			xml.writeStartElement(NS_URI, "spanList");
+		} catch (IOException | XMLStreamException ex) {
+			discardStream();
+			throw new PepperConvertException("Could not create file \"" + path + "\" for document "
+					+ text.getGraph().getId(), ex);
+		}
+	}
+
+	/**
+	 * Adds the node to this layer, it is written when the layer is closed.
+	 *
+	 * @param node
+	 */
+	public void add(SStructuredNode node) {
+		int ordinal = offsets.getOrdinal(node);
+		if (ordinal == TextOffsetIndex.NOT_FOUND) {
+			log.warn("Span " + node.getId() + " does not cover text " + offsets.getText().getId());
+			uncovered++;
+		} else {
+			selected.set(ordinal);
+		}
+	}
+
+	/**
+	 * @return The number of distinct nodes added so far.
+	 */
+	public int size() {
+		return selected.cardinality();
+	}
+
+	/**
+	 * Writes the spans of all added nodes, or logs a warning if no node was added.
+	 *
+	 * @throws PepperConvertException If the file can't be written, an incomplete file is discarded.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		if (selected.isEmpty() && uncovered == 0) {
+			log.warn("Nothing to map for span layer \"" + path + "\" in text " + offsets.getText().getId());
+			LayerRecorder.of(output).warning();
+			return;
+		}
+		open();
+		KrillText krill = KrillText.of(output);
+		KrillText.Layer krillLayer = krill == null ? null : krill.createLayer(foundryName, annoName);
+		try {
+			for (int i = 0; i < uncovered; i++) {
+				recorder.warning();
+			}
+			for (int rank = 0; rank < offsets.size(); rank++) {
+				int ordinal = offsets.getSortedOrdinal(rank);
+				if (selected.get(ordinal)) {
+					write((SStructuredNode) offsets.getNode(ordinal), ordinal, krillLayer);
+				}
+			}
+			if (krillLayer != null) {
+				krillLayer.close();
+			}
+
+			xml.indent(1);
+			xml.writeEndElement(); // end "spanList"
+			xml.indent(0);
+			xml.writeEndElement(); // end "layer"
+			xml.writeEndDocument();
+
+			xml.flush();
+			xml.close();
+		} catch (XMLStreamException | RuntimeException ex) {
+			discardStream();
+			throw new PepperConvertException("Could not create file \"" + path + "\" for document "
+					+ offsets.getText().getGraph().getId(), ex);
+		} finally {
+			xml = null;
+		}
+		try {
+			stream.close();
+		} catch (IOException ex) {
+			throw new PepperConvertException("Could not create file \"" + path + "\" for document "
+					+ offsets.getText().getGraph().getId(), ex);
+		} finally {
+			stream = null;
+		}
+	}
+
+	/**
+	 * @throws XMLStreamException If the span can't be written, the layer is incomplete and must be discarded.
+	 */
+	private void write(SStructuredNode node, int ordinal, KrillText.Layer krillLayer) throws XMLStreamException {
+		try {
+			xml.indent(2);
+			xml.writeStartElement(NS_URI, "span");
+			xml.writeAttribute("id", ids.get(node));
+			xml.writeAttribute("from", offsets.getStart(ordinal));
+			xml.writeAttribute("to", offsets.getEnd(ordinal));
+			mapping.mapAttributes(node, ordinal, xml, props);
+
+			mapping.mapAnnotations(node.getAnnotations(), xml, props);
+			mapping.mapRelations(node, offsets, ids, xml, props);
+
+			xml.indent(2);
+			xml.writeEndElement(); // </span>
+			recorder.span();
+
+			if (krillLayer != null) {
+				// the Krill terms are created from the same features as the XML
+				krillLayer.beginSpan(offsets.getStart(ordinal), offsets.getEnd(ordinal), node instanceof SToken);
+				mapping.mapAnnotations(node.getAnnotations(), krillLayer.features(), props);
+				krillLayer.endSpan();
+			}
+		} catch (XMLStreamException ex) {
+			// the span element is still open, so the file can't be finished
+			throw new XMLStreamException("Could not map span " + node.getId(), ex);
+		}
+	}
+
+	private void discardStream() {
+		if (stream != null) {
+			LayerOutput.discard(stream);
+			stream = null;
+		}
+	}
+}
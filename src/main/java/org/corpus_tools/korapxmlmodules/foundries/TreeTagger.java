@@ -15,17 +15,17 @@
  */
 package org.corpus_tools.korapxmlmodules.foundries;
 
-import java.io.File;
 import java.util.Collection;
-import java.util.List;
-import java.util.stream.Collectors;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import org.corpus_tools.korapxmlmodules.AnnotationMatcher;
+import org.corpus_tools.korapxmlmodules.DocumentIds;
 import org.corpus_tools.korapxmlmodules.KorapXMLExporterProperties;
-import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.korapxmlmodules.LayerOutput;
+import org.corpus_tools.korapxmlmodules.LayerWriter;
+import org.corpus_tools.korapxmlmodules.NodeSelection;
+import org.corpus_tools.korapxmlmodules.TextOffsetIndex;
 import org.corpus_tools.salt.common.SToken;
 import org.corpus_tools.salt.core.SAnnotation;
-import org.corpus_tools.salt.core.SNode;
 
 /**
  *
@@ -34,28 +34,28 @@ import org.corpus_tools.salt.core.SNode;
 public class TreeTagger extends Foundry {
 
 	@Override
-	public void map(File textDir, Collection<SNode> nodes, STextualDS text, KorapXMLExporterProperties properties) {
-
-		String lemmaQName = properties.getTreeTaggerLemma();
-		String posQName = properties.getTreeTaggerPOS();
-
-		List<SToken> tokenWithAnno
-				= nodes.parallelStream().filter(SToken.class::isInstance)
-						.map(n -> (SToken) n)
-						.filter(tok -> tok.getAnnotation(lemmaQName) != null || tok.getAnnotation(posQName) != null)
-						.collect(Collectors.toList());
-
-		mapSpans(textDir, "tree_tagger", "morpho", tokenWithAnno, text, properties);
+	public void map(LayerOutput output, NodeSelection nodes, TextOffsetIndex offsets, DocumentIds ids,
+			KorapXMLExporterProperties properties) {
+
+		AnnotationMatcher[] matchers = properties.getTreeTaggerMatchers();
+
+		try (SpanLayer morpho = openSpanLayer(output, "tree_tagger", "morpho", offsets, ids, properties)) {
+			for (SToken tok : nodes.getTokens().all()) {
+				for (SAnnotation anno : tok.getAnnotations()) {
+					if (AnnotationMatcher.matchesAny(matchers, anno)) {
+						morpho.add(tok);
+						break;
+					}
+				}
+			}
+		}
 
 	}
 
 	@Override
-	public void mapAnnotations(Collection<SAnnotation> annotations, XMLStreamWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
-		List<SAnnotation> filteredAnnos = annotations.stream().filter(anno -> 
-				anno.getQName().equals(props.getTreeTaggerLemma()) || anno.getQName().equals(props.getTreeTaggerPOS()))
-				.collect(Collectors.toList());
-		mapWrappedAnnotations(filteredAnnos, "lex", xml);
+	public void mapAnnotations(Collection<SAnnotation> annotations, LayerWriter xml, KorapXMLExporterProperties props) throws XMLStreamException {
+		mapWrappedAnnotations(annotations, props.getTreeTaggerMatchers(), "lex", xml);
 	}
 	
-	
+
 }
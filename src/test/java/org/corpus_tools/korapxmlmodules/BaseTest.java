@@ -0,0 +1,125 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.korapxmlmodules.foundries.Base;
+import org.corpus_tools.korapxmlmodules.foundries.Foundry;
+import org.corpus_tools.korapxmlmodules.foundries.SpanLayer;
+import org.corpus_tools.pepper.exceptions.PepperConvertException;
+import org.corpus_tools.salt.SaltFactory;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SDominanceRelation;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.core.SAnnotation;
+import org.junit.Test;
+
+/**
+ * Checks the levels of the "base/structure" layer and the span layers written by the foundries.
+ *
+ * @author Thomas Krause
+ */
+public class BaseTest {
+
+	@Test
+	public void test_coextensiveLevels() {
+		// a single sentence, which is also the paragraph
+		SDocumentGraph graph = SyntheticCorpus.createDocument(SyntheticCorpus.SENTENCE_LENGTH, 0).getDocumentGraph();
+		STextualDS text = graph.getTextualDSs().get(0);
+		SSpan sentence = graph.getSpans().get(0);
+
+		// a root structure over the sentence with the same offsets
+		SStructure root = SaltFactory.createSStructure();
+		root.createAnnotation(null, "cat", "ROOT");
+		graph.addNode(root);
+		SDominanceRelation dom = SaltFactory.createSDominanceRelation();
+		dom.setSource(root);
+		dom.setTarget(sentence);
+		graph.addRelation(dom);
+
+		TokenTable tokenTable = TokenTable.partition(graph).get(text);
+		TextOffsetIndex offsets = new TextOffsetIndex(tokenTable);
+		DocumentIds ids = new DocumentIds(graph);
+		NodeSelection nodes = new DocumentNodeView(graph, Collections.singletonList(offsets),
+				Collections.singleton(FoundryPlan.ALL_LAYERS)).get(text, FoundryPlan.ALL_LAYERS);
+		assertEquals(offsets.getStart(offsets.getOrdinal(sentence)), offsets.getStart(offsets.getOrdinal(root)));
+		assertEquals(offsets.getEnd(offsets.getOrdinal(sentence)), offsets.getEnd(offsets.getOrdinal(root)));
+
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+		props.setPropertyValue("output.prettyPrint", false);
+		Map<String, ByteArrayOutputStream> files = new HashMap<>();
+		new Base().map(p -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			files.put(p, out);
+			return out;
+		}, nodes, offsets, ids, props);
+		String xml = new String(files.get("base/structure.xml").toByteArray(), StandardCharsets.UTF_8);
+
+		// the root is written first and is the outermost element, the sentence is nested directly below it
+		String range = "from=\"0\" to=\"" + tokenTable.getEnd(tokenTable.size() - 1) + "\"";
+		String rootSpan = "<span id=\"" + ids.get(root) + "\" " + range + " l=\"1\">";
+		String sentenceSpan = "<span id=\"" + ids.get(sentence) + "\" " + range + " l=\"2\">";
+		assertTrue(xml, xml.contains(rootSpan));
+		assertTrue(xml, xml.contains(sentenceSpan));
+		assertTrue(xml, xml.indexOf(rootSpan) < xml.indexOf(sentenceSpan));
+	}
+
+	@Test
+	public void test_failedSpan() {
+		SDocumentGraph graph = SyntheticCorpus.createDocument(SyntheticCorpus.SENTENCE_LENGTH, 0).getDocumentGraph();
+		STextualDS text = graph.getTextualDSs().get(0);
+		TextOffsetIndex offsets = new TextOffsetIndex(TokenTable.partition(graph).get(text));
+		DocumentIds ids = new DocumentIds(graph);
+
+		Foundry failing = new Foundry() {
+			@Override
+			public void map(LayerOutput output, NodeSelection nodes, TextOffsetIndex offsets, DocumentIds ids,
+					KorapXMLExporterProperties properties) {
+				try (SpanLayer layer = openSpanLayer(output, "test", "morpho", offsets, ids, properties)) {
+					layer.add(graph.getTokens().get(0));
+				}
+			}
+
+			@Override
+			public void mapAnnotations(Collection<SAnnotation> annotations, LayerWriter xml,
+					KorapXMLExporterProperties props) throws XMLStreamException {
+				throw new XMLStreamException("failed");
+			}
+		};
+
+		boolean[] discarded = {false};
+		LayerOutput output = p -> new DiscardableStream(discarded);
+		try {
+			failing.map(output, null, offsets, ids, new KorapXMLExporterProperties());
+			fail("A span that can't be written must fail the layer");
+		} catch (PepperConvertException ex) {
+			// expected
+		}
+		// the span element is still open, so the incomplete file is not committed
+		assertTrue(discarded[0]);
+	}
+
+	private static class DiscardableStream extends ByteArrayOutputStream implements LayerOutput.Discardable {
+
+		private final boolean[] discarded;
+
+		DiscardableStream(boolean[] discarded) {
+			this.discarded = discarded;
+		}
+
+		@Override
+		public void discard() {
+			discarded[0] = true;
+		}
+	}
+}
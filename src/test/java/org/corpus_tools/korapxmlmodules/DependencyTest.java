@@ -0,0 +1,107 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.corpus_tools.korapxmlmodules.foundries.Dependency;
+import org.corpus_tools.salt.SaltFactory;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SPointingRelation;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.SToken;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the "dependency" layer written from the pointing relations between tokens.
+ *
+ * @author Thomas Krause
+ */
+public class DependencyTest {
+
+	private SDocumentGraph graph;
+	private STextualDS text;
+	private List<SToken> tokens;
+
+	@Before
+	public void setUp() {
+		// the first text has a chain of "func" annotated relations in each sentence of 20 tokens
+		graph = SyntheticCorpus.createProject(1, 1, 40, 0, 1).getCorpusGraphs().get(0).getDocuments().get(0)
+				.getDocumentGraph();
+		text = graph.getTextualDSs().get(0);
+		SyntheticCorpus.createText(graph, "text1", 10, 0);
+		tokens = graph.getTokens();
+	}
+
+	private String export(KorapXMLExporterProperties props, String path) {
+		TokenTable tokenTable = TokenTable.partition(graph).get(text);
+		TextOffsetIndex offsets = new TextOffsetIndex(tokenTable);
+		DocumentIds ids = new DocumentIds(graph);
+		NodeSelection nodes = new DocumentNodeView(graph, Collections.singletonList(offsets),
+				Collections.singleton(FoundryPlan.ALL_LAYERS)).get(text, FoundryPlan.ALL_LAYERS);
+
+		Map<String, ByteArrayOutputStream> files = new HashMap<>();
+		new Dependency().map(p -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			files.put(p, out);
+			return out;
+		}, nodes, offsets, ids, props);
+
+		assertEquals(Collections.singleton(path), files.keySet());
+		return new String(files.get(path).toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void test_relations() {
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+		props.setPropertyValue("output.prettyPrint", false);
+		String xml = export(props, "malt/dependency.xml");
+
+		TokenTable tokenTable = TokenTable.partition(graph).get(text);
+		// t0 -> t1 and t1 -> t2, the label is the "func" annotation
+		assertTrue(xml, xml.contains("<span id=\"t0\" from=\"0\" to=\"" + tokenTable.getEnd(0) + "\">"
+				+ "<rel label=\"SB\" target=\"base/token#t1\"><span from=\"" + tokenTable.getStart(1) + "\" to=\""
+				+ tokenTable.getEnd(1) + "\"></span></rel></span>"));
+		assertTrue(xml, xml.contains("<rel label=\"OA\" target=\"base/token#t2\">"));
+		// the last token of a sentence has no outgoing relation
+		assertFalse(xml, xml.contains("id=\"t19\""));
+		assertTrue(xml, xml.contains("target=\"base/token#t19\""));
+		assertTrue(xml, xml.contains("<span id=\"t38\""));
+	}
+
+	@Test
+	public void test_properties() {
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+		props.setPropertyValue("dependency.foundry", "corenlp");
+		props.setPropertyValue("dependency.label", "deprel");
+		String xml = export(props, "corenlp/dependency.xml");
+
+		// without a "deprel" annotation the type of the relation is used, the synthetic relations have none
+		assertFalse(xml, xml.contains("label="));
+		assertTrue(xml, xml.contains("target=\"base/token#t1\""));
+	}
+
+	@Test
+	public void test_skipUnexportedTargets() {
+		// a relation from the last token of the first text to the second text
+		SPointingRelation rel = SaltFactory.createSPointingRelation();
+		rel.setSource(tokens.get(39));
+		rel.setTarget(tokens.get(40));
+		rel.createAnnotation(null, "func", "SB");
+		graph.addRelation(rel);
+
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+		String xml = export(props, "malt/dependency.xml");
+
+		assertFalse(xml, xml.contains("#t40\""));
+		assertFalse(xml, xml.contains("id=\"t39\""));
+		assertTrue(xml, xml.contains("target=\"base/token#t39\""));
+	}
+}
@@ -0,0 +1,64 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.SToken;
+import org.junit.Test;
+
+/**
+ * Checks the IDs of the {@link DocumentIds}.
+ *
+ * @author Thomas Krause
+ */
+public class DocumentIdsTest {
+
+	@Test
+	public void test_compactIds() {
+		SDocumentGraph graph = SyntheticCorpus.createDocument(40, 3).getDocumentGraph();
+		DocumentIds ids = new DocumentIds(graph);
+
+		List<SToken> tokens = graph.getTokens();
+		for (int i = 0; i < tokens.size(); i++) {
+			assertEquals("t" + i, ids.get(tokens.get(i)));
+		}
+
+		Set<String> spanIds = new HashSet<>();
+		for (SSpan span : graph.getSpans()) {
+			assertTrue(spanIds.add(ids.get(span)));
+		}
+		for (SStructure struct : graph.getStructures()) {
+			assertTrue(spanIds.add(ids.get(struct)));
+		}
+		for (String id : spanIds) {
+			assertTrue(id.startsWith("s"));
+		}
+
+		assertEquals("synthetic_doc0.text0", ids.getDocID(graph.getTextualDSs().get(0)));
+	}
+
+	@Test
+	public void test_saltNames() {
+		SDocumentGraph graph = SyntheticCorpus.createDocument(40, 3).getDocumentGraph();
+		DocumentIds ids = new DocumentIds(graph, true);
+
+		for (SToken tok : graph.getTokens()) {
+			assertEquals(tok.getPath().fragment(), ids.get(tok));
+		}
+		for (SSpan span : graph.getSpans()) {
+			assertEquals(span.getPath().fragment(), ids.get(span));
+		}
+	}
+
+	@Test
+	public void test_clean() {
+		assertEquals("abc", DocumentIds.clean("a.b_c"));
+		assertEquals("abc", DocumentIds.clean("abc"));
+	}
+}
@@ -0,0 +1,179 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.corpus_tools.pepper.common.CorpusDesc;
+import org.corpus_tools.pepper.common.FormatDesc;
+import org.corpus_tools.pepper.testFramework.PepperExporterTest;
+import org.eclipse.emf.common.util.URI;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the whole exporter through Pepper on a generated corpus, logs the throughput and resource usage and compares
+ * them with the baselines in "load-baseline.properties".
+ *
+ * The test is only run if the system property "korapxml.loadTest" is set, e.g. with "mvn -P load-test test". The
+ * scenario is selected with "korapxml.loadTest.scenario", each scenario defines the size of the generated corpus and
+ * its baselines. The corpus is created before the measurement starts, so only the export itself is timed. The peak
+ * heap includes the generated Salt corpus. The baselines in the resource are loose enough for most machines, the
+ * baselines of a specific machine can be given in a file with "korapxml.loadTest.baseline", its values replace the
+ * ones of the resource. The test fails if the selected scenario has no baselines.
+ *
+ * @author Thomas Krause
+ */
+public class ExportLoadTest extends PepperExporterTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ExportLoadTest.class);
+
+	private static final String BASELINE_RESOURCE = "/load-baseline.properties";
+
+	private static final double MB = 1024.0 * 1024.0;
+
+	private Properties baseline;
+	private String scenario;
+
+	@Before
+	public void setUp() throws IOException {
+		Assume.assumeTrue(Boolean.getBoolean("korapxml.loadTest"));
+
+		setFixture(new KorapXMLExporter());
+
+		FormatDesc formatDef = new FormatDesc();
+		formatDef.setFormatName("KorapXML");
+		formatDef.setFormatVersion("1.0");
+		this.supportedFormatsCheck.add(formatDef);
+
+		scenario = System.getProperty("korapxml.loadTest.scenario", "default");
+		baseline = new Properties();
+		try (InputStream in = ExportLoadTest.class.getResourceAsStream(BASELINE_RESOURCE)) {
+			assertNotNull("Missing " + BASELINE_RESOURCE, in);
+			baseline.load(in);
+		}
+		String baselineFile = System.getProperty("korapxml.loadTest.baseline");
+		if (baselineFile != null) {
+			try (InputStream in = new FileInputStream(baselineFile)) {
+				baseline.load(in);
+			}
+		}
+	}
+
+	private String value(String key) {
+		String v = baseline.getProperty(scenario + "." + key);
+		assertNotNull("Scenario \"" + scenario + "\" has no value for " + key, v);
+		return v.trim();
+	}
+
+	private int intValue(String key) {
+		return Integer.parseInt(value(key));
+	}
+
+	private double doubleValue(String key) {
+		return Double.parseDouble(value(key));
+	}
+
+	/**
+	 * Resets the peak usage of all heap memory pools.
+	 */
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return The sum of the peak usage of all heap memory pools since the last reset.
+	 */
+	private static long peakHeap() {
+		long sum = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				sum += pool.getPeakUsage().getUsed();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @return The accumulated collection time of all garbage collectors in milliseconds.
+	 */
+	private static long gcMillis() {
+		long sum = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sum += Math.max(0, gc.getCollectionTime());
+		}
+		return sum;
+	}
+
+	private static long outputBytes(File dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir.toPath())) {
+			return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+		}
+	}
+
+	@Test
+	public void test_throughput() throws IOException {
+		int documents = intValue("documents");
+		int layers = intValue("layers");
+
+		// the spans of the additional layers end up in the structure layer of the base foundry
+		getFixture().setSaltProject(SyntheticCorpus.createProject(documents, intValue("texts"), intValue("tokens"),
+				intValue("treeDepth"), layers));
+		getFixture().getProperties().setPropertyValue("foundryMapping",
+				"_all_->Base, _all_->TreeTagger, _all_->CoreNLP, _all_->Dependency");
+
+		File out = getTempPath("KorapXMLExportLoad");
+		getFixture().setCorpusDesc(new CorpusDesc().setCorpusPath(URI.createFileURI(out.getAbsolutePath())));
+
+		System.gc();
+		resetPeakHeap();
+		long gcBefore = gcMillis();
+		long start = System.nanoTime();
+
+		start();
+
+		long nanos = System.nanoTime() - start;
+		long gc = gcMillis() - gcBefore;
+		long peak = peakHeap();
+		long bytes = outputBytes(out);
+
+		double seconds = nanos / 1e9;
+		double documentsPerSecond = documents / seconds;
+		double megabytesPerSecond = bytes / MB / seconds;
+		double peakMegabytes = peak / MB;
+		double gcRatio = gc / (double) TimeUnit.NANOSECONDS.toMillis(Math.max(1, nanos));
+
+		log.info(String.format("Load test \"%s\": %d documents, %d layers, %.1f MB in %.2f s, "
+				+ "%.2f documents/s, %.2f MB/s, %.0f MB peak heap, %d ms GC (%.1f%%)",
+				scenario, documents, layers, bytes / MB, seconds, documentsPerSecond, megabytesPerSecond,
+				peakMegabytes, gc, gcRatio * 100));
+
+		assertTrue("Throughput of " + documentsPerSecond + " documents/s is below the baseline",
+				documentsPerSecond >= doubleValue("minDocumentsPerSecond"));
+		assertTrue("Throughput of " + megabytesPerSecond + " MB/s is below the baseline",
+				megabytesPerSecond >= doubleValue("minMegabytesPerSecond"));
+		assertTrue("Peak heap of " + peakMegabytes + " MB is above the baseline",
+				peakMegabytes <= doubleValue("maxPeakHeapMegabytes"));
+		assertTrue("GC time ratio of " + gcRatio + " is above the baseline",
+				gcRatio <= doubleValue("maxGcTimeRatio"));
+	}
+}
@@ -0,0 +1,149 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the {@link ExportManifest} skips unchanged documents and layer files.
+ *
+ * @author Thomas Krause
+ */
+public class ExportManifestTest {
+
+	private static final String CONFIG = "test";
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static void write(ExportManifest manifest, File textDir, String path, String content) throws IOException {
+		try (OutputStream out = manifest.track(textDir, new DirectoryOutput(textDir)).open(path)) {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void test_skipUnchangedLayers() throws IOException {
+		File root = tmp.getRoot();
+		File docDir = new File(root, "corpus/doc");
+		File textDir = new File(docDir, "text");
+		File tokenFile = new File(textDir, "base/token.xml");
+		File dataFile = new File(textDir, "data.xml");
+
+		ExportManifest first = ExportManifest.load(root, CONFIG);
+		write(first, textDir, "data.xml", "text");
+		write(first, textDir, "base/token.xml", "tokens");
+		first.putDocument(first.getKey(docDir), "fp1");
+		first.save();
+
+		// mark the files to detect if they are written again
+		assertTrue(tokenFile.setLastModified(1000));
+		assertTrue(dataFile.setLastModified(1000));
+
+		ExportManifest second = ExportManifest.load(root, CONFIG);
+		assertEquals("corpus/doc", second.getKey(docDir));
+		assertFalse(second.keepIfUnchanged("corpus/doc", "fp2"));
+		write(second, textDir, "data.xml", "text");
+		write(second, textDir, "base/token.xml", "changed tokens");
+		second.putDocument("corpus/doc", "fp2");
+		second.save();
+
+		assertEquals(1000, dataFile.lastModified());
+		assertEquals("changed tokens", new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8));
+
+		ExportManifest third = ExportManifest.load(root, CONFIG);
+		assertTrue(third.keepIfUnchanged("corpus/doc", "fp2"));
+		third.save();
+
+		// the entries of skipped documents are kept
+		assertTrue(ExportManifest.load(root, CONFIG).keepIfUnchanged("corpus/doc", "fp2"));
+
+		// missing output files are written again
+		assertTrue(tokenFile.delete());
+		assertFalse(ExportManifest.load(root, CONFIG).keepIfUnchanged("corpus/doc", "fp2"));
+	}
+
+	@Test
+	public void test_deleteObsoleteLayers() throws IOException {
+		File root = tmp.getRoot();
+		File textDir = new File(root, "corpus/doc/text");
+		File sentencesFile = new File(textDir, "base/sentences.xml");
+
+		ExportManifest first = ExportManifest.load(root, CONFIG);
+		write(first, textDir, "data.xml", "text");
+		write(first, textDir, "base/sentences.xml", "sentences");
+		first.putDocument("corpus/doc", "fp1");
+		first.save();
+		assertTrue(sentencesFile.isFile());
+
+		// the changed document has no sentences anymore
+		ExportManifest second = ExportManifest.load(root, CONFIG);
+		assertFalse(second.keepIfUnchanged("corpus/doc", "fp2"));
+		write(second, textDir, "data.xml", "text");
+		second.putDocument("corpus/doc", "fp2");
+		second.save();
+		assertFalse(sentencesFile.exists());
+		assertTrue(new File(textDir, "data.xml").isFile());
+		assertTrue(ExportManifest.load(root, CONFIG).keepIfUnchanged("corpus/doc", "fp2"));
+	}
+
+	@Test
+	public void test_resumeFromJournal() throws IOException {
+		File root = tmp.getRoot();
+		File textDir = new File(root, "corpus/doc/text");
+
+		// the export is killed before the manifest is saved
+		ExportManifest killed = ExportManifest.load(root, CONFIG, 1);
+		write(killed, textDir, "data.xml", "text");
+		killed.putDocument("corpus/doc", "fp1");
+		assertTrue(new File(root, ExportManifest.JOURNAL_FILE_NAME).isFile());
+		assertFalse(new File(root, ExportManifest.FILE_NAME).isFile());
+
+		// an incomplete entry of another document
+		Files.write(new File(root, ExportManifest.JOURNAL_FILE_NAME).toPath(),
+				"L\tcorpus/doc2/text/data.xml\tabc\nD\tcorpus/do".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		ExportManifest resumed = ExportManifest.load(root, CONFIG, 1);
+		assertTrue(resumed.keepIfUnchanged("corpus/doc", "fp1"));
+		assertFalse(resumed.keepIfUnchanged("corpus/doc2", "fp1"));
+		write(resumed, new File(root, "corpus/doc2/text"), "data.xml", "text");
+		resumed.putDocument("corpus/doc2", "fp1");
+		resumed.save();
+		assertFalse(new File(root, ExportManifest.JOURNAL_FILE_NAME).isFile());
+
+		ExportManifest next = ExportManifest.load(root, CONFIG);
+		assertTrue(next.keepIfUnchanged("corpus/doc", "fp1"));
+		assertTrue(next.keepIfUnchanged("corpus/doc2", "fp1"));
+	}
+
+	@Test
+	public void test_discardIncompleteLayer() throws IOException, XMLStreamException {
+		File textDir = tmp.getRoot();
+		File dataFile = new File(textDir, "data.xml");
+		new DirectoryOutput(textDir).write("data.xml", out -> out.write("complete".getBytes(StandardCharsets.UTF_8)));
+
+		// the next export of the text
+		try {
+			new DirectoryOutput(textDir).write("data.xml", out -> {
+				out.write("trunc".getBytes(StandardCharsets.UTF_8));
+				throw new XMLStreamException("failed");
+			});
+		} catch (XMLStreamException ex) {
+			// expected
+		}
+		assertEquals("complete", new String(Files.readAllBytes(dataFile.toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(textDir, "data.xml" + DirectoryOutput.TMP_SUFFIX).exists());
+	}
+}
@@ -0,0 +1,147 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+/**
+ * Checks the counters and timings the {@link ExportStatistics} record for each layer and document.
+ *
+ * @author Thomas Krause
+ */
+public class ExportStatisticsTest {
+
+	private static final LayerOutput MEMORY = path -> new ByteArrayOutputStream();
+
+	private static void writeLayer(LayerOutput output, String path, int bytes, int spans, int warnings)
+			throws IOException, XMLStreamException {
+		output.write(path, stream -> {
+			stream.write(new byte[bytes]);
+			for (int i = 0; i < spans; i++) {
+				LayerRecorder.of(stream).span();
+			}
+			for (int i = 0; i < warnings; i++) {
+				LayerRecorder.of(stream).warning();
+			}
+		});
+	}
+
+	@Test
+	public void test_layerCounters() throws IOException, XMLStreamException {
+		ExportStatistics statistics = new ExportStatistics(false);
+
+		ExportStatistics.InstrumentedOutput first = statistics.instrument(MEMORY, "doc/text1");
+		writeLayer(first, "base/token.xml", 100, 3, 1);
+		writeLayer(first, "data.xml", 50, 0, 0);
+		first.warning();
+		ExportStatistics.InstrumentedOutput second = statistics.instrument(MEMORY, "doc/text2");
+		writeLayer(second, "base/token.xml", 20, 2, 0);
+
+		List<ExportStatistics.InstrumentedOutput> outputs = new ArrayList<>();
+		outputs.add(first);
+		outputs.add(second);
+		statistics.documentExported("doc", 5_000_000, outputs);
+
+		assertEquals(1, statistics.getDocuments());
+		assertEquals(2, statistics.getTexts());
+		assertEquals(5, statistics.getSpans());
+		assertEquals(170, statistics.getBytes());
+		assertEquals(2, statistics.getWarnings());
+		assertEquals(5, statistics.getDocumentMillis());
+
+		// the layers are sorted by name and the ".xml" suffix is removed
+		String[] layers = statistics.getLayerStatistics();
+		assertEquals(2, layers.length);
+		assertTrue(layers[0], layers[0].startsWith("base/token: 2 files, "));
+		assertTrue(layers[0], layers[0].endsWith(" ms, 5 spans, 120 bytes, 1 warnings"));
+		assertTrue(layers[1], layers[1].startsWith("data: 1 files, "));
+		assertTrue(layers[1], layers[1].endsWith(" ms, 0 spans, 50 bytes, 0 warnings"));
+	}
+
+	@Test
+	public void test_layerTime() throws IOException, XMLStreamException {
+		ExportStatistics statistics = new ExportStatistics(false);
+		ExportStatistics.InstrumentedOutput output = statistics.instrument(MEMORY, "doc/text");
+		// the time of a layer is measured from opening to closing its file
+		output.write("base/token.xml", stream -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		String layer = statistics.getLayerStatistics()[0];
+		long millis = Long.parseLong(layer.substring("base/token: 1 files, ".length(), layer.indexOf(" ms")));
+		assertTrue(layer, millis >= 50);
+	}
+
+	@Test
+	public void test_taskTime() {
+		ExportStatistics statistics = new ExportStatistics(false);
+		ExportStatistics.InstrumentedOutput first = statistics.instrument(MEMORY, "doc/text1");
+		ExportStatistics.InstrumentedOutput second = statistics.instrument(MEMORY, "doc/text2");
+		// the mapping tasks are timed although they do not write a layer file themselves
+		statistics.taskFinished(first, "TreeTagger", 3_000_000);
+		statistics.taskFinished(first, "offsets", 1_000_000);
+		statistics.taskFinished(second, "TreeTagger", 4_000_000);
+		statistics.documentExported("doc", 8_000_000, Collections.singletonList(first));
+
+		String[] tasks = statistics.getTaskStatistics();
+		assertArrayEquals(new String[] { "TreeTagger: 2 tasks, 7 ms", "offsets: 1 tasks, 1 ms" }, tasks);
+		assertTrue(statistics.summary(), statistics.summary().contains("  TreeTagger: 2 tasks, 7 ms\n"));
+
+		statistics.reset();
+		assertArrayEquals(new String[0], statistics.getTaskStatistics());
+	}
+
+	@Test
+	public void test_discardedLayer() throws IOException {
+		ExportStatistics statistics = new ExportStatistics(false);
+		ExportStatistics.InstrumentedOutput output = statistics.instrument(MEMORY, "doc/text");
+		try {
+			output.write("base/token.xml", stream -> {
+				stream.write(new byte[10]);
+				LayerRecorder.of(stream).span();
+				throw new XMLStreamException("broken");
+			});
+		} catch (XMLStreamException ex) {
+			// expected
+		}
+		statistics.documentExported("doc", 0, Collections.singletonList(output));
+
+		// the incomplete file is not recorded as layer, but as warning of its text
+		assertEquals(0, statistics.getLayerStatistics().length);
+		assertEquals(0, statistics.getSpans());
+		assertEquals(0, statistics.getBytes());
+		assertEquals(1, statistics.getWarnings());
+	}
+
+	@Test
+	public void test_slowestDocuments() {
+		ExportStatistics statistics = new ExportStatistics(false);
+		for (int i = 1; i <= 12; i++) {
+			statistics.documentExported("doc" + i, i * 1_000_000L, Collections.emptyList());
+		}
+		statistics.documentSkipped();
+
+		String[] slowest = statistics.getSlowestDocuments();
+		assertEquals(10, slowest.length);
+		assertEquals("doc12: 12 ms", slowest[0]);
+		assertEquals("doc3: 3 ms", slowest[9]);
+		assertEquals(12, statistics.getDocuments());
+		assertEquals(1, statistics.getSkippedDocuments());
+		assertEquals(78, statistics.getDocumentMillis());
+
+		statistics.reset();
+		assertEquals(0, statistics.getDocuments());
+		assertArrayEquals(new String[0], statistics.getSlowestDocuments());
+	}
+}
@@ -0,0 +1,86 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.STextualDS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the errors found by the {@link ExportValidation}.
+ *
+ * @author Thomas Krause
+ */
+public class ExportValidationTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void test_errors() throws IOException, XMLStreamException {
+		SDocumentGraph graph = SyntheticCorpus.createDocument(20, 1).getDocumentGraph();
+		STextualDS text = graph.getTextualDSs().get(0);
+		TokenTable tokens = TokenTable.partition(graph).get(text);
+		DocumentIds ids = new DocumentIds(graph);
+
+		ExportValidation validation = new ExportValidation(new File(tmp.getRoot(), ExportValidation.FILE_NAME));
+		ExportValidation.Report report = validation.newReport("doc");
+		LayerOutput output = validation.validate(path -> new ByteArrayOutputStream(), tokens, ids, report);
+
+		try (OutputStream stream = output.open("test/spans.xml")) {
+			LayerWriter xml = LayerWriter.create(stream, new KorapXMLExporterProperties());
+			xml.writeStartDocument();
+			xml.writeStartElement(null, "spanList");
+			span(xml, "s0", 0, 5);
+			span(xml, "s0", 0, 5);
+			span(xml, "s1", 0, text.getText().length() + 1);
+			span(xml, "s2", 4, 2);
+
+			// targets: a token, a later span of this layer and a missing span
+			xml.writeStartElement(null, "span");
+			xml.writeAttribute("id", "s3");
+			xml.writeAttribute("from", 0);
+			xml.writeAttribute("to", 1);
+			rel(xml, "base/token.xml#" + ids.get(tokens.getToken(0)));
+			rel(xml, "s4");
+			rel(xml, "s99");
+			xml.writeEndElement();
+
+			span(xml, "s4", 0, 1);
+			xml.writeEndElement();
+			xml.writeEndDocument();
+			xml.close();
+		}
+
+		assertEquals(1, report.getErrors(ExportValidation.Check.DUPLICATE_ID));
+		assertEquals(2, report.getErrors(ExportValidation.Check.OFFSET));
+		assertEquals(1, report.getErrors(ExportValidation.Check.MISSING_TARGET));
+		assertTrue(report.toString().contains("s99"));
+
+		validation.documentValidated(report);
+		validation.close();
+		assertTrue(new File(tmp.getRoot(), ExportValidation.FILE_NAME).isFile());
+	}
+
+	private static void span(LayerWriter xml, String id, int from, int to) throws XMLStreamException {
+		xml.writeStartElement(null, "span");
+		xml.writeAttribute("id", id);
+		xml.writeAttribute("from", from);
+		xml.writeAttribute("to", to);
+		xml.writeEndElement();
+	}
+
+	private static void rel(LayerWriter xml, String target) throws XMLStreamException {
+		xml.writeStartElement(null, "rel");
+		xml.writeAttribute("target", target);
+		xml.writeEndElement();
+	}
+}
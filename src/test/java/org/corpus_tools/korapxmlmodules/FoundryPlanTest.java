@@ -0,0 +1,32 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import org.corpus_tools.korapxmlmodules.foundries.Foundry;
+import org.corpus_tools.korapxmlmodules.foundries.FoundryRegistry;
+import org.corpus_tools.korapxmlmodules.foundries.TreeTagger;
+import org.corpus_tools.pepper.modules.exceptions.PepperModuleNotReadyException;
+import org.junit.Test;
+
+/**
+ * Checks that each foundry of a {@link FoundryPlan} is run once with all its layers.
+ *
+ * @author Thomas Krause
+ */
+public class FoundryPlanTest {
+
+	@Test
+	public void test_layersByFoundry() throws PepperModuleNotReadyException {
+		FoundryPlan plan = FoundryPlan.compile("a->TreeTagger, b->TreeTagger, a->TreeTagger, "
+				+ "b->org.corpus_tools.korapxmlmodules.foundries.TreeTagger, _all_->Base", new FoundryRegistry());
+
+		// the duplicate definitions are dropped
+		assertEquals(3, plan.getMapping().size());
+		assertEquals(2, plan.getLayersByFoundry().keySet().size());
+
+		Foundry treeTagger = plan.getMapping().get("a").get(0);
+		assertEquals(TreeTagger.class, treeTagger.getClass());
+		assertEquals(Arrays.asList("a", "b"), plan.getLayersByFoundry().get(treeTagger));
+	}
+}
@@ -0,0 +1,48 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.xml.stream.XMLStreamException;
+import org.corpus_tools.salt.common.SCorpus;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.STextualDS;
+import org.junit.Test;
+
+/**
+ * Checks the headers created from the Salt meta annotations.
+ *
+ * @author Thomas Krause
+ */
+public class HeaderWriterTest {
+
+	@Test
+	public void test_headers() throws IOException, XMLStreamException {
+		SDocument doc = SyntheticCorpus.createDocument(20, 0);
+		doc.createMetaAnnotation(null, "title", "Faust");
+		doc.createMetaAnnotation("dc", "author", "Goethe");
+		SCorpus corpus = doc.getGraph().getCorpora().get(0);
+		STextualDS text = doc.getDocumentGraph().getTextualDSs().get(0);
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+
+		String corpusHeader = new String(HeaderWriter.corpus(corpus, props), StandardCharsets.UTF_8);
+		assertTrue(corpusHeader.contains("<idsHeader type=\"corpus\""));
+		assertTrue(corpusHeader.contains("<korpusSigle>synthetic</korpusSigle>"));
+		assertTrue(corpusHeader.contains("<c.title>synthetic</c.title>"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HeaderWriter.document(out, doc, props);
+		String docHeader = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(docHeader.contains("<dokumentSigle>synthetic/doc0</dokumentSigle>"));
+		assertTrue(docHeader.contains("<d.title>Faust</d.title>"));
+		assertTrue(docHeader.contains("<note n=\"dc::author\">Goethe</note>"));
+		assertTrue(docHeader.indexOf("dc::author") < docHeader.indexOf("<note n=\"title\""));
+
+		out = new ByteArrayOutputStream();
+		HeaderWriter.text(out, doc, text, props);
+		String textHeader = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		assertTrue(textHeader.contains("<textSigle>synthetic/doc0/text0</textSigle>"));
+	}
+}
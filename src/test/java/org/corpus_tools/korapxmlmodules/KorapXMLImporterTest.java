@@ -0,0 +1,92 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import org.corpus_tools.salt.SaltFactory;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.util.SaltUtil;
+import org.eclipse.emf.common.util.URI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Exports a synthetic document and imports it again.
+ *
+ * @author Thomas Krause
+ */
+public class KorapXMLImporterTest {
+
+	private static final int TOKENS = 1000;
+	private static final int TREE_DEPTH = 4;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File export(SDocument doc) throws IOException {
+		File docDir = tmp.newFolder("doc");
+
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+		props.setPropertyValue("foundryMapping", "_all_->Base, _all_->TreeTagger, _all_->CoreNLP");
+
+		KorapXMLExporter.KorapXMLMapper mapper = new KorapXMLExporter.KorapXMLMapper();
+		mapper.setProperties(props);
+		mapper.setDocument(doc);
+		mapper.setResourceURI(URI.createFileURI(docDir.getAbsolutePath()));
+		mapper.mapSDocument();
+
+		return docDir;
+	}
+
+	private SDocumentGraph importDocument(File docDir, String layers) {
+		KorapXMLImporterProperties props = new KorapXMLImporterProperties();
+		if (layers != null) {
+			props.setPropertyValue("importLayers", layers);
+		}
+		SDocument doc = SaltFactory.createSDocument();
+
+		KorapXMLImporter.KorapXMLImportMapper mapper = new KorapXMLImporter.KorapXMLImportMapper();
+		mapper.setProperties(props);
+		mapper.setDocument(doc);
+		mapper.setResourceURI(URI.createFileURI(docDir.getAbsolutePath()));
+		mapper.mapSDocument();
+
+		return doc.getDocumentGraph();
+	}
+
+	@Test
+	public void test_roundTrip() throws IOException {
+		SDocument original = SyntheticCorpus.createDocument(TOKENS, TREE_DEPTH);
+		SDocumentGraph graph = importDocument(export(original), null);
+
+		assertEquals(1, graph.getTextualDSs().size());
+		assertEquals(original.getDocumentGraph().getTextualDSs().get(0).getText(),
+				graph.getTextualDSs().get(0).getText());
+		assertEquals(TOKENS, graph.getTokens().size());
+		assertEquals(original.getDocumentGraph().getSpans().size(), graph.getSpans().size());
+		assertEquals(original.getDocumentGraph().getStructures().size(), graph.getStructures().size());
+		assertEquals(original.getDocumentGraph().getDominanceRelations().size(),
+				graph.getDominanceRelations().size());
+
+		for (SToken tok : graph.getTokens()) {
+			assertNotNull(tok.getAnnotation(SaltUtil.SALT_NAMESPACE, SaltUtil.SEMANTICS_POS));
+			assertNotNull(tok.getAnnotation(SaltUtil.SALT_NAMESPACE, SaltUtil.SEMANTICS_LEMMA));
+			assertNotNull(tok.getAnnotation(null, "pos"));
+		}
+	}
+
+	@Test
+	public void test_onlySelectedLayers() throws IOException {
+		SDocument original = SyntheticCorpus.createDocument(TOKENS, TREE_DEPTH);
+		SDocumentGraph graph = importDocument(export(original), "base/sentences");
+
+		assertEquals(TOKENS, graph.getTokens().size());
+		assertEquals(TOKENS / SyntheticCorpus.SENTENCE_LENGTH, graph.getSpans().size());
+		assertEquals(0, graph.getStructures().size());
+	}
+}
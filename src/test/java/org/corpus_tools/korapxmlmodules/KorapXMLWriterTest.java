@@ -0,0 +1,134 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.corpus_tools.korapxmlmodules.KorapXMLExporter.KorapXMLMapper.NS_URI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+/**
+ * Checks that the {@link KorapXMLWriter} produces the same XML as the {@link StaxLayerWriter}.
+ *
+ * @author Thomas Krause
+ */
+public class KorapXMLWriterTest {
+
+	private static void writeSample(LayerWriter xml) throws XMLStreamException {
+		xml.writeStartDocument();
+		xml.setDefaultNamespace(NS_URI);
+		xml.indent(0);
+		xml.writeStartElement(NS_URI, "layer");
+		xml.writeAttribute("docid", "a&b\"c<d>");
+		xml.indent(1);
+		xml.writeStartElement(NS_URI, "spanList");
+		xml.indent(2);
+		xml.writeStartElement(NS_URI, "span");
+		xml.writeAttribute("from", 0);
+		xml.writeAttribute("to", 2147483647);
+		xml.indent(3);
+		xml.writeStartElement(NS_URI, "f");
+		xml.writeCharacters("Grüße 😀 <x> & \"q\"");
+		xml.writeEndElement();
+		// an empty element
+		xml.indent(3);
+		xml.writeStartElement(NS_URI, "fs");
+		xml.writeAttribute("type", "lex");
+		xml.writeEndElement();
+		xml.indent(2);
+		xml.writeEndElement();
+		xml.indent(1);
+		xml.writeEndElement();
+		xml.indent(0);
+		xml.writeEndElement();
+		xml.writeEndDocument();
+		xml.flush();
+		xml.close();
+	}
+
+	private static String write(boolean korap, boolean prettyPrint) throws XMLStreamException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeSample(korap ? new KorapXMLWriter(out, prettyPrint) : new StaxLayerWriter(out, prettyPrint));
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void test_sameOutputAsStax() throws XMLStreamException {
+		assertEquals(write(false, true), write(true, true));
+		assertEquals(write(false, false), write(true, false));
+	}
+
+	/**
+	 * Short values are copied from the {@link EncodedStringCache}, long values are encoded each time.
+	 */
+	@Test
+	public void test_cachedValues() throws XMLStreamException {
+		StringBuilder longValue = new StringBuilder();
+		while (longValue.length() <= EncodedStringCache.MAX_LENGTH) {
+			longValue.append("Grüße <\"&\"> ");
+		}
+		String[] values = {"NN", "a&b\"c<d>", "Grüße 😀", longValue.toString(), "", "NN"};
+		String[] xml = new String[2];
+		for (int i = 0; i < 2; i++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			LayerWriter writer = i == 0 ? new StaxLayerWriter(out, false) : new KorapXMLWriter(out, false);
+			writer.writeStartDocument();
+			writer.setDefaultNamespace(NS_URI);
+			writer.writeStartElement(NS_URI, "fs");
+			for (String value : values) {
+				writer.writeStartElement(NS_URI, "f");
+				writer.writeAttribute("name", value);
+				writer.writeCharacters(value);
+				writer.writeEndElement();
+			}
+			writer.writeEndDocument();
+			writer.close();
+			xml[i] = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+		assertEquals(xml[0], xml[1]);
+	}
+
+	@Test
+	public void test_cacheAdmission() throws XMLStreamException {
+		EncodedStringCache cache = new EncodedStringCache(true);
+		// more distinct identifiers than the cache can hold, each seen once
+		for (int i = 0; i < 3 * EncodedStringCache.MAX_ENTRIES; i++) {
+			cache.get("id" + i);
+		}
+		// only the few identifiers that share a count with others are admitted
+		assertTrue(String.valueOf(cache.size()), cache.size() < EncodedStringCache.MAX_ENTRIES / 100);
+
+		// a tag that is first seen afterwards is still cached once it is frequent
+		for (int i = 0; i < EncodedStringCache.ADMISSION_COUNT; i++) {
+			cache.get("NN");
+		}
+		assertTrue(cache.isCached("NN"));
+		assertFalse(cache.isCached("id0"));
+
+		// the identifiers of the writer do not pass the shared cache at all
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LayerWriter writer = new KorapXMLWriter(out, false);
+		writer.writeStartDocument();
+		writer.writeStartElement(NS_URI, "spanList");
+		for (int i = 0; i < 2 * EncodedStringCache.ADMISSION_COUNT; i++) {
+			writer.writeStartElement(NS_URI, "span");
+			writer.writeAttribute("id", "s_admission");
+			writer.writeEndElement();
+		}
+		writer.writeEndDocument();
+		writer.close();
+		assertFalse(EncodedStringCache.ATTRIBUTES.isCached("s_admission"));
+	}
+
+	@Test
+	public void test_escaping() throws XMLStreamException {
+		String xml = write(true, false);
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<layer xmlns=\"" + NS_URI + "\" docid=\"a&amp;b&quot;c&lt;d&gt;\"><spanList>"
+				+ "<span from=\"0\" to=\"2147483647\"><f>Grüße 😀 &lt;x&gt; &amp; \"q\"</f><fs type=\"lex\"></fs></span>"
+				+ "</spanList></layer>", xml);
+	}
+}
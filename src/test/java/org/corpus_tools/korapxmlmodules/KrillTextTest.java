@@ -0,0 +1,59 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.corpus_tools.korapxmlmodules.foundries.Base;
+import org.corpus_tools.korapxmlmodules.foundries.TreeTagger;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.STextualDS;
+import org.junit.Test;
+
+/**
+ * Checks the term stream of the Krill JSON documents.
+ *
+ * @author Thomas Krause
+ */
+public class KrillTextTest {
+
+	@Test
+	public void test_termStream() throws IOException {
+		SDocumentGraph graph = SyntheticCorpus.createDocument(40, 0).getDocumentGraph();
+		STextualDS text = graph.getTextualDSs().get(0);
+		TokenTable tokens = TokenTable.partition(graph).get(text);
+		TextOffsetIndex offsets = new TextOffsetIndex(tokens);
+		DocumentIds ids = new DocumentIds(graph);
+		NodeSelection nodes = new DocumentNodeView(graph, Collections.singletonList(offsets),
+				Collections.singleton(FoundryPlan.ALL_LAYERS)).get(text, FoundryPlan.ALL_LAYERS);
+
+		Map<String, ByteArrayOutputStream> files = new HashMap<>();
+		KrillText krill = new KrillText(path -> {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			files.put(path, out);
+			return out;
+		}, tokens, graph.getDocument());
+
+		KorapXMLExporterProperties props = new KorapXMLExporterProperties();
+		new Base().map(krill, nodes, offsets, ids, props);
+		new TreeTagger().map(krill, nodes, offsets, ids, props);
+		krill.write();
+
+		assertTrue(files.containsKey("base/sentences.xml"));
+		String json = new String(files.get(KrillText.FILE).toByteArray(), StandardCharsets.UTF_8);
+
+		assertTrue(json.contains("\"textSigle\":\"synthetic/doc0/text0\""));
+		assertTrue(json.contains("\"stream\":[[\"-:tokens$<i>40\",\"_0$<i>0<i>3\",\"i:der\",\"s:Der\""));
+		assertTrue(json.contains("\"tt/p:ART\""));
+		assertTrue(json.contains("\"tt/l:der\""));
+		assertTrue(json.contains("\"<>:base/s:s$<b>64<i>0<i>" + tokens.getEnd(19) + "<i>20\""));
+		assertTrue(json.contains("\"<>:base/s:s$<b>64<i>" + tokens.getStart(20) + "<i>" + tokens.getEnd(39)
+				+ "<i>40\""));
+		assertTrue(json.contains("\"<>:base/s:p$<b>64<i>0<i>" + tokens.getEnd(39) + "<i>40\""));
+		assertTrue(json.contains("\"layerInfos\":\"base/s=spans tt/l=tokens tt/p=tokens\""));
+	}
+}
@@ -0,0 +1,64 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Compares the {@link OrdinalSort} with a comparison sort of the same fields.
+ *
+ * @author Thomas Krause
+ */
+public class OrdinalSortTest {
+
+	/**
+	 * Sorts by start, descending end and the ordinal, with both the insertion sort and the radix sort.
+	 */
+	@Test
+	public void test_twoFields() {
+		Random random = new Random(42);
+		for (int size : new int[] { 0, 1, 10, 63, 64, 1000 }) {
+			int[] start = new int[size];
+			int[] end = new int[size];
+			long[] keys = new long[size];
+			Integer[] expected = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				// few distinct values, so there are many ties, and negative values as well
+				start[i] = random.nextInt(20) - 5;
+				end[i] = random.nextBoolean() ? random.nextInt(20) : Integer.MAX_VALUE - random.nextInt(3);
+				keys[i] = OrdinalSort.key(start[i], ~end[i]);
+				expected[i] = i;
+			}
+			Arrays.sort(expected, Comparator.<Integer> comparingInt(i -> start[i])
+					.thenComparing(Comparator.<Integer> comparingInt(i -> end[i]).reversed()));
+
+			assertArrayEquals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(),
+					OrdinalSort.sort(keys, 1, size));
+		}
+	}
+
+	@Test
+	public void test_wideKeys() {
+		Random random = new Random(7);
+		int size = 500;
+		int[][] fields = new int[size][3];
+		long[] keys = new long[size * 2];
+		Integer[] expected = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			fields[i][0] = random.nextInt(1 << 20);
+			fields[i][1] = random.nextInt(4);
+			fields[i][2] = random.nextInt(3);
+			keys[2 * i] = OrdinalSort.key(fields[i][0], fields[i][1]);
+			keys[2 * i + 1] = OrdinalSort.key(~fields[i][2], 0);
+			expected[i] = i;
+		}
+		Arrays.sort(expected, Comparator.<Integer> comparingInt(i -> fields[i][0])
+				.thenComparingInt(i -> fields[i][1]).thenComparingInt(i -> -fields[i][2]));
+
+		assertArrayEquals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(),
+				OrdinalSort.sort(keys, 2, size));
+	}
+}
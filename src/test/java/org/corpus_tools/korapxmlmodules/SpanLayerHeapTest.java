@@ -0,0 +1,98 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import org.corpus_tools.korapxmlmodules.foundries.Base;
+import org.corpus_tools.korapxmlmodules.foundries.Foundry;
+import org.corpus_tools.korapxmlmodules.foundries.TreeTagger;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.STextualDS;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the foundries write their layers without copying the selected nodes.
+ *
+ * The test needs a large heap for the Salt graph and is only run if the system property "korapxml.heapTest" is set,
+ * e.g. with "mvn -P heap-test test". The number of tokens can be set with "korapxml.heapTest.tokens".
+ *
+ * @author Thomas Krause
+ */
+public class SpanLayerHeapTest {
+
+	/**
+	 * The additional heap that may be used while a layer is written. A copy of the selected tokens would already
+	 * need several MB for a document with millions of tokens.
+	 */
+	private static final long MAX_EXTRA_HEAP = 2L * 1024 * 1024;
+
+	private static SDocumentGraph graph;
+	private static TextOffsetIndex offsets;
+	private static DocumentIds ids;
+	private static NodeSelection nodes;
+
+	@BeforeClass
+	public static void createDocument() {
+		Assume.assumeTrue(Boolean.getBoolean("korapxml.heapTest"));
+
+		int tokens = Integer.getInteger("korapxml.heapTest.tokens", 2_000_000);
+		graph = SyntheticCorpus.createDocument(tokens, 0).getDocumentGraph();
+		STextualDS text = graph.getTextualDSs().get(0);
+		offsets = new TextOffsetIndex(TokenTable.partition(graph).get(text));
+		ids = new DocumentIds(graph);
+		nodes = new DocumentNodeView(graph, Collections.singletonList(offsets),
+				Collections.singleton(FoundryPlan.ALL_LAYERS)).get(text, FoundryPlan.ALL_LAYERS);
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Maps the nodes with the foundry and measures the used heap when each layer file is finished, this is the
+	 * moment where the most nodes would be collected.
+	 *
+	 * @param foundry
+	 * @return The maximal additional heap.
+	 */
+	private static long extraHeap(Foundry foundry) {
+		long baseline = usedHeap();
+		long[] max = {0};
+		LayerOutput output = path -> new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+
+			@Override
+			public void close() throws IOException {
+				max[0] = Math.max(max[0], usedHeap() - baseline);
+			}
+		};
+		foundry.map(output, nodes, offsets, ids, new KorapXMLExporterProperties());
+		return max[0];
+	}
+
+	@Test
+	public void test_baseLayers() {
+		long extra = extraHeap(new Base());
+		assertTrue("Base used " + extra + " bytes of additional heap", extra < MAX_EXTRA_HEAP);
+	}
+
+	@Test
+	public void test_treeTaggerLayer() {
+		long extra = extraHeap(new TreeTagger());
+		assertTrue("TreeTagger used " + extra + " bytes of additional heap", extra < MAX_EXTRA_HEAP);
+	}
+}
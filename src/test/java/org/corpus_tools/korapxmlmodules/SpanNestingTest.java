@@ -0,0 +1,52 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Krause
+ */
+public class SpanNestingTest {
+
+	@Test
+	public void test_nested() {
+		// text [0,20], two sentences, the first with a phrase
+		int[] start = {10, 0, 0, 2};
+		int[] end = {20, 20, 10, 5};
+		SpanNesting nesting = new SpanNesting(start, end, start.length);
+
+		assertEquals(SpanNesting.NO_PARENT, nesting.getParent(1));
+		assertEquals(0, nesting.getDepth(1));
+		assertEquals(1, nesting.getParent(0));
+		assertEquals(1, nesting.getParent(2));
+		assertEquals(1, nesting.getDepth(2));
+		assertEquals(2, nesting.getParent(3));
+		assertEquals(2, nesting.getDepth(3));
+	}
+
+	@Test
+	public void test_sameOffsets() {
+		int[] start = {0, 0, 0};
+		int[] end = {5, 5, 5};
+		SpanNesting nesting = new SpanNesting(start, end, start.length);
+
+		assertEquals(SpanNesting.NO_PARENT, nesting.getParent(0));
+		assertEquals(0, nesting.getParent(1));
+		assertEquals(1, nesting.getParent(2));
+		assertEquals(2, nesting.getDepth(2));
+	}
+
+	@Test
+	public void test_overlapping() {
+		int[] start = {0, 0, 3};
+		int[] end = {10, 5, 8};
+		SpanNesting nesting = new SpanNesting(start, end, start.length);
+
+		// the overlapping spans are both contained in the first one, but not in each other
+		assertEquals(0, nesting.getParent(1));
+		assertEquals(0, nesting.getParent(2));
+		assertEquals(1, nesting.getDepth(2));
+	}
+}
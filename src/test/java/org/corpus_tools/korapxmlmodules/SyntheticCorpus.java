@@ -0,0 +1,247 @@
+package org.corpus_tools.korapxmlmodules;
+
+import java.util.List;
+import org.corpus_tools.salt.SaltFactory;
+import org.corpus_tools.salt.common.SCorpus;
+import org.corpus_tools.salt.common.SCorpusGraph;
+import org.corpus_tools.salt.common.SDocument;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.SDominanceRelation;
+import org.corpus_tools.salt.common.SPointingRelation;
+import org.corpus_tools.salt.common.SSpan;
+import org.corpus_tools.salt.common.SSpanningRelation;
+import org.corpus_tools.salt.common.SStructure;
+import org.corpus_tools.salt.common.SStructuredNode;
+import org.corpus_tools.salt.common.STextualDS;
+import org.corpus_tools.salt.common.STextualRelation;
+import org.corpus_tools.salt.common.SToken;
+import org.corpus_tools.salt.common.SaltProject;
+import org.corpus_tools.salt.core.SLayer;
+import org.corpus_tools.salt.util.SaltUtil;
+
+/**
+ * Creates synthetic Salt corpora of arbitrary size, similar to the {@link org.corpus_tools.salt.samples.SampleGenerator}.
+ *
+ * Each text consists of sentences of {@link #SENTENCE_LENGTH} tokens with TreeTagger and CoreNLP style annotations,
+ * sentence and paragraph spans and a right-branching constituency tree per sentence. The depth of the trees is
+ * limited by the tree depth parameter, 0 creates no trees at all. Optionally, additional annotation layers with spans
+ * over short chunks of tokens and a dependency chain per sentence are created. The generated content is
+ * deterministic.
+ *
+ * @author Thomas Krause
+ */
+public class SyntheticCorpus {
+
+	public static final int SENTENCE_LENGTH = 20;
+	public static final int SENTENCES_PER_PARAGRAPH = 5;
+
+	private static final String[] WORDS = {"Der", "kleine", "Hund", "läuft", "über", "die", "große", "Wiese", "und",
+		"bellt", "laut", "."};
+	private static final String[] POS = {"ART", "ADJA", "NN", "VVFIN", "APPR", "ART", "ADJA", "NN", "KON", "VVFIN",
+		"ADJD", "$."};
+	private static final String[] CATEGORIES = {"S", "NP", "VP", "PP", "AP"};
+
+	/**
+	 * Creates a project with a single root corpus "synthetic" that contains the documents "doc0" to "doc{n-1}".
+	 *
+	 * @param documents
+	 * @param textsPerDocument
+	 * @param tokensPerText
+	 * @param treeDepth
+	 * @return
+	 */
+	public static SaltProject createProject(int documents, int textsPerDocument, int tokensPerText, int treeDepth) {
+		return createProject(documents, textsPerDocument, tokensPerText, treeDepth, 0);
+	}
+
+	/**
+	 * Creates a project with a single root corpus "synthetic" that contains the documents "doc0" to "doc{n-1}".
+	 *
+	 * @param documents
+	 * @param textsPerDocument
+	 * @param tokensPerText
+	 * @param treeDepth
+	 * @param annotationLayers The number of additional Salt layers "layer0" to "layer{n-1}" with annotated spans. If
+	 * there is at least one, dependency relations between the tokens are created as well.
+	 * @return
+	 */
+	public static SaltProject createProject(int documents, int textsPerDocument, int tokensPerText, int treeDepth,
+			int annotationLayers) {
+		SaltProject project = SaltFactory.createSaltProject();
+		SCorpusGraph corpusGraph = project.createCorpusGraph();
+		SCorpus corpus = corpusGraph.createCorpus(null, "synthetic");
+		for (int d = 0; d < documents; d++) {
+			SDocument doc = corpusGraph.createDocument(corpus, "doc" + d);
+			doc.setDocumentGraph(SaltFactory.createSDocumentGraph());
+			for (int t = 0; t < textsPerDocument; t++) {
+				createText(doc.getDocumentGraph(), "text" + t, tokensPerText, treeDepth, annotationLayers);
+			}
+		}
+		return project;
+	}
+
+	/**
+	 * Creates a single document in its own corpus.
+	 *
+	 * @param tokens
+	 * @param treeDepth
+	 * @return
+	 */
+	public static SDocument createDocument(int tokens, int treeDepth) {
+		return createProject(1, 1, tokens, treeDepth).getCorpusGraphs().get(0).getDocuments().get(0);
+	}
+
+	public static STextualDS createText(SDocumentGraph graph, String name, int tokens, int treeDepth) {
+		return createText(graph, name, tokens, treeDepth, 0);
+	}
+
+	public static STextualDS createText(SDocumentGraph graph, String name, int tokens, int treeDepth,
+			int annotationLayers) {
+		StringBuilder content = new StringBuilder();
+		int[] start = new int[tokens];
+		int[] end = new int[tokens];
+		for (int i = 0; i < tokens; i++) {
+			if (i > 0) {
+				content.append(' ');
+			}
+			start[i] = content.length();
+			content.append(WORDS[i % WORDS.length]);
+			end[i] = content.length();
+		}
+
+		STextualDS text = SaltFactory.createSTextualDS();
+		text.setName(name);
+		text.setText(content.toString());
+		graph.addNode(text);
+
+		SToken[] tok = new SToken[tokens];
+		for (int i = 0; i < tokens; i++) {
+			tok[i] = SaltFactory.createSToken();
+			graph.addNode(tok[i]);
+			STextualRelation textRel = SaltFactory.createSTextualRelation();
+			textRel.setSource(tok[i]);
+			textRel.setTarget(text);
+			textRel.setStart(start[i]);
+			textRel.setEnd(end[i]);
+			graph.addRelation(textRel);
+
+			String word = WORDS[i % WORDS.length];
+			String pos = POS[i % POS.length];
+			tok[i].createAnnotation(SaltUtil.SALT_NAMESPACE, SaltUtil.SEMANTICS_LEMMA, word.toLowerCase());
+			tok[i].createAnnotation(SaltUtil.SALT_NAMESPACE, SaltUtil.SEMANTICS_POS, pos);
+			tok[i].createAnnotation(null, "pos", pos);
+		}
+
+		SSpan paragraph = null;
+		for (int s = 0; s * SENTENCE_LENGTH < tokens; s++) {
+			int from = s * SENTENCE_LENGTH;
+			int to = Math.min(tokens, from + SENTENCE_LENGTH);
+
+			SSpan sentence = createSpan(graph, tok, from, to);
+			sentence.createAnnotation(SaltUtil.SALT_NAMESPACE, SaltUtil.SEMANTICS_SENTENCE, "s");
+
+			if (s % SENTENCES_PER_PARAGRAPH == 0) {
+				int paragraphEnd = Math.min(tokens, from + SENTENCE_LENGTH * SENTENCES_PER_PARAGRAPH);
+				paragraph = createSpan(graph, tok, from, paragraphEnd);
+				paragraph.createAnnotation(SaltUtil.SALT_NAMESPACE, "paragraph", "p");
+			}
+
+			if (treeDepth > 0) {
+				createTree(graph, tok, from, to, treeDepth);
+			}
+			if (annotationLayers > 0) {
+				createDependencies(graph, tok, from, to);
+			}
+		}
+
+		for (int l = 0; l < annotationLayers; l++) {
+			createLayer(graph, tok, l);
+		}
+		return text;
+	}
+
+	/**
+	 * Creates the spans of an additional annotation layer, each covers a chunk of 2 + layer tokens.
+	 */
+	private static void createLayer(SDocumentGraph graph, SToken[] tok, int l) {
+		String name = "layer" + l;
+		SLayer layer;
+		List<SLayer> existing = graph.getLayerByName(name);
+		if (existing != null && !existing.isEmpty()) {
+			layer = existing.get(0);
+		} else {
+			layer = SaltFactory.createSLayer();
+			layer.setName(name);
+			graph.addLayer(layer);
+		}
+
+		int chunk = 2 + l;
+		for (int from = 0; from < tok.length; from += chunk) {
+			SSpan span = createSpan(graph, tok, from, Math.min(tok.length, from + chunk));
+			span.createAnnotation(name, "tag", CATEGORIES[(from / chunk) % CATEGORIES.length]);
+			layer.addNode(span);
+		}
+	}
+
+	/**
+	 * Creates a chain of pointing relations from each token of the sentence to the next one.
+	 */
+	private static void createDependencies(SDocumentGraph graph, SToken[] tok, int from, int to) {
+		for (int i = from; i + 1 < to; i++) {
+			SPointingRelation rel = SaltFactory.createSPointingRelation();
+			rel.setSource(tok[i]);
+			rel.setTarget(tok[i + 1]);
+			rel.createAnnotation(null, "func", i % 2 == 0 ? "SB" : "OA");
+			graph.addRelation(rel);
+		}
+	}
+
+	private static SSpan createSpan(SDocumentGraph graph, SToken[] tok, int from, int to) {
+		SSpan span = SaltFactory.createSSpan();
+		graph.addNode(span);
+		for (int i = from; i < to; i++) {
+			SSpanningRelation rel = SaltFactory.createSSpanningRelation();
+			rel.setSource(span);
+			rel.setTarget(tok[i]);
+			graph.addRelation(rel);
+		}
+		return span;
+	}
+
+	/**
+	 * Creates a right-branching tree: each structure dominates one token and the structure of the next level, the
+	 * deepest structure dominates all remaining tokens.
+	 */
+	private static SStructure createTree(SDocumentGraph graph, SToken[] tok, int from, int to, int maxDepth) {
+		SStructure root = null;
+		SStructure parent = null;
+		int depth = 0;
+		for (int i = from; i < to; i++) {
+			SStructure struct = SaltFactory.createSStructure();
+			struct.createAnnotation(null, "cat", CATEGORIES[depth % CATEGORIES.length]);
+			graph.addNode(struct);
+			if (parent == null) {
+				root = struct;
+			} else {
+				dominate(graph, parent, struct);
+			}
+			depth++;
+			if (depth == maxDepth || i == to - 1) {
+				for (int j = i; j < to; j++) {
+					dominate(graph, struct, tok[j]);
+				}
+				break;
+			}
+			dominate(graph, struct, tok[i]);
+			parent = struct;
+		}
+		return root;
+	}
+
+	private static void dominate(SDocumentGraph graph, SStructure parent, SStructuredNode child) {
+		SDominanceRelation rel = SaltFactory.createSDominanceRelation();
+		rel.setSource(parent);
+		rel.setTarget(child);
+		graph.addRelation(rel);
+	}
+}
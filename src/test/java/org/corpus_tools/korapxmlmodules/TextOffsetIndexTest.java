@@ -0,0 +1,43 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import org.corpus_tools.salt.common.SDocumentGraph;
+import org.corpus_tools.salt.common.STextualDS;
+import org.junit.Test;
+
+/**
+ * Checks the output order of the {@link TextOffsetIndex}.
+ *
+ * @author Thomas Krause
+ */
+public class TextOffsetIndexTest {
+
+	@Test
+	public void test_sortedOrder() {
+		SDocumentGraph graph = SyntheticCorpus.createDocument(500, 4).getDocumentGraph();
+		STextualDS text = graph.getTextualDSs().get(0);
+		TextOffsetIndex offsets = new TextOffsetIndex(TokenTable.partition(graph).get(text));
+
+		assertEquals(graph.getTokens().size() + graph.getSpans().size() + graph.getStructures().size(),
+				offsets.size());
+
+		BitSet seen = new BitSet();
+		int previous = -1;
+		for (int rank = 0; rank < offsets.size(); rank++) {
+			int ordinal = offsets.getSortedOrdinal(rank);
+			assertTrue(!seen.get(ordinal));
+			seen.set(ordinal);
+
+			if (previous >= 0) {
+				int startCmp = Integer.compare(offsets.getStart(previous), offsets.getStart(ordinal));
+				int endCmp = Integer.compare(offsets.getEnd(previous), offsets.getEnd(ordinal));
+				assertTrue(startCmp < 0 || (startCmp == 0 && endCmp < 0) || (startCmp == 0 && endCmp == 0
+						&& offsets.getHeight(previous) >= offsets.getHeight(ordinal)));
+			}
+			previous = ordinal;
+		}
+	}
+}
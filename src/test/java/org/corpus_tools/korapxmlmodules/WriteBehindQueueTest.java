@@ -0,0 +1,165 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.stream.XMLStreamException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the {@link WriteBehindQueue} writes complete files in order.
+ *
+ * @author Thomas Krause
+ */
+public class WriteBehindQueueTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private WriteBehindQueue queue;
+
+	@Before
+	public void setUp() {
+		// tiny chunks and a short queue, so the writers are always behind
+		queue = new WriteBehindQueue(2, 2, 7);
+	}
+
+	@After
+	public void tearDown() {
+		queue.shutdown();
+	}
+
+	private static byte[] content(int file) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			sb.append("<span id=\"s").append(file).append('_').append(i).append("\"/>\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void test_concurrentFiles() throws Exception {
+		WriteBehindQueue.Batch batch = queue.newBatch();
+		List<File> completed = new CopyOnWriteArrayList<>();
+		ExecutorService exec = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int f = 0; f < 16; f++) {
+				int file = f;
+				futures.add(exec.submit(() -> {
+					byte[] data = content(file);
+					try (OutputStream out = batch.open(new File(tmp.getRoot(), file + ".xml"), completed::add)) {
+						// mix single bytes and arrays that span several chunks
+						out.write(data, 0, 3);
+						out.write(data[3]);
+						out.write(data, 4, data.length - 4);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			exec.shutdown();
+		}
+		batch.await();
+		assertEquals(16, completed.size());
+		for (int f = 0; f < 16; f++) {
+			assertArrayEquals(content(f), Files.readAllBytes(new File(tmp.getRoot(), f + ".xml").toPath()));
+		}
+	}
+
+	@Test
+	public void test_emptyFile() throws IOException {
+		File file = new File(tmp.getRoot(), "empty.xml");
+		WriteBehindQueue.Batch batch = queue.newBatch();
+		batch.open(file, null).close();
+		batch.await();
+		assertTrue(file.isFile());
+		assertArrayEquals(new byte[0], Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void test_discard() throws IOException {
+		File file = new File(tmp.getRoot(), "discarded.xml");
+		WriteBehindQueue.Batch batch = queue.newBatch();
+		OutputStream out = batch.open(file, f -> fail("A discarded file is not completed"));
+		out.write(content(0));
+		LayerOutput.discard(out);
+		batch.await();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void test_directoryOutput() throws IOException, XMLStreamException {
+		File textDir = tmp.newFolder("text");
+		WriteBehindQueue.Batch batch = queue.newBatch();
+		new DirectoryOutput(textDir, null, batch).write("base/token.xml", out -> out.write(content(1)));
+		batch.await();
+		assertArrayEquals(content(1), Files.readAllBytes(new File(textDir, "base/token.xml").toPath()));
+		assertFalse(new File(textDir, "base/token.xml" + DirectoryOutput.TMP_SUFFIX).exists());
+	}
+
+	@Test
+	public void test_failedFile() throws IOException {
+		WriteBehindQueue.Batch batch = queue.newBatch();
+		// the writer thread can't create the file and the completion of the other file fails
+		try (OutputStream out = batch.open(new File(tmp.getRoot(), "missing/failed.xml"), null)) {
+			out.write(content(0));
+		} catch (IOException ex) {
+			// the error can already be known while the file is written
+		}
+		File completed = new File(tmp.getRoot(), "completed.xml");
+		batch.open(completed, f -> {
+			throw new IllegalStateException("completion failed");
+		}).close();
+		try {
+			batch.await();
+			fail("The failed files are not reported");
+		} catch (IOException ex) {
+			// expected
+		}
+		assertFalse(completed.exists());
+
+		// the writer threads are still running
+		WriteBehindQueue.Batch next = queue.newBatch();
+		File file = new File(tmp.getRoot(), "next.xml");
+		try (OutputStream out = next.open(file, null)) {
+			out.write(content(2));
+		}
+		next.await();
+		assertArrayEquals(content(2), Files.readAllBytes(file.toPath()));
+	}
+
+	@Test
+	public void test_duplicateLayer() throws IOException {
+		File textDir = tmp.newFolder("text");
+		DirectoryOutput output = new DirectoryOutput(textDir);
+		try (OutputStream out = output.open("tree_tagger/morpho.xml")) {
+			// both streams would write the same temporary file
+			output.open("tree_tagger/morpho.xml");
+			fail("The layer is opened twice");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.corpus_tools.korapxmlmodules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the entries of a {@link ZipArchive} are complete, whether they are kept in memory or spooled.
+ *
+ * @author Thomas Krause
+ */
+public class ZipArchiveTest {
+
+	private static final int SPOOL_THRESHOLD = 1024;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static byte[] content(int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < length; i++) {
+			sb.append("<span id=\"s").append(i).append("\"/>\n");
+		}
+		return sb.substring(0, length).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] read(ZipFile zip, String name) throws IOException {
+		try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@Test
+	public void test_spoolLargeEntries() throws IOException {
+		File file = new File(tmp.getRoot(), "corpus.zip");
+		byte[] small = content(100);
+		byte[] large = content(10 * SPOOL_THRESHOLD);
+		try (ZipArchive archive = new ZipArchive(file, Deflater.DEFAULT_COMPRESSION, SPOOL_THRESHOLD)) {
+			LayerOutput output = archive.forText("CORPUS/DOC/TEXT");
+			// both entries are open at the same time
+			OutputStream smallOut = output.open("data.xml");
+			OutputStream largeOut = output.open("base/token.xml");
+			for (int i = 0; i < large.length; i += 100) {
+				largeOut.write(large, i, Math.min(100, large.length - i));
+			}
+			smallOut.write(small);
+			largeOut.close();
+			smallOut.close();
+
+			OutputStream discarded = output.open("base/sentences.xml");
+			discarded.write(large);
+			LayerOutput.discard(discarded);
+		}
+
+		// no spool files are left behind
+		assertArrayEquals(new String[]{"corpus.zip"}, tmp.getRoot().list());
+		try (ZipFile zip = new ZipFile(file)) {
+			assertEquals(2, zip.size());
+			assertArrayEquals(small, read(zip, "CORPUS/DOC/TEXT/data.xml"));
+			assertArrayEquals(large, read(zip, "CORPUS/DOC/TEXT/base/token.xml"));
+			ZipEntry discardedEntry = zip.getEntry("CORPUS/DOC/TEXT/base/sentences.xml");
+			assertNull(discardedEntry);
+		}
+	}
+
+	@Test
+	public void test_duplicateEntry() throws IOException {
+		File file = new File(tmp.getRoot(), "corpus.zip");
+		try (ZipArchive archive = new ZipArchive(file, Deflater.DEFAULT_COMPRESSION, SPOOL_THRESHOLD)) {
+			LayerOutput output = archive.forText("CORPUS/DOC/TEXT");
+			OutputStream first = output.open("tree_tagger/morpho.xml");
+			try {
+				// e.g. a foundry that is run twice for the same text
+				archive.forText("CORPUS/DOC/TEXT").open("tree_tagger/morpho.xml");
+				fail("The entry is opened twice");
+			} catch (IOException ex) {
+				// expected
+			}
+			first.write(content(100));
+			first.close();
+		}
+		try (ZipFile zip = new ZipFile(file)) {
+			assertArrayEquals(content(100), read(zip, "CORPUS/DOC/TEXT/tree_tagger/morpho.xml"));
+		}
+	}
+}